@@ -0,0 +1,220 @@
+package com.huard.heimdallclientandroid;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Client-side automatic gain control.  Each received frame is checked for ADC overdrive, and at
+ * most a few times a second each channel's peak and RMS level is measured on a strided subset of
+ * its samples.  Channels are stepped along the tuner's gain table:
+ * <ul>
+ *     <li>an overdriven channel drops {@link #OVERDRIVE_STEPS} steps at once, after the short
+ *     attack hold;</li>
+ *     <li>a channel whose peak stays above {@link #HIGH_PEAK} for {@link #CONFIRMATIONS}
+ *     evaluations drops one step;</li>
+ *     <li>a channel whose RMS stays below {@link #LOW_RMS} with its peak under {@link #RAISE_PEAK_LIMIT}
+ *     for as many evaluations rises one step, after the longer release hold.</li>
+ * </ul>
+ * The gap between the lower and raise thresholds is the hysteresis that keeps a steady signal from
+ * toggling between two steps.  Changes to all channels go out as one GAIN command, and nothing is
+ * evaluated again until frame headers report the new gains (or a settle timeout passes), so frames
+ * captured before the change took effect never trigger a second step.
+ * <p>
+ * Levels assume samples normalized to a full scale of 1.0.  Frames are observed on the receive
+ * thread; an instance must only be fed from one thread.
+ */
+public class AgcController {
+    private static final String TAG = "AgcController";
+
+    static final float HIGH_PEAK = 0.9f;         // about -1 dBFS
+    static final float RAISE_PEAK_LIMIT = 0.4f;  // about -8 dBFS
+    static final float LOW_RMS = 0.05f;          // about -26 dBFS
+    static final int OVERDRIVE_STEPS = 3;
+    static final int CONFIRMATIONS = 3;
+    static final long EVALUATION_INTERVAL_MS = 100;
+    static final long ATTACK_HOLD_MS = 100;
+    static final long RELEASE_HOLD_MS = 1000;
+    static final long SETTLE_TIMEOUT_MS = 2000;
+    private static final int MEASURED_SAMPLES = 4096;  // per channel and evaluation
+
+    private final ControlClient controlClient;
+    private final int[] gainTable;
+    private final int[] gainIndex;
+    private final int[] highCount;
+    private final int[] lowCount;
+    private final float[] peak;
+    private final float[] rms;
+    private volatile boolean enabled = true;
+    private long lastEvaluationMs = Long.MIN_VALUE / 2;
+    private long lastChangeMs = Long.MIN_VALUE / 2;
+    private boolean settling;
+    private long changes;
+
+    /**
+     * @param controlClient session the GAIN commands are sent on; may be null to only compute gains
+     * @param initialGains  gains the DAQ is currently set to, one per channel
+     */
+    public AgcController(ControlClient controlClient, @NonNull int[] initialGains) {
+        this.controlClient = controlClient;
+        this.gainTable = new int[ControlClient.acceptableGains.size()];
+        for (int i = 0; i < gainTable.length; i++) {
+            gainTable[i] = ControlClient.acceptableGains.get(i);
+        }
+        int channels = initialGains.length;
+        gainIndex = new int[channels];
+        highCount = new int[channels];
+        lowCount = new int[channels];
+        peak = new float[channels];
+        rms = new float[channels];
+        for (int ch = 0; ch < channels; ch++) {
+            gainIndex[ch] = nearestIndex(initialGains[ch]);
+        }
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /** Gains currently commanded, one per channel. */
+    public int[] getGains() {
+        int[] gains = new int[gainIndex.length];
+        for (int ch = 0; ch < gains.length; ch++) {
+            gains[ch] = gainTable[gainIndex[ch]];
+        }
+        return gains;
+    }
+
+    /** GAIN commands issued so far. */
+    public long getChangeCount() {
+        return changes;
+    }
+
+    /** Checks a received frame and sends a GAIN command if any channel needs a step. */
+    public void observe(@NonNull IqFrame frame) {
+        if (!enabled)
+            return;
+        int[] gains = evaluate(frame.getSamples(), frame.getHeader(), System.currentTimeMillis());
+        if (gains == null)
+            return;
+        Log.i(TAG, "Gains " + Arrays.toString(gains));
+        if (controlClient != null)
+            controlClient.sendGain(gains).whenComplete((reply, error) -> {
+                if (error != null)
+                    Log.e(TAG, "Gain change failed", error);
+            });
+    }
+
+    /**
+     * Decides the next gains from one frame.
+     *
+     * @return the new gains of every channel, or null when nothing changes
+     */
+    int[] evaluate(@NonNull float[][] samples, @NonNull HeaderIQ header, long nowMs) {
+        int channels = Math.min(Math.min(samples.length, header.getActiveAntChs()), gainIndex.length);
+        if (settling) {
+            if (!headerShowsGains(header, channels) && nowMs - lastChangeMs < SETTLE_TIMEOUT_MS)
+                return null;
+            settling = false;
+            Arrays.fill(highCount, 0);
+            Arrays.fill(lowCount, 0);
+        }
+
+        // Overdrive needs no measurement and is acted on as soon as the attack hold allows
+        int overdrive = header.getAdcOverdriveFlags();
+        if (overdrive != 0) {
+            if (nowMs - lastChangeMs < ATTACK_HOLD_MS)
+                return null;
+            boolean changed = false;
+            for (int ch = 0; ch < channels; ch++) {
+                if ((overdrive & (1 << ch)) != 0)
+                    changed |= step(ch, -OVERDRIVE_STEPS);
+            }
+            return changed ? commit(nowMs) : null;
+        }
+
+        if (nowMs - lastEvaluationMs < EVALUATION_INTERVAL_MS)
+            return null;
+        lastEvaluationMs = nowMs;
+
+        boolean changed = false;
+        boolean releaseAllowed = nowMs - lastChangeMs >= RELEASE_HOLD_MS;
+        boolean attackAllowed = nowMs - lastChangeMs >= ATTACK_HOLD_MS;
+        for (int ch = 0; ch < channels; ch++) {
+            measure(ch, samples[ch]);
+            if (peak[ch] > HIGH_PEAK) {
+                lowCount[ch] = 0;
+                if (++highCount[ch] >= CONFIRMATIONS && attackAllowed)
+                    changed |= step(ch, -1);
+            } else if (rms[ch] < LOW_RMS && peak[ch] < RAISE_PEAK_LIMIT) {
+                highCount[ch] = 0;
+                if (++lowCount[ch] >= CONFIRMATIONS && releaseAllowed)
+                    changed |= step(ch, 1);
+            } else {
+                highCount[ch] = 0;
+                lowCount[ch] = 0;
+            }
+        }
+        return changed ? commit(nowMs) : null;
+    }
+
+    private boolean step(int channel, int steps) {
+        int index = Math.max(0, Math.min(gainTable.length - 1, gainIndex[channel] + steps));
+        if (index == gainIndex[channel])
+            return false;
+        gainIndex[channel] = index;
+        highCount[channel] = 0;
+        lowCount[channel] = 0;
+        return true;
+    }
+
+    private int[] commit(long nowMs) {
+        lastChangeMs = nowMs;
+        settling = true;
+        changes++;
+        return getGains();
+    }
+
+    private boolean headerShowsGains(HeaderIQ header, int channels) {
+        int[] reported = header.getIfGains();
+        for (int ch = 0; ch < channels; ch++) {
+            if (reported[ch] != gainTable[gainIndex[ch]])
+                return false;
+        }
+        return true;
+    }
+
+    private void measure(int channel, float[] iq) {
+        int samples = iq.length / 2;
+        int stride = Math.max(1, samples / MEASURED_SAMPLES);
+        float maxMagnitude = 0f;
+        double sumOfSquares = 0;
+        int counted = 0;
+        for (int k = 0; k < samples; k += stride) {
+            float re = iq[2 * k];
+            float im = iq[2 * k + 1];
+            float magnitude = Math.max(Math.abs(re), Math.abs(im));
+            if (magnitude > maxMagnitude)
+                maxMagnitude = magnitude;
+            sumOfSquares += re * re + im * im;
+            counted++;
+        }
+        peak[channel] = maxMagnitude;
+        rms[channel] = counted == 0 ? 0f : (float) Math.sqrt(sumOfSquares / counted);
+    }
+
+    private int nearestIndex(int gain) {
+        int best = 0;
+        for (int i = 1; i < gainTable.length; i++) {
+            if (Math.abs(gainTable[i] - gain) < Math.abs(gainTable[best] - gain))
+                best = i;
+        }
+        return best;
+    }
+}
@@ -0,0 +1,58 @@
+package com.huard.heimdallclientandroid;
+
+/**
+ * Antenna element positions of a receive array in meters, in the array's own plane.  Element m
+ * feeds receiver channel m.
+ */
+public final class ArrayGeometry {
+    private final double[] x;
+    private final double[] y;
+    private final boolean linear;
+
+    private ArrayGeometry(double[] x, double[] y, boolean linear) {
+        this.x = x;
+        this.y = y;
+        this.linear = linear;
+    }
+
+    /** Elements on the x axis, {@code spacing} apart, element 0 at the origin. */
+    public static ArrayGeometry uniformLinear(int elements, double spacingMeters) {
+        double[] x = new double[elements];
+        for (int m = 0; m < elements; m++) {
+            x[m] = m * spacingMeters;
+        }
+        return new ArrayGeometry(x, new double[elements], true);
+    }
+
+    /** Elements evenly spaced on a circle around the origin, element 0 on the x axis. */
+    public static ArrayGeometry uniformCircular(int elements, double radiusMeters) {
+        double[] x = new double[elements];
+        double[] y = new double[elements];
+        for (int m = 0; m < elements; m++) {
+            double angle = 2 * Math.PI * m / elements;
+            x[m] = radiusMeters * Math.cos(angle);
+            y[m] = radiusMeters * Math.sin(angle);
+        }
+        return new ArrayGeometry(x, y, false);
+    }
+
+    public int getElementCount() {
+        return x.length;
+    }
+
+    public double getX(int element) {
+        return x[element];
+    }
+
+    public double getY(int element) {
+        return y[element];
+    }
+
+    /**
+     * A linear array cannot tell a bearing from its mirror image across the array axis, so only
+     * 0 to 180 degrees are meaningful; a circular array resolves the full circle.
+     */
+    public boolean isLinear() {
+        return linear;
+    }
+}
@@ -0,0 +1,276 @@
+package com.huard.heimdallclientandroid;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Inter-channel amplitude and phase calibration from the DAQ's noise-source frames.
+ * <p>
+ * While the noise source is on, every channel receives the same signal, so the cross-correlation of
+ * a channel with reference channel 0 gives its phase offset, and the ratio of their powers its gain.
+ * The complex correction per channel is cached per center frequency and gain setting, and is
+ * applied to data frames while they are copied out of the receive buffer, so correcting costs no
+ * extra pass over the samples.
+ */
+public class ChannelCalibrator {
+    private static final String TAG = "ChannelCalibrator";
+
+    /** Channels correlating less than this with the reference are left uncorrected. */
+    public static final float MIN_COHERENCE = 0.9f;
+    private static final int CACHE_SIZE = 32;
+    private static final int BLOCK_FLOATS = 4096;  // corrected right after the copy, while still in cache
+
+    private static final LatencyHistogram estimateTime = MetricsRegistry.getDefault().histogram("cal.estimate");
+
+    /** A tuning the corrections are valid for: the center frequency and the gain of each channel. */
+    private static final class Key {
+        final long frequencyHz;
+        final int[] gains;
+
+        Key(long frequencyHz, int[] gains) {
+            this.frequencyHz = frequencyHz;
+            this.gains = gains;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key other = (Key) o;
+            return frequencyHz == other.frequencyHz && Arrays.equals(gains, other.gains);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(frequencyHz) + Arrays.hashCode(gains);
+        }
+    }
+
+    private final Map<Key, float[]> corrections = new LinkedHashMap<Key, float[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, float[]> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    // Last lookup, so data frames at an unchanged tuning skip the map
+    private long lastFrequencyHz = -1;
+    private int[] lastGains = new int[0];
+    private float[] lastCorrection;
+    private long calibrations;
+    private long rejections;
+
+    /** Frames taken with the noise source on: CAL frames, and data frames flagged by the DAQ. */
+    public static boolean isCalibrationFrame(@NonNull HeaderIQ header) {
+        return header.getFrameType() == HeaderIQ.FRAME_TYPE_CAL || header.getNoiseSourceState() > 0;
+    }
+
+    /**
+     * Estimates and caches the corrections for the frame's tuning from a channel-major payload
+     * (see {@link ChannelFrameReader}).
+     *
+     * @return true if the frame was coherent enough to calibrate from
+     */
+    public boolean calibrate(@NonNull FloatBuffer payload, @NonNull HeaderIQ header) {
+        int channelLength = (int) header.getCpiLength() * 2;
+        int channels = Math.min(header.getActiveAntChs(), payload.limit() / Math.max(1, channelLength));
+        long start = System.nanoTime();
+        float[] correction = new float[2 * channels];
+        correction[0] = 1;
+        double powerRef = 0;
+        for (int k = 0; k < channelLength; k++) {
+            float value = payload.get(k);
+            powerRef += value * value;
+        }
+        for (int ch = 1; ch < channels; ch++) {
+            int base = ch * channelLength;
+            double crossRe = 0;
+            double crossIm = 0;
+            double power = 0;
+            for (int k = 0; k < channelLength; k += 2) {
+                float refRe = payload.get(k);
+                float refIm = payload.get(k + 1);
+                float re = payload.get(base + k);
+                float im = payload.get(base + k + 1);
+                crossRe += refRe * re + refIm * im;  // ref . conj(x)
+                crossIm += refIm * re - refRe * im;
+                power += re * re + im * im;
+            }
+            setCorrection(correction, ch, crossRe, crossIm, powerRef, power);
+        }
+        estimateTime.recordSince(start);
+        return store(header, correction);
+    }
+
+    /** As {@link #calibrate(FloatBuffer, HeaderIQ)}, from per-channel interleaved arrays. */
+    public boolean calibrate(@NonNull float[][] iq, @NonNull HeaderIQ header) {
+        int channels = Math.min(header.getActiveAntChs(), iq.length);
+        int channelLength = (int) header.getCpiLength() * 2;
+        long start = System.nanoTime();
+        float[] correction = new float[2 * channels];
+        correction[0] = 1;
+        float[] ref = iq[0];
+        double powerRef = 0;
+        for (int k = 0; k < channelLength; k++) {
+            powerRef += ref[k] * ref[k];
+        }
+        for (int ch = 1; ch < channels; ch++) {
+            float[] x = iq[ch];
+            double crossRe = 0;
+            double crossIm = 0;
+            double power = 0;
+            for (int k = 0; k < channelLength; k += 2) {
+                crossRe += ref[k] * x[k] + ref[k + 1] * x[k + 1];
+                crossIm += ref[k + 1] * x[k] - ref[k] * x[k + 1];
+                power += x[k] * x[k] + x[k + 1] * x[k + 1];
+            }
+            setCorrection(correction, ch, crossRe, crossIm, powerRef, power);
+        }
+        estimateTime.recordSince(start);
+        return store(header, correction);
+    }
+
+    // x.c matches the reference when c = e^(-j.phase offset) / gain = cross / |cross| . sqrt(Pref / P)
+    private static void setCorrection(float[] correction, int ch, double crossRe, double crossIm, double powerRef, double power) {
+        double magnitude = Math.hypot(crossRe, crossIm);
+        if (power == 0 || magnitude < MIN_COHERENCE * Math.sqrt(powerRef * power)) {
+            correction[2 * ch] = Float.NaN;  // incoherent, see store()
+            return;
+        }
+        double scale = Math.sqrt(powerRef / power) / magnitude;
+        correction[2 * ch] = (float) (crossRe * scale);
+        correction[2 * ch + 1] = (float) (crossIm * scale);
+    }
+
+    private synchronized boolean store(HeaderIQ header, float[] correction) {
+        int channels = correction.length / 2;
+        int coherent = 0;
+        for (int ch = 1; ch < channels; ch++) {
+            if (Float.isNaN(correction[2 * ch])) {
+                correction[2 * ch] = 1;  // e.g. an unconnected channel: pass it through as received
+                correction[2 * ch + 1] = 0;
+            } else {
+                coherent++;
+            }
+        }
+        if (coherent == 0 && channels > 1) {
+            rejections++;
+            Log.w(TAG, "CPI " + header.getIndexCPI() + " not coherent across channels, calibration skipped");
+            return false;
+        }
+        corrections.put(new Key(header.getRfCenterFreq(), gainsOf(header, channels)), correction);
+        lastFrequencyHz = -1;  // force a lookup, the entry for the current tuning may have changed
+        calibrations++;
+        if (coherent < channels - 1)
+            Log.w(TAG, (channels - 1 - coherent) + " channel(s) incoherent with the reference, left uncorrected");
+        return true;
+    }
+
+    private static int[] gainsOf(HeaderIQ header, int channels) {
+        return Arrays.copyOf(header.getIfGains(), channels);
+    }
+
+    /**
+     * The corrections for a frame's tuning, interleaved re, im per channel, or null if it was never
+     * calibrated.  When only the gains differ from a calibrated tuning, the newest corrections at the
+     * same frequency are used, as the phase offsets do not depend on gain.
+     */
+    @Nullable
+    public synchronized float[] getCorrection(@NonNull HeaderIQ header) {
+        long frequencyHz = header.getRfCenterFreq();
+        int[] gains = header.getIfGains();
+        if (frequencyHz == lastFrequencyHz && prefixEquals(lastGains, gains))
+            return lastCorrection;
+
+        int channels = header.getActiveAntChs();
+        float[] correction = corrections.get(new Key(frequencyHz, gainsOf(header, channels)));
+        if (correction == null) {
+            for (Map.Entry<Key, float[]> entry : corrections.entrySet()) {
+                if (entry.getKey().frequencyHz == frequencyHz)
+                    correction = entry.getValue();  // iteration ends at the most recently used
+            }
+        }
+        lastFrequencyHz = frequencyHz;
+        lastGains = gainsOf(header, channels);
+        lastCorrection = correction;
+        return correction;
+    }
+
+    private static boolean prefixEquals(int[] prefix, int[] values) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (prefix[i] != values[i])
+                return false;
+        }
+        return true;
+    }
+
+    /** Drops every cached correction, e.g. after the antenna cabling changed. */
+    public synchronized void clear() {
+        corrections.clear();
+        lastFrequencyHz = -1;
+        lastCorrection = null;
+    }
+
+    public synchronized long getCalibrationCount() {
+        return calibrations;
+    }
+
+    public synchronized long getRejectionCount() {
+        return rejections;
+    }
+
+    /** Multiplies interleaved samples [from, to) by re + j.im in place. */
+    static void correct(float[] iq, int from, int to, float re, float im) {
+        for (int k = from; k < to; k += 2) {
+            float i = iq[k];
+            float q = iq[k + 1];
+            iq[k] = i * re - q * im;
+            iq[k + 1] = i * im + q * re;
+        }
+    }
+
+    /** Copies interleaved samples, multiplying them by re + j.im. */
+    static void correct(float[] source, float[] destination, int length, float re, float im) {
+        for (int k = 0; k < length; k += 2) {
+            float i = source[k];
+            float q = source[k + 1];
+            destination[k] = i * re - q * im;
+            destination[k + 1] = i * im + q * re;
+        }
+    }
+
+    /**
+     * Copies one channel of a channel-major payload into {@code destination}, corrected block by
+     * block so each block is multiplied while it is still in cache.
+     */
+    static void correct(FloatBuffer payload, int offset, float[] destination, float re, float im) {
+        payload.position(offset);
+        for (int from = 0; from < destination.length; from += BLOCK_FLOATS) {
+            int to = Math.min(destination.length, from + BLOCK_FLOATS);
+            payload.get(destination, from, to - from);
+            correct(destination, from, to, re, im);
+        }
+    }
+
+    /** Corrects a channel-major payload in place. */
+    static void correct(FloatBuffer payload, int channelLength, float[] correction) {
+        for (int ch = 1; ch < correction.length / 2; ch++) {
+            float re = correction[2 * ch];
+            float im = correction[2 * ch + 1];
+            int end = (ch + 1) * channelLength;
+            for (int k = ch * channelLength; k < end; k += 2) {
+                float i = payload.get(k);
+                float q = payload.get(k + 1);
+                payload.put(k, i * re - q * im);
+                payload.put(k + 1, i * im + q * re);
+            }
+        }
+    }
+}
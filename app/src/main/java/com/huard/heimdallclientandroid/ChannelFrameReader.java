@@ -0,0 +1,167 @@
+package com.huard.heimdallclientandroid;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads IQ frames from a {@link ReadableByteChannel} into long-lived direct buffers.
+ * <p>
+ * The header and payload buffers are allocated once and only regrown when a header announces a
+ * larger payload than any seen before, so steady-state streaming performs no per-frame allocation.
+ * The payload is exposed as a little-endian {@link FloatBuffer} view laid out channel-major,
+ * [ch][sample][I,Q], which is only valid until the next call to {@link #readPayload(HeaderIQ)}.
+ */
+public class ChannelFrameReader {
+    private static final String TAG = "ChannelFrameReader";
+    private static final int SKIP_BUFFER_SIZE = 64 * 1024;
+
+    private final ReadableByteChannel channel;
+    private final ByteBuffer headerBuffer;
+    private ByteBuffer payloadBuffer;
+    private FloatBuffer payloadFloats;
+    private ByteBuffer skipBuffer;
+    private float[] decoded = new float[0];  // narrow samples, converted
+    private FloatBuffer decodedFloats = FloatBuffer.wrap(decoded);
+    private final byte[] scratch = new byte[SampleFormat.BLOCK_BYTES];
+
+    public ChannelFrameReader(@NonNull ReadableByteChannel channel) {
+        this.channel = channel;
+        this.headerBuffer = ByteBuffer.allocateDirect(HeaderIQ.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        this.payloadBuffer = ByteBuffer.allocateDirect(0).order(ByteOrder.LITTLE_ENDIAN);
+        this.payloadFloats = payloadBuffer.asFloatBuffer();
+    }
+
+    /**
+     * Reads the 1024-byte IQ header and decodes it into the supplied header object.
+     *
+     * @return false if the channel reached end-of-stream before the header was complete
+     */
+    public boolean readHeader(@NonNull HeaderIQ iqHeader) throws IOException {
+        if (!readHeaderBytes())
+            return false;
+        iqHeader.decodeHeader(headerBuffer);
+        return true;
+    }
+
+    /**
+     * Reads the 1024-byte IQ header and points the view at it without decoding.  The view is valid
+     * until the next header is read.
+     *
+     * @return false if the channel reached end-of-stream before the header was complete
+     */
+    public boolean readHeader(@NonNull HeaderView view) throws IOException {
+        if (!readHeaderBytes())
+            return false;
+        view.wrap(headerBuffer);
+        return true;
+    }
+
+    private boolean readHeaderBytes() throws IOException {
+        headerBuffer.clear();
+        if (!readFully(headerBuffer)) {
+            Log.e(TAG, "Stream closed while receiving IQ header");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reads the payload described by the header into the reusable payload buffer.  cf32 payloads are
+     * viewed in place; narrow integer samples (see {@link SampleFormat}) are converted into a reusable
+     * float array, which is viewed instead.
+     *
+     * @return a float view over the payload, or null if the header describes no payload, its samples
+     * cannot be decoded, or the channel closed mid-payload
+     */
+    public FloatBuffer readPayload(@NonNull HeaderIQ iqHeader) throws IOException {
+        return readPayload(iqHeader.getPayloadSize(), iqHeader.getSampleBitDepth());
+    }
+
+    public FloatBuffer readPayload(@NonNull HeaderView view) throws IOException {
+        return readPayload(view.getPayloadSize(), view.getSampleBitDepth());
+    }
+
+    private FloatBuffer readPayload(int incomingPayloadSize, int sampleBitDepth) throws IOException {
+        if (incomingPayloadSize <= 0)
+            return null;  // No data to process
+
+        ensurePayloadCapacity(incomingPayloadSize);
+        payloadBuffer.clear();
+        payloadBuffer.limit(incomingPayloadSize);
+        if (!readFully(payloadBuffer)) {
+            Log.e(TAG, "Stream closed while receiving IQ data");
+            return null;
+        }
+
+        SampleFormat format = SampleFormat.forBitDepth(sampleBitDepth);
+        if (format == SampleFormat.FLOAT32) {
+            payloadFloats.clear();
+            payloadFloats.limit(incomingPayloadSize / 4);
+            return payloadFloats;
+        }
+        if (format == null) {
+            Log.w(TAG, "No decoder for " + sampleBitDepth + "-bit samples, frame dropped");
+            return null;
+        }
+        int values = incomingPayloadSize / format.getBytesPerValue();
+        if (decoded.length < values) {
+            decoded = new float[values];
+            decodedFloats = FloatBuffer.wrap(decoded);
+        }
+        format.decode(payloadBuffer, decoded, 0, values, scratch);
+        decodedFloats.clear();
+        decodedFloats.limit(values);
+        return decodedFloats;
+    }
+
+    /**
+     * Reads past the payload described by the header through a small scratch buffer, leaving the
+     * payload buffer and its view untouched.
+     *
+     * @return false if the channel closed mid-payload
+     */
+    public boolean skipPayload(@NonNull HeaderView view) throws IOException {
+        int remaining = view.getPayloadSize();
+        if (remaining > 0 && skipBuffer == null)
+            skipBuffer = ByteBuffer.allocateDirect(SKIP_BUFFER_SIZE);
+        while (remaining > 0) {
+            skipBuffer.clear();
+            skipBuffer.limit(Math.min(remaining, SKIP_BUFFER_SIZE));
+            int read = channel.read(skipBuffer);
+            if (read == -1) {
+                Log.e(TAG, "Stream closed while skipping IQ data");
+                return false;
+            }
+            remaining -= read;
+        }
+        return true;
+    }
+
+    public int getPayloadCapacity() {
+        return payloadBuffer.capacity();
+    }
+
+    private void ensurePayloadCapacity(int size) {
+        if (payloadBuffer.capacity() >= size)
+            return;
+        Log.i(TAG, "Growing payload buffer to " + size + " bytes");
+        payloadBuffer = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+        payloadFloats = payloadBuffer.asFloatBuffer();
+    }
+
+    private boolean readFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) == -1)
+                return false;
+        }
+        buffer.flip();
+        return true;
+    }
+}
@@ -0,0 +1,770 @@
+package com.huard.heimdallclientandroid;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Streams from any number of Heimdall DAQ units on a single thread.  Every unit's data and control
+ * connections are non-blocking {@link SocketChannel}s registered with one {@link Selector}, and each
+ * data connection reassembles frames from whatever its socket has ready into its own long-lived
+ * buffers, so adding a unit adds buffers but no threads.
+ * <p>
+ * Frames are delivered on the selector thread tagged with the {@link Unit} they came from, which
+ * also reports the unit ID and hardware ID of its latest header.  Each unit has its own request
+ * window, {@link FrameSequencer} and {@link FrameTriage}, as a {@link DataClient} does.  Control
+ * commands are pipelined per unit and their replies matched in order, as in {@link ControlClient}.
+ * A failed connection is reopened after {@link #RECONNECT_DELAY_MS}.
+ */
+public class ConnectionManager implements FrameSource {
+    private static final String TAG = "ConnectionManager";
+
+    static final long RECONNECT_DELAY_MS = 1000;
+    private static final int MAX_REQUEST_WINDOW = 16;
+    private static final int SKIP_BUFFER_SIZE = 64 * 1024;
+    private static final int READ_BUDGET_BYTES = 1 << 20;  // per readiness event, so no unit starves the others
+    private static final byte[] CMD_STREAMING = "streaming".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CMD_IQ_DOWNLOAD = "IQDownload".getBytes(StandardCharsets.US_ASCII);
+
+    private static final LatencyHistogram roundTrip = MetricsRegistry.getDefault().histogram("control.rtt");
+
+    public interface FrameListener {
+        /**
+         * Called on the selector thread for every data frame passing its unit's triage.  The payload
+         * is channel-major, as from {@link ChannelFrameReader}, and is reused for the unit's next frame,
+         * so implementations must finish with it (or copy it) before returning; the header is a
+         * snapshot the listener may keep.
+         */
+        void onFrame(@NonNull Unit unit, @NonNull FloatBuffer payload, @NonNull HeaderIQ header);
+    }
+
+    private final FrameListener listener;
+    private volatile Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+    private final List<Unit> units = new CopyOnWriteArrayList<>();
+    private volatile boolean running;
+    private volatile boolean stopped;
+    private Thread thread;
+
+    // Selector thread only
+    private final List<Connection> connections = new ArrayList<>();
+    private final ByteBuffer skipBuffer = ByteBuffer.allocateDirect(SKIP_BUFFER_SIZE);
+    private final byte[] scratch = new byte[SampleFormat.BLOCK_BYTES];
+
+    /** One DAQ unit: a data connection and, optionally, a control connection. */
+    public final class Unit {
+        private final String host;
+        private final int dataPort;
+        private final int controlPort;
+        private final DataConnection data;
+        private final ControlConnection control;
+        private final FrameSequencer sequencer = new FrameSequencer();
+        private final FrameTriage triage = new FrameTriage();
+        private final AtomicLong framesDelivered = new AtomicLong();
+        private volatile int requestWindow = 1;
+        private volatile int unitId = -1;
+        private volatile String hardwareId = "";
+
+        private Unit(String host, int dataPort, int controlPort) {
+            this.host = host;
+            this.dataPort = dataPort;
+            this.controlPort = controlPort;
+            this.data = new DataConnection(this);
+            this.control = controlPort > 0 ? new ControlConnection(this) : null;
+        }
+
+        public String getHost() { return host; }
+
+        public int getDataPort() { return dataPort; }
+
+        /** 0 if the unit has no control connection. */
+        public int getControlPort() { return controlPort; }
+
+        /** Unit ID from the latest header received, or -1 before the first. */
+        public int getUnitId() { return unitId; }
+
+        /** Hardware ID from the latest header received, or empty before the first. */
+        public String getHardwareId() { return hardwareId; }
+
+        public boolean isConnected() {
+            return data.isConnected();
+        }
+
+        public long getFramesDelivered() {
+            return framesDelivered.get();
+        }
+
+        /** CPI index continuity of the unit's frames on its current connection. */
+        public FrameSequencer getSequencer() {
+            return sequencer;
+        }
+
+        /** Header-first filtering of the unit's frames, and its integrity check policy. */
+        public FrameTriage getTriage() {
+            return triage;
+        }
+
+        /** As {@link DataClient#setRequestWindow(int)}, for this unit. */
+        public void setRequestWindow(int window) {
+            if (window < 1 || window > MAX_REQUEST_WINDOW)
+                throw new IllegalArgumentException("Request window must be between 1 and " + MAX_REQUEST_WINDOW);
+            requestWindow = window;
+        }
+
+        public CompletableFuture<ControlClient.Reply> sendInit() {
+            return send(ControlClient.CMD_INIT, new byte[0]);
+        }
+
+        /** The server ends the session after acknowledging EXIT; it is reopened after the reconnect delay. */
+        public CompletableFuture<ControlClient.Reply> sendExit() {
+            return send(ControlClient.CMD_EXIT, new byte[0]);
+        }
+
+        public CompletableFuture<ControlClient.Reply> sendSquelchThreshold(float thresholdValue) {
+            ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putFloat(thresholdValue);
+            return send(ControlClient.CMD_STHU, buffer.array());
+        }
+
+        public CompletableFuture<ControlClient.Reply> sendFrequency(float frequency_MHz) {
+            ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putLong((long) (frequency_MHz * 1E6));
+            return send(ControlClient.CMD_FREQ, buffer.array());
+        }
+
+        /** Each gain is rounded to the nearest value the tuner supports. */
+        public CompletableFuture<ControlClient.Reply> sendGain(@NonNull int[] gains) {
+            ByteBuffer buffer = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
+            for (int gain : gains) {
+                buffer.putInt(ControlClient.nearestGain(gain));
+            }
+            return send(ControlClient.CMD_GAIN, buffer.array());
+        }
+
+        private CompletableFuture<ControlClient.Reply> send(byte[] command, byte[] parameters) {
+            Command pending = new Command(command, parameters);
+            if (control == null)
+                pending.reply.completeExceptionally(new IllegalStateException(this + " has no control port"));
+            else if (!running)
+                pending.reply.completeExceptionally(new IllegalStateException("Connection manager is not running"));
+            else
+                submit(new CommandTask(control, pending));
+            return pending.reply;
+        }
+
+        // Selector thread
+        private void identify(HeaderIQ header) {
+            if (header.getUnitId() == unitId && header.getHardwareId().equals(hardwareId))
+                return;
+            unitId = header.getUnitId();
+            hardwareId = header.getHardwareId();
+            Log.i(TAG, host + ":" + dataPort + " is unit " + unitId + " (" + hardwareId + ")");
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return unitId < 0 ? host + ":" + dataPort : "unit " + unitId + " at " + host + ":" + dataPort;
+        }
+    }
+
+    private static final class Command {
+        final String name;
+        final byte[] message;
+        final CompletableFuture<ControlClient.Reply> reply = new CompletableFuture<>();
+        long sentAt;
+
+        Command(byte[] command, byte[] parameters) {
+            this.name = new String(command, StandardCharsets.US_ASCII).trim();
+            this.message = ControlClient.createMessage(command, parameters);
+        }
+    }
+
+    // A queued command, failed rather than dropped if the manager stops before sending it
+    private static final class CommandTask implements Runnable {
+        final ControlConnection control;
+        final Command command;
+
+        CommandTask(ControlConnection control, Command command) {
+            this.control = control;
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            control.enqueue(command);
+        }
+    }
+
+    public ConnectionManager(@NonNull FrameListener listener) throws IOException {
+        this.listener = listener;
+        this.selector = Selector.open();
+    }
+
+    /**
+     * Adds a unit and connects to it once the manager is running.
+     *
+     * @param controlPort the unit's control port, or 0 to stream only
+     */
+    public Unit addUnit(@NonNull String host, int dataPort, int controlPort) {
+        Unit unit = new Unit(host, dataPort, controlPort);
+        units.add(unit);
+        submit(() -> connect(unit));
+        return unit;
+    }
+
+    /** Disconnects a unit; replies still outstanding on its control connection fail. */
+    public void removeUnit(@NonNull Unit unit) {
+        if (!units.remove(unit))
+            return;
+        submit(() -> {
+            retire(unit.data);
+            if (unit.control != null)
+                retire(unit.control);
+        });
+    }
+
+    public List<Unit> getUnits() {
+        return Collections.unmodifiableList(units);
+    }
+
+    /**
+     * Starts the selector thread.  A stopped manager starts again once its previous thread has
+     * finished, reconnecting every unit.
+     *
+     * @throws IllegalStateException if a new selector cannot be opened for the restart
+     */
+    @Override
+    public synchronized void start() {
+        if (running)
+            return;
+        if (thread != null) {
+            try {
+                thread.join();  // stop() has woken it
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                selector = Selector.open();
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot reopen the selector", e);
+            }
+            stopped = false;
+            submit(() -> {
+                for (Unit unit : units) {
+                    connect(unit);
+                }
+            });
+        }
+        running = true;
+        thread = new Thread(this::run, "ConnectionManager");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    private void submit(Runnable task) {
+        tasks.add(task);
+        selector.wakeup();
+        if (stopped)
+            discardTasks();  // the selector thread has drained the queue for this run, or is about to
+    }
+
+    // Any thread.  Fails queued commands; other tasks only touch connections that are already closed.
+    private void discardTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            if (task instanceof CommandTask)
+                ((CommandTask) task).command.reply.completeExceptionally(new IOException("Connection manager stopped"));
+        }
+    }
+
+    private void connect(Unit unit) {
+        open(unit.data);
+        if (unit.control != null)
+            open(unit.control);
+    }
+
+    private void open(Connection connection) {
+        if (connections.contains(connection))
+            return;  // a unit added while restarting
+        connections.add(connection);
+        connection.open();
+    }
+
+    private void retire(Connection connection) {
+        connections.remove(connection);
+        connection.retired = true;
+        connection.close(new IOException("Unit removed"));
+    }
+
+    private void run() {
+        try {
+            while (running) {
+                Runnable task;
+                while ((task = tasks.poll()) != null) {
+                    task.run();
+                }
+                selector.select(serviceTimers());
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isConnectable())
+                            connection.finishConnect();
+                        if (key.isValid() && key.isReadable())
+                            connection.read();
+                        if (key.isValid() && key.isWritable())
+                            connection.flush();
+                    } catch (IOException e) {
+                        connection.fail(e);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Selector failed", e);
+        } finally {
+            stopped = true;
+            running = false;
+            for (Connection connection : connections) {
+                connection.close(new IOException("Connection manager stopped"));
+            }
+            connections.clear();
+            discardTasks();
+            try {
+                selector.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Error closing selector", e);
+            }
+        }
+    }
+
+    // Reopens connections whose retry delay has passed and fails control sessions whose oldest reply
+    // is overdue.  Returns the select timeout until the next of these is due, 0 for none.
+    private long serviceTimers() {
+        long now = System.nanoTime();
+        long next = Long.MAX_VALUE;
+        for (int i = 0; i < connections.size(); i++) {
+            Connection connection = connections.get(i);
+            long due = connection.nextDeadline();
+            if (due == Long.MAX_VALUE)
+                continue;
+            if (due - now <= 0) {
+                connection.onDeadline();
+                due = connection.nextDeadline();
+                if (due == Long.MAX_VALUE)
+                    continue;
+            }
+            next = Math.min(next, due);
+        }
+        if (next == Long.MAX_VALUE)
+            return 0;
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis(next - now));
+    }
+
+    /** A socket to one port of a unit, reopened after a delay whenever it fails. */
+    private abstract class Connection {
+        final Unit unit;
+        final int port;
+        volatile SocketChannel channel;
+        private SelectionKey key;
+        private long retryAt;  // nanoTime to reopen at; 0 while open
+        private boolean retired;
+        private ByteBuffer outgoing = ByteBuffer.allocate(256);
+
+        Connection(Unit unit, int port) {
+            this.unit = unit;
+            this.port = port;
+        }
+
+        boolean isConnected() {
+            SocketChannel current = channel;
+            return current != null && current.isConnected();
+        }
+
+        void open() {
+            retryAt = 0;
+            try {
+                SocketChannel newChannel = SocketChannel.open();
+                channel = newChannel;
+                newChannel.configureBlocking(false);
+                configure(newChannel.socket());
+                key = newChannel.register(selector, SelectionKey.OP_CONNECT, this);
+                if (newChannel.connect(new InetSocketAddress(unit.host, port)))
+                    finishConnect();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        void finishConnect() throws IOException {
+            if (!channel.finishConnect())
+                return;
+            key.interestOps(SelectionKey.OP_READ);
+            Log.i(TAG, "Connected to " + this);
+            onConnected();
+            flush();
+        }
+
+        /** Appends bytes to write, sent by the next {@link #flush()}. */
+        void queue(byte[] bytes) {
+            if (outgoing.remaining() < bytes.length) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(outgoing.capacity() * 2, outgoing.position() + bytes.length));
+                outgoing.flip();
+                larger.put(outgoing);
+                outgoing = larger;
+            }
+            outgoing.put(bytes);
+        }
+
+        /** Writes what the socket accepts now, and waits for it to accept the rest. */
+        void flush() throws IOException {
+            if (!isConnected())
+                return;  // sent once connected
+            outgoing.flip();
+            channel.write(outgoing);
+            boolean more = outgoing.hasRemaining();
+            outgoing.compact();
+            key.interestOps(more ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+        }
+
+        void fail(IOException cause) {
+            Log.e(TAG, this + " failed, reconnecting in " + RECONNECT_DELAY_MS + " ms", cause);
+            close(cause);
+            if (!retired)
+                retryAt = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(RECONNECT_DELAY_MS);
+        }
+
+        void close(IOException cause) {
+            if (key != null)
+                key.cancel();
+            key = null;
+            SocketChannel current = channel;
+            channel = null;
+            if (current != null) {
+                try {
+                    current.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Error closing " + this, e);
+                }
+            }
+            outgoing.clear();
+            onClosed(cause);
+        }
+
+        long nextDeadline() {
+            return retryAt != 0 ? retryAt : Long.MAX_VALUE;
+        }
+
+        void onDeadline() {
+            if (retryAt != 0 && !retired)
+                open();
+        }
+
+        abstract void configure(Socket socket) throws IOException;
+
+        abstract void onConnected() throws IOException;
+
+        abstract void read() throws IOException;
+
+        abstract void onClosed(IOException cause);
+    }
+
+    /**
+     * Requests frames and reassembles them: the header is read into its buffer, then either the
+     * payload into the payload buffer or, for frames triage rejects, past the payload unread.
+     */
+    private final class DataConnection extends Connection {
+        private final ByteBuffer headerBuffer = ByteBuffer.allocateDirect(HeaderIQ.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        private final HeaderView headerView = new HeaderView();
+        private ByteBuffer payloadBuffer = ByteBuffer.allocateDirect(0).order(ByteOrder.LITTLE_ENDIAN);
+        private FloatBuffer payloadFloats = payloadBuffer.asFloatBuffer();
+        private float[] decoded = new float[0];  // narrow samples, converted
+        private FloatBuffer decodedFloats = FloatBuffer.wrap(decoded);
+        private boolean readingPayload;
+        private int skipRemaining;
+        private boolean frameEnded;
+        private int requestsInFlight;
+
+        DataConnection(Unit unit) {
+            super(unit, unit.dataPort);
+        }
+
+        @Override
+        void configure(Socket socket) throws IOException {
+            socket.setReceiveBufferSize(15 * 1024 * 1024);
+            socket.setKeepAlive(false);
+        }
+
+        @Override
+        void onConnected() {
+            headerBuffer.clear();
+            readingPayload = false;
+            skipRemaining = 0;
+            requestsInFlight = 0;  // requests outstanding on a previous connection will never be answered
+            unit.sequencer.reset();
+            queue(CMD_STREAMING);
+            requestFrames();
+        }
+
+        private void requestFrames() {
+            int window = unit.requestWindow;
+            while (requestsInFlight < window) {
+                queue(CMD_IQ_DOWNLOAD);
+                requestsInFlight++;
+            }
+        }
+
+        /**
+         * Reads until a frame completes, the read budget is spent or the socket has nothing more.
+         * The selector is level-triggered, so whatever is left is read on its next round, after the
+         * other units and the queued tasks have had their turn.
+         */
+        @Override
+        void read() throws IOException {
+            frameEnded = false;
+            int budget = READ_BUDGET_BYTES;
+            while (!frameEnded && budget > 0) {
+                ByteBuffer target;
+                if (skipRemaining > 0) {
+                    target = skipBuffer;
+                    target.clear();
+                    target.limit(Math.min(skipRemaining, SKIP_BUFFER_SIZE));
+                } else {
+                    target = readingPayload ? payloadBuffer : headerBuffer;
+                }
+                int read = channel.read(target);
+                if (read == -1)
+                    throw new EOFException("Data stream closed");
+                if (read == 0)
+                    return;  // nothing more until the selector reports the socket readable again
+                budget -= read;
+                if (target == skipBuffer) {
+                    skipRemaining -= read;
+                    if (skipRemaining == 0)
+                        endFrame();
+                } else if (!target.hasRemaining()) {
+                    if (readingPayload)
+                        onPayload();
+                    else
+                        onHeader();
+                }
+            }
+        }
+
+        private void onHeader() throws IOException {
+            headerBuffer.flip();
+            headerView.wrap(headerBuffer);
+            int payloadSize = headerView.getPayloadSize();
+            Metrics.FRAMES_RECEIVED.mark(1);
+            Metrics.BYTES_RECEIVED.mark(HeaderIQ.HEADER_SIZE + payloadSize);
+            requestsInFlight--;
+            unit.sequencer.observe(headerView.getIndexCPI());
+
+            if (unit.triage.classify(headerView) != FrameTriage.Verdict.DELIVER || payloadSize <= 0) {
+                skipRemaining = Math.max(payloadSize, 0);
+                if (skipRemaining == 0)
+                    endFrame();
+                return;
+            }
+            if (payloadBuffer.capacity() < payloadSize) {
+                Log.i(TAG, "Growing payload buffer of " + unit + " to " + payloadSize + " bytes");
+                payloadBuffer = ByteBuffer.allocateDirect(payloadSize).order(ByteOrder.LITTLE_ENDIAN);
+                payloadFloats = payloadBuffer.asFloatBuffer();
+            }
+            payloadBuffer.clear();
+            payloadBuffer.limit(payloadSize);
+            readingPayload = true;
+        }
+
+        private void onPayload() throws IOException {
+            readingPayload = false;
+            payloadBuffer.flip();
+            HeaderIQ header = new HeaderIQ();
+            headerView.copyTo(header);
+            unit.identify(header);
+            FloatBuffer samples = decode(header);
+            int channelLength = (int) header.getCpiLength() * 2;
+            if (unit.triage.checkIntegrity(samples, channelLength)) {
+                unit.framesDelivered.incrementAndGet();
+                try {
+                    listener.onFrame(unit, samples, header);
+                } catch (RuntimeException e) {
+                    Log.e(TAG, "Frame listener failed on a frame from " + unit, e);
+                }
+            }
+            endFrame();
+        }
+
+        // Triage only delivers decodable frames
+        private FloatBuffer decode(HeaderIQ header) {
+            int payloadSize = header.getPayloadSize();
+            SampleFormat format = SampleFormat.forBitDepth(header.getSampleBitDepth());
+            if (format == SampleFormat.FLOAT32) {
+                payloadFloats.clear();
+                payloadFloats.limit(payloadSize / 4);
+                return payloadFloats;
+            }
+            int values = payloadSize / format.getBytesPerValue();
+            if (decoded.length < values) {
+                decoded = new float[values];
+                decodedFloats = FloatBuffer.wrap(decoded);
+            }
+            format.decode(payloadBuffer, decoded, 0, values, scratch);
+            decodedFloats.clear();
+            decodedFloats.limit(values);
+            return decodedFloats;
+        }
+
+        private void endFrame() throws IOException {
+            frameEnded = true;
+            headerBuffer.clear();
+            requestFrames();
+            flush();
+        }
+
+        @Override
+        void onClosed(IOException cause) {
+            readingPayload = false;
+            skipRemaining = 0;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "data port of " + unit;
+        }
+    }
+
+    /** Writes 128-byte commands in the order issued and matches the 128-byte replies to them. */
+    private final class ControlConnection extends Connection {
+        private final ArrayDeque<Command> unanswered = new ArrayDeque<>();
+        private final ByteBuffer reply = ByteBuffer.allocate(ControlClient.MESSAGE_SIZE);
+
+        ControlConnection(Unit unit) {
+            super(unit, unit.controlPort);
+        }
+
+        @Override
+        void configure(Socket socket) throws IOException {
+            socket.setTcpNoDelay(true);
+        }
+
+        void enqueue(Command command) {
+            if (channel == null) {
+                command.reply.completeExceptionally(new IOException(this + " is not connected"));
+                return;
+            }
+            command.sentAt = System.nanoTime();
+            unanswered.add(command);
+            queue(command.message);
+            try {
+                flush();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        @Override
+        void onConnected() {
+            reply.clear();
+            long now = System.nanoTime();
+            for (Command command : unanswered) {
+                command.sentAt = now;  // queued while connecting
+            }
+        }
+
+        @Override
+        void read() throws IOException {
+            while (true) {
+                int read = channel.read(reply);
+                if (read == -1)
+                    throw new EOFException("Control session closed");
+                if (read == 0)
+                    return;
+                if (reply.hasRemaining())
+                    continue;
+                long now = System.nanoTime();
+                String response = new String(reply.array(), StandardCharsets.US_ASCII).trim();
+                reply.clear();
+                Command command = unanswered.poll();
+                if (command == null) {
+                    Log.w(TAG, "Unsolicited response from " + unit + " dropped");
+                    continue;
+                }
+                ControlClient.Reply answer = new ControlClient.Reply(command.name, response, now - command.sentAt);
+                roundTrip.record(answer.getRoundTripNanos());
+                command.reply.complete(answer);
+            }
+        }
+
+        @Override
+        long nextDeadline() {
+            Command oldest = unanswered.peek();
+            long replyDue = oldest == null ? Long.MAX_VALUE
+                    : oldest.sentAt + TimeUnit.MILLISECONDS.toNanos(ControlClient.REPLY_TIMEOUT_MS);
+            return Math.min(super.nextDeadline(), replyDue);
+        }
+
+        @Override
+        void onDeadline() {
+            Command oldest = unanswered.peek();
+            if (oldest != null && System.nanoTime() - oldest.sentAt >= TimeUnit.MILLISECONDS.toNanos(ControlClient.REPLY_TIMEOUT_MS))
+                fail(new SocketTimeoutException("No reply to " + oldest.name));
+            else
+                super.onDeadline();
+        }
+
+        // Fails every unanswered command
+        @Override
+        void onClosed(IOException cause) {
+            Command command;
+            while ((command = unanswered.poll()) != null) {
+                command.reply.completeExceptionally(cause);
+            }
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return "control port of " + unit;
+        }
+    }
+}
@@ -2,158 +2,460 @@ package com.huard.heimdallclientandroid;
 
 import android.util.Log;
 
+import androidx.annotation.NonNull;
+
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+/**
+ * Long-lived session on the DAQ control port.  Every command returns a future completed with the
+ * server's reply and the command's round-trip time.  Commands are written on a single thread in
+ * the order they are issued, connecting first if needed, and a separate reader matches the
+ * 128-byte replies to them in order, so any number of commands may be outstanding at once.
+ * A {@link Batch} writes several commands with a single socket write.
+ * <p>
+ * The client remembers the frequency, gains and squelch threshold it last set and completes a
+ * command asking for the same value again immediately with a {@link Reply#isSkipped() skipped}
+ * reply instead of sending it.  The remembered state is forgotten when the session ends.
+ */
 public class ControlClient {
     private static final String TAG = "ControlClient";
 
+    static final int MESSAGE_SIZE = 128;
+    private static final int COMMAND_SIZE = 4;
+    static final int REPLY_TIMEOUT_MS = 5000;
+    private static final int REPLY_POLL_MS = 250;  // how often an idle reader checks the oldest command's deadline
+
     // Command words
-    private static final byte[] CMD_INIT = "INIT".getBytes();
-    private static final byte[] CMD_EXIT = "EXIT".getBytes();
-    private static final byte[] CMD_STHU = "STHU".getBytes();
-    private static final byte[] CMD_FREQ = "FREQ".getBytes();
-    private static final byte[] CMD_GAIN = "GAIN".getBytes();
-    private static final byte[] CMD_AGC = "AGC ".getBytes();
+    static final byte[] CMD_INIT = "INIT".getBytes();
+    static final byte[] CMD_EXIT = "EXIT".getBytes();
+    static final byte[] CMD_STHU = "STHU".getBytes();
+    static final byte[] CMD_FREQ = "FREQ".getBytes();
+    static final byte[] CMD_GAIN = "GAIN".getBytes();
+    static final byte[] CMD_AGC = "AGC ".getBytes();
 
     // List of acceptable gain values
-    private static final List<Integer> acceptableGains = Arrays.asList(
+    static final List<Integer> acceptableGains = Arrays.asList(
             0, 9, 14, 27, 37, 77, 87, 125, 144, 157, 166, 197, 207, 229, 254, 280, 297, 328, 338, 364, 372, 386, 402, 421, 434, 439, 445, 480, 496
     );
 
+    private static final LatencyHistogram roundTrip = MetricsRegistry.getDefault().histogram("control.rtt");
+
     private final String host;
     private final int port;
-    private Socket socket;
-    private InputStream inputStream;
+    private volatile Socket socket;
     private OutputStream outputStream;
     private final ControlClientListener controlClientListener;
     private final ExecutorService executorService;
+    private final ConcurrentLinkedQueue<Command> pending = new ConcurrentLinkedQueue<>();
+    private CompletableFuture<Reply> lastWritten;  // writer thread only
+
+    // Last state requested from the server, written on issuing threads and the writer; null is unknown
+    private final Object stateLock = new Object();
+    private Long frequencyHz;
+    private int[] gains;
+    private Float squelchThreshold;
+
+    /** Server answer to one command. */
+    public static final class Reply {
+        private final String command;
+        private final String response;
+        private final long roundTripNanos;
+
+        Reply(String command, String response, long roundTripNanos) {
+            this.command = command;
+            this.response = response;
+            this.roundTripNanos = roundTripNanos;
+        }
+
+        public String getCommand() { return command; }
+
+        /** Trimmed reply text, e.g. "FNSD"; empty for a skipped command. */
+        public String getResponse() { return response; }
+
+        /** Time from the command's write to its reply; 0 for a skipped command. */
+        public long getRoundTripNanos() { return roundTripNanos; }
+
+        /** True when the command was not sent because the server already had the requested state. */
+        public boolean isSkipped() { return roundTripNanos == 0 && response.isEmpty(); }
+
+        @NonNull
+        @Override
+        public String toString() {
+            if (isSkipped())
+                return command + ": skipped";
+            return String.format(Locale.US, "%s: %s in %.1f ms", command, response, roundTripNanos / 1e6);
+        }
+    }
+
+    private static final class Command {
+        final String name;
+        final byte[] message;
+        final CompletableFuture<Reply> reply = new CompletableFuture<>();
+        long sentAt;
+
+        Command(byte[] command, byte[] parameters) {
+            this.name = new String(command, StandardCharsets.US_ASCII).trim();
+            this.message = createMessage(command, parameters);
+        }
+    }
+
+    /**
+     * Commands collected and written to the socket together by {@link #send()}.  Each method returns
+     * the future of its command; the replies still arrive one per command.
+     */
+    public final class Batch {
+        private final List<Command> commands = new ArrayList<>();
+        private final List<Runnable> onFailure = new ArrayList<>();
+        private boolean sent;
+
+        private Batch() {}
+
+        public CompletableFuture<Reply> init() {
+            return add(new Command(CMD_INIT, new byte[0]), null);
+        }
+
+        public CompletableFuture<Reply> exit() {
+            return add(new Command(CMD_EXIT, new byte[0]), null);
+        }
+
+        public CompletableFuture<Reply> agc() {
+            return add(new Command(CMD_AGC, new byte[0]), null);
+        }
+
+        public CompletableFuture<Reply> squelchThreshold(float thresholdValue) {
+            synchronized (stateLock) {
+                if (squelchThreshold != null && squelchThreshold == thresholdValue)
+                    return skipped(CMD_STHU);
+                squelchThreshold = thresholdValue;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putFloat(thresholdValue);
+            return add(new Command(CMD_STHU, buffer.array()), () -> {
+                synchronized (stateLock) {
+                    squelchThreshold = null;
+                }
+            });
+        }
+
+        public CompletableFuture<Reply> frequency(float frequency_MHz) {
+            long frequency = (long) (frequency_MHz*1E6);
+            synchronized (stateLock) {
+                if (frequencyHz != null && frequencyHz == frequency)
+                    return skipped(CMD_FREQ);
+                frequencyHz = frequency;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putLong(frequency);
+            return add(new Command(CMD_FREQ, buffer.array()), () -> {
+                synchronized (stateLock) {
+                    frequencyHz = null;
+                }
+            });
+        }
+
+        /** Each gain is rounded to the nearest value the tuner supports before comparing and sending. */
+        public CompletableFuture<Reply> gain(@NonNull int[] requestedGains) {
+            int[] nearest = new int[requestedGains.length];
+            for (int i = 0; i < nearest.length; i++) {
+                nearest[i] = findNearestGain(requestedGains[i]);
+            }
+            synchronized (stateLock) {
+                if (Arrays.equals(gains, nearest))
+                    return skipped(CMD_GAIN);
+                gains = nearest;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
+            for (int gain : nearest) {
+                buffer.putInt(gain);
+            }
+            return add(new Command(CMD_GAIN, buffer.array()), () -> {
+                synchronized (stateLock) {
+                    gains = null;
+                }
+            });
+        }
+
+        /** Writes every command of the batch in one socket write.  A batch can only be sent once. */
+        public void send() {
+            if (sent)
+                throw new IllegalStateException("Batch already sent");
+            sent = true;
+            if (!commands.isEmpty())
+                executorService.execute(() -> write(commands, onFailure));
+        }
+
+        private CompletableFuture<Reply> add(Command command, Runnable forgetState) {
+            if (sent)
+                throw new IllegalStateException("Batch already sent");
+            commands.add(command);
+            if (forgetState != null)
+                onFailure.add(forgetState);
+            return command.reply;
+        }
+
+        private CompletableFuture<Reply> skipped(byte[] command) {
+            return CompletableFuture.completedFuture(
+                    new Reply(new String(command, StandardCharsets.US_ASCII).trim(), "", 0));
+        }
+    }
 
     public ControlClient(ControlClientListener listener, String host, int port) {
         this.controlClientListener = listener;
         this.host = host;
         this.port = port;
-        this.executorService = Executors.newSingleThreadExecutor();
+        this.executorService = Executors.newSingleThreadExecutor(r -> new Thread(r, "ControlWriter"));
     }
 
     public boolean isConnected() {
-        return socket != null && socket.isConnected() && !socket.isClosed();
+        Socket current = socket;
+        return current != null && current.isConnected() && !current.isClosed();
     }
 
+    /** Opens the session now; commands connect on demand otherwise. */
     public void connect() {
         executorService.execute(() -> {
             try {
-                if (!isConnected()) {
-                    Log.i(TAG, "Attempting to access host " + host + " at port " + port);
-                    socket = new Socket();
-                    socket.connect(new InetSocketAddress(host, port), 5000);
-                    inputStream = socket.getInputStream();
-                    outputStream = socket.getOutputStream();
-                    Log.i(TAG, "Connected to control port " + port);
-                    if (controlClientListener != null) {
-                        controlClientListener.notifyControlClient("Connected to control port " + port);
-                    }
-                }
+                ensureConnected();
             } catch (IOException e) {
                 Log.e(TAG, "Error connecting to control port", e);
             }
         });
     }
 
+    /**
+     * Ends the session once every command issued so far has been answered, or has waited a reply
+     * timeout for its answer.
+     */
     public void disconnect() {
         executorService.execute(() -> {
-            try {
-                if (socket != null) {
-                    socket.close();
-                }
-                socket = null;
-                inputStream = null;
-                outputStream = null;
-                Log.i(TAG, "Disconnected from control port " + port);
-                if (controlClientListener != null) {
-                    controlClientListener.notifyControlClient("Disconnected from control port " + port);
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "Error disconnecting from control port", e);
+            if (socket == null)
+                return;
+            awaitReplies();
+            closeSession(new IOException("Disconnected"));
+            Log.i(TAG, "Disconnected from control port " + port);
+            if (controlClientListener != null) {
+                controlClientListener.notifyControlClient("Disconnected from control port " + port);
             }
         });
     }
 
-    public void sendInit() {
-        sendMessage(CMD_INIT, new byte[0]);
+    /** Sends the next frequency, gain and squelch commands even if they match the remembered state. */
+    public void forgetState() {
+        synchronized (stateLock) {
+            frequencyHz = null;
+            gains = null;
+            squelchThreshold = null;
+        }
+    }
+
+    public Batch batch() {
+        return new Batch();
+    }
+
+    public CompletableFuture<Reply> sendInit() {
+        Batch batch = batch();
+        CompletableFuture<Reply> reply = batch.init();
+        batch.send();
+        return reply;
     }
 
-    public void sendExit() {
-        sendMessage(CMD_EXIT, new byte[0]);
+    /** The server ends the session after acknowledging EXIT. */
+    public CompletableFuture<Reply> sendExit() {
+        Batch batch = batch();
+        CompletableFuture<Reply> reply = batch.exit();
+        batch.send();
+        return reply;
     }
 
     @SuppressWarnings("unused")
-    public void sendAgc() {
-        sendMessage(CMD_AGC, new byte[0]);
+    public CompletableFuture<Reply> sendAgc() {
+        Batch batch = batch();
+        CompletableFuture<Reply> reply = batch.agc();
+        batch.send();
+        return reply;
     }
 
-    public void sendSquelchThreshold(float thresholdValue) {
-        ByteBuffer buffer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
-        buffer.putFloat(thresholdValue);
-        sendMessage(CMD_STHU, buffer.array());
+    public CompletableFuture<Reply> sendSquelchThreshold(float thresholdValue) {
+        Batch batch = batch();
+        CompletableFuture<Reply> reply = batch.squelchThreshold(thresholdValue);
+        batch.send();
+        return reply;
     }
 
-    public void sendFrequency(float frequency_MHz) {
-        ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
-        long frequency = (long) (frequency_MHz*1E6);
-        buffer.putLong(frequency);
-        sendMessage(CMD_FREQ, buffer.array());
+    public CompletableFuture<Reply> sendFrequency(float frequency_MHz) {
+        Batch batch = batch();
+        CompletableFuture<Reply> reply = batch.frequency(frequency_MHz);
+        batch.send();
+        return reply;
     }
 
-    public void sendGain(int[] gains) {
-        ByteBuffer buffer = ByteBuffer.allocate(20).order(ByteOrder.LITTLE_ENDIAN);
-        for (int gain : gains) {
-            int nearestGain = findNearestGain(gain);
-            buffer.putInt(nearestGain);
-        }
-        sendMessage(CMD_GAIN, buffer.array());
+    public CompletableFuture<Reply> sendGain(int[] gains) {
+        Batch batch = batch();
+        CompletableFuture<Reply> reply = batch.gain(gains);
+        batch.send();
+        return reply;
     }
 
     public int findNearestGain(int value) {
+        return nearestGain(value);
+    }
+
+    static int nearestGain(int value) {
         return acceptableGains.stream().min(Comparator.comparingInt(g -> Math.abs(g - value))).orElse(0);
     }
 
-    private void sendMessage(byte[] command, byte[] parameters) {
-        executorService.execute(() -> {
-            byte[] message = createMessage(command, parameters);
+    // Runs on the writer thread only
+    private void ensureConnected() throws IOException {
+        if (isConnected())
+            return;
+        Log.i(TAG, "Attempting to access host " + host + " at port " + port);
+        Socket newSocket = new Socket();
+        newSocket.connect(new InetSocketAddress(host, port), 5000);
+        newSocket.setTcpNoDelay(true);
+        newSocket.setSoTimeout(REPLY_POLL_MS);
+        outputStream = newSocket.getOutputStream();
+        socket = newSocket;
+        Thread reader = new Thread(() -> readReplies(newSocket), "ControlReader");
+        reader.setDaemon(true);
+        reader.start();
+        Log.i(TAG, "Connected to control port " + port);
+        if (controlClientListener != null) {
+            controlClientListener.notifyControlClient("Connected to control port " + port);
+        }
+    }
 
-            try {
-                outputStream.write(message);
-                outputStream.flush();
-                byte[] response = new byte[128];
-                int readBytes = inputStream.read(response);
-                if (readBytes > 0) {
-                    String responseMessage = new String(response).trim();
-                    if (controlClientListener != null) {
-                        controlClientListener.notifyControlClient("Received response: " + responseMessage);
+    // Runs on the writer thread only
+    private void write(List<Command> commands, List<Runnable> onFailure) {
+        byte[] batch = new byte[commands.size() * MESSAGE_SIZE];
+        for (int i = 0; i < commands.size(); i++) {
+            System.arraycopy(commands.get(i).message, 0, batch, i * MESSAGE_SIZE, MESSAGE_SIZE);
+        }
+        try {
+            ensureConnected();
+            long now = System.nanoTime();
+            for (Command command : commands) {
+                command.sentAt = now;
+                pending.add(command);  // queued before writing so the reader can never see an unmatched reply
+            }
+            outputStream.write(batch);
+            outputStream.flush();
+            lastWritten = commands.get(commands.size() - 1).reply;
+        } catch (IOException e) {
+            Log.e(TAG, "Error sending message", e);
+            for (Runnable forget : onFailure) {
+                forget.run();
+            }
+            for (Command command : commands) {
+                command.reply.completeExceptionally(e);
+            }
+            closeSession(e);
+        }
+    }
+
+    // Replies arrive in order, so the last command written is answered last
+    private void awaitReplies() {
+        if (lastWritten == null)
+            return;
+        try {
+            lastWritten.get(REPLY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            // the session is closing anyway; the command's own future reports the failure
+        }
+    }
+
+    private void readReplies(Socket session) {
+        byte[] response = new byte[MESSAGE_SIZE];
+        long replyTimeout = TimeUnit.MILLISECONDS.toNanos(REPLY_TIMEOUT_MS);
+        try {
+            InputStream in = session.getInputStream();
+            while (true) {
+                // Read with an explicit offset so a poll timeout mid-reply keeps the bytes already read
+                int filled = 0;
+                while (filled < MESSAGE_SIZE) {
+                    int read;
+                    try {
+                        read = in.read(response, filled, MESSAGE_SIZE - filled);
+                    } catch (SocketTimeoutException e) {
+                        Command oldest = pending.peek();
+                        if (oldest == null || System.nanoTime() - oldest.sentAt < replyTimeout)
+                            continue;  // idle, or the oldest command is still within its reply timeout
+                        throw new SocketTimeoutException("No reply to " + oldest.name + " within " + REPLY_TIMEOUT_MS + " ms");
                     }
-                    Log.i(TAG, "Received response: " + Arrays.toString(response));
+                    if (read == -1)
+                        throw new EOFException("Control session closed");
+                    filled += read;
+                }
+                long now = System.nanoTime();
+                Command command = pending.poll();
+                if (command == null) {
+                    Log.w(TAG, "Unsolicited response dropped");
+                    continue;
                 }
+                String responseMessage = new String(response, StandardCharsets.US_ASCII).trim();
+                Reply reply = new Reply(command.name, responseMessage, now - command.sentAt);
+                roundTrip.record(reply.getRoundTripNanos());
+                if (controlClientListener != null) {
+                    controlClientListener.notifyControlClient("Received response: " + reply.getResponse()
+                            + String.format(Locale.US, " (%s, %.1f ms)", command.name, reply.getRoundTripNanos() / 1e6));
+                }
+                command.reply.complete(reply);
+            }
+        } catch (IOException e) {
+            // Server closed the session (e.g. after EXIT), the link failed or a reply timed out
+            executorService.execute(() -> {
+                if (session == socket)
+                    closeSession(e);
+            });
+        }
+    }
+
+    // Runs on the writer thread only.  Fails every unanswered command and forgets the server state.
+    private void closeSession(IOException cause) {
+        Socket current = socket;
+        socket = null;
+        outputStream = null;
+        if (current != null) {
+            try {
+                current.close();
             } catch (IOException e) {
-                Log.e(TAG, "Error sending message", e);
+                Log.e(TAG, "Error disconnecting from control port", e);
             }
-        });
+        }
+        lastWritten = null;
+        Command command;
+        while ((command = pending.poll()) != null) {
+            command.reply.completeExceptionally(cause);
+        }
+        forgetState();
     }
 
-    private byte[] createMessage(byte[] command, byte[] parameters) {
-        ByteBuffer buffer = ByteBuffer.allocate(128).order(ByteOrder.LITTLE_ENDIAN);
-        buffer.put(Arrays.copyOf(command, 4));
-        buffer.put(Arrays.copyOf(parameters, 124));
+    static byte[] createMessage(byte[] command, byte[] parameters) {
+        ByteBuffer buffer = ByteBuffer.allocate(MESSAGE_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(Arrays.copyOf(command, COMMAND_SIZE));
+        buffer.put(Arrays.copyOf(parameters, MESSAGE_SIZE - COMMAND_SIZE));
         return buffer.array();
     }
 }
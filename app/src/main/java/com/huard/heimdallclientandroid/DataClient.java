@@ -2,32 +2,75 @@ package com.huard.heimdallclientandroid;
 
 import android.util.Log;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-public class DataClient {
+public class DataClient implements FrameSource {
     private static final String TAG = "DataClient";
 
+    /**
+     * How frames are read from the data socket.  STREAM copies every frame into new heap arrays;
+     * CHANNEL reads into reusable direct buffers through a {@link SocketChannel}.
+     */
+    public enum ReaderMode { STREAM, CHANNEL }
+
+    private static final byte[] CMD_STREAMING = "streaming".getBytes();
+    private static final byte[] CMD_IQ_DOWNLOAD = "IQDownload".getBytes();
+    private static final int MAX_REQUEST_WINDOW = 16;
+
     private final String host;
     private final int port;
-    private Socket socket;
-    private InputStream inputStream;
+    private volatile Socket socket;
     private OutputStream outputStream;
     private final DataClientListener dataClientListener;
     private final ExecutorService executorService;
     private volatile boolean running = true;
     private final HeaderIQ iqHeader;
+    private final HeaderView headerView = new HeaderView();
+    private final ReaderMode readerMode;
+    private StreamFrameReader streamReader;
+    private ChannelFrameReader channelReader;
+    private final IqFramePool framePool;
+    private volatile int requestWindow = 1;
+    private final AtomicInteger requestsInFlight = new AtomicInteger();
+    private final AtomicLong lostRequests = new AtomicLong();
+    private volatile IqRecorder recorder;
+    private volatile TriggeredCapture capture;
+    private volatile ChannelCalibrator calibrator;
+    private final FrameSequencer sequencer = new FrameSequencer();
+    private final FrameTriage triage = new FrameTriage();
+    private final AtomicLong poolDrops = new AtomicLong();
+    // Per-frame details are only logged with "adb shell setprop log.tag.DataClient DEBUG"
+    private final boolean debugLogging = Log.isLoggable(TAG, Log.DEBUG);
 
     public DataClient(DataClientListener listener, String host, int port) {
+        this(listener, host, port, ReaderMode.STREAM, null);
+    }
+
+    public DataClient(DataClientListener listener, String host, int port, ReaderMode readerMode) {
+        this(listener, host, port, readerMode, null);
+    }
+
+    /**
+     * @param framePool if non-null, frames are delivered as leased {@link IqFrame}s through
+     *                  {@link DataClientListener#notifyDataClient(IqFrame)}; frames arriving while
+     *                  the pool is exhausted are dropped
+     */
+    public DataClient(DataClientListener listener, String host, int port, ReaderMode readerMode, IqFramePool framePool) {
         this.dataClientListener = listener;
         this.host = host;
         this.port = port;
+        this.readerMode = readerMode;
+        this.framePool = framePool;
         this.executorService = Executors.newSingleThreadExecutor();
         this.iqHeader = new HeaderIQ();
     }
@@ -37,29 +80,86 @@ public class DataClient {
     }
 
     public void connect() {
-        executorService.execute(() -> {
-            try {
-                if (!isConnected()) {
-                    Log.i(TAG, "Attempting to access host " + host + " at port " + port);
+        running = true;
+        executorService.execute(this::open);
+    }
+
+    // Runs on the executor.  A reconnect queued before disconnect() finds running cleared and gives up.
+    private void open() {
+        try {
+            if (running && !isConnected()) {
+                Log.i(TAG, "Attempting to access host " + host + " at port " + port);
+                if (readerMode == ReaderMode.CHANNEL) {
+                    // SO_TIMEOUT does not apply to channel reads, which block until data or close
+                    SocketChannel channel = SocketChannel.open();
+                    channel.socket().setReceiveBufferSize(15*1024 * 1024);
+                    channel.connect(new InetSocketAddress(host, port));
+                    socket = channel.socket();
+                    socket.setKeepAlive(false);
+                    channelReader = new ChannelFrameReader(channel);
+                } else {
                     socket = new Socket(host, port);
                     socket.setKeepAlive(false);
                     socket.setSoTimeout(15000);  // Set timeout for blocking operations
                     socket.setReceiveBufferSize(15*1024 * 1024);
-                    inputStream = socket.getInputStream();
-                    outputStream = socket.getOutputStream();
-                    running = true;
-                    beginStreaming();
-                    listen();
-                    Log.i(TAG, "Connected to data port " + port);
+                    streamReader = new StreamFrameReader(socket.getInputStream());
                 }
-            } catch (IOException e) {
-                Log.e(TAG, "IOException on connect", e);
+                if (!running) {
+                    closeSocket();  // disconnected while connecting
+                    return;
+                }
+                outputStream = socket.getOutputStream();
+                // Requests outstanding on the previous connection will never be answered
+                lostRequests.addAndGet(requestsInFlight.getAndSet(0));
+                sequencer.reset();
+                beginStreaming();
+                listen();
+                Log.i(TAG, "Connected to data port " + port);
             }
-        });
+        } catch (IOException e) {
+            Log.e(TAG, "IOException on connect", e);
+        }
     }
 
     private void beginStreaming() throws IOException {
-        outputStream.write("streaming".getBytes()); // Start streaming
+        outputStream.write(CMD_STREAMING); // Start streaming
+    }
+
+    /**
+     * Sets how many IQDownload requests may be outstanding at once.  A window of 1 waits for each
+     * frame before requesting the next; larger windows let the server send frames back-to-back,
+     * hiding the network round trip.  Takes effect from the next request.
+     */
+    public void setRequestWindow(int window) {
+        if (window < 1 || window > MAX_REQUEST_WINDOW)
+            throw new IllegalArgumentException("Request window must be between 1 and " + MAX_REQUEST_WINDOW);
+        requestWindow = window;
+    }
+
+    public int getRequestWindow() {
+        return requestWindow;
+    }
+
+    /** IQDownload requests sent on the current connection that have not been answered yet. */
+    public int getRequestsInFlight() {
+        return requestsInFlight.get();
+    }
+
+    /** IQDownload requests abandoned unanswered when a connection was replaced. */
+    public long getLostRequestCount() {
+        return lostRequests.get();
+    }
+
+    private void requestFrames() throws IOException {
+        int window = requestWindow;
+        boolean requested = false;
+        while (requestsInFlight.get() < window) {
+            outputStream.write(CMD_IQ_DOWNLOAD); // Request IQ data
+            requestsInFlight.incrementAndGet();
+            requested = true;
+        }
+        if (requested)
+            outputStream.flush();
     }
 
     public static float computeRMS(float[] vector) {
@@ -75,13 +175,16 @@ public class DataClient {
         return (float) Math.sqrt(meanOfSquares);
     }
 
-    private boolean checkIntegrityIQ(float[][] iqFrame) {
-        float rmsValue = computeRMS(iqFrame[4]);  // check for variations in the unused channel
-        if (rmsValue < 0.01) {
-            Log.i(TAG, "IQ RMS mV: " + rmsValue);
-            return false;
-        } else
-            return true;
+    public static float computeRMS(FloatBuffer buffer, int offset, int length) {
+        float sumOfSquares = 0.0f;
+
+        for (int i = offset; i < offset + length; i++) {
+            float value = buffer.get(i);
+            sumOfSquares += value * value;
+        }
+
+        float meanOfSquares = sumOfSquares / length;
+        return (float) Math.sqrt(meanOfSquares);
     }
 
     private void listen() {
@@ -89,26 +192,181 @@ public class DataClient {
             try {
                 while (running && !Thread.currentThread().isInterrupted()) {
                     if (isConnected()) {
-                        outputStream.write("IQDownload".getBytes()); // Request IQ data
-
-                        float[][] iqFrame = receiveIqFrame(); // Implement this to process incoming data
-                        if (iqHeader.getFrameType() == HeaderIQ.FRAME_TYPE_DATA)
-                            if (dataClientListener != null)
-                                if (iqFrame != null)
-                                    if (checkIntegrityIQ(iqFrame))
-                                        dataClientListener.notifyDataClient(iqFrame, iqHeader);
+                        requestFrames();
+
+                        if (readerMode == ReaderMode.CHANNEL) {
+                            FloatBuffer iqFrame = receiveIqFrameBuffer();
+                            if (iqHeader.getFrameType() == HeaderIQ.FRAME_TYPE_DATA && iqFrame != null) {
+                                recordFrame(iqFrame);
+                                bufferFrame(iqFrame);
+                            }
+                            if (iqFrame != null)
+                                calibrate(iqFrame);
+                            if (iqHeader.getFrameType() == HeaderIQ.FRAME_TYPE_DATA)
+                                if (dataClientListener != null)
+                                    if (iqFrame != null)
+                                        if (triage.checkIntegrity(iqFrame, (int) iqHeader.getCpiLength() * 2))
+                                            deliverFrame(iqFrame);
+                        } else {
+                            float[][] iqFrame = receiveIqFrame(); // Implement this to process incoming data
+                            if (iqHeader.getFrameType() == HeaderIQ.FRAME_TYPE_DATA && iqFrame != null) {
+                                recordFrame(iqFrame);
+                                bufferFrame(iqFrame);
+                            }
+                            if (iqFrame != null)
+                                calibrate(iqFrame);
+                            if (iqHeader.getFrameType() == HeaderIQ.FRAME_TYPE_DATA)
+                                if (dataClientListener != null)
+                                    if (iqFrame != null)
+                                        if (triage.checkIntegrity(iqFrame))
+                                            deliverFrame(iqFrame);
+                        }
                     } else {
                         Log.e(TAG, "Socket is not connected, attempting to reconnect...");
                         reconnect();
+                        return;
                     }
                 }
             } catch (IOException e) {
-                Log.e(TAG, "IOException on listenForData", e);
-                reconnect();
+                if (running) {  // otherwise disconnect() closed the socket under the read
+                    Log.e(TAG, "IOException on listenForData", e);
+                    reconnect();
+                }
             }
         });
     }
 
+    /**
+     * Records every received data frame, including frames later dropped for integrity or pool
+     * exhaustion, to the given recorder; null stops recording.  The caller owns the recorder and
+     * closes it after detaching.
+     */
+    public void setRecorder(IqRecorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Keeps recent data frames, as received, in the capture's pre-trigger buffer; null stops
+     * buffering.
+     */
+    public void setCapture(TriggeredCapture capture) {
+        this.capture = capture;
+    }
+
+    private void bufferFrame(FloatBuffer iqFrame) {
+        TriggeredCapture target = capture;
+        if (target != null)
+            target.append(iqFrame, iqHeader);
+    }
+
+    private void bufferFrame(float[][] iqFrame) {
+        TriggeredCapture target = capture;
+        if (target != null)
+            target.append(iqFrame, iqHeader);
+    }
+
+    /**
+     * Estimates inter-channel corrections from noise-source frames and applies them to every data
+     * frame delivered afterwards; null delivers frames as received.  Recordings always keep the
+     * samples as received.
+     */
+    public void setCalibrator(ChannelCalibrator calibrator) {
+        this.calibrator = calibrator;
+        triage.setCalibrationWanted(calibrator != null);
+    }
+
+    private void calibrate(FloatBuffer iqFrame) {
+        ChannelCalibrator target = calibrator;
+        if (target != null && ChannelCalibrator.isCalibrationFrame(iqHeader))
+            target.calibrate(iqFrame, iqHeader);
+    }
+
+    private void calibrate(float[][] iqFrame) {
+        ChannelCalibrator target = calibrator;
+        if (target != null && ChannelCalibrator.isCalibrationFrame(iqHeader))
+            target.calibrate(iqFrame, iqHeader);
+    }
+
+    private float[] correctionFor(HeaderIQ header) {
+        ChannelCalibrator target = calibrator;
+        return target == null ? null : target.getCorrection(header);
+    }
+
+    private void recordFrame(FloatBuffer iqFrame) {
+        IqRecorder target = recorder;
+        if (target == null)
+            return;
+        try {
+            target.record(iqFrame, iqHeader);
+        } catch (IOException e) {
+            Log.e(TAG, "Recording failed, recorder detached", e);
+            recorder = null;
+        }
+    }
+
+    private void recordFrame(float[][] iqFrame) {
+        IqRecorder target = recorder;
+        if (target == null)
+            return;
+        try {
+            target.record(iqFrame, iqHeader);
+        } catch (IOException e) {
+            Log.e(TAG, "Recording failed, recorder detached", e);
+            recorder = null;
+        }
+    }
+
+    private void deliverFrame(FloatBuffer iqFrame) {
+        float[] correction = correctionFor(iqHeader);
+        if (framePool == null) {
+            if (correction != null)
+                ChannelCalibrator.correct(iqFrame, (int) iqHeader.getCpiLength() * 2, correction);
+            dataClientListener.notifyDataClient(iqFrame, snapshotHeader());
+            return;
+        }
+        IqFrame frame = framePool.acquire(iqHeader.getActiveAntChs(), (int) iqHeader.getCpiLength());
+        if (frame == null) {
+            poolDrops.incrementAndGet();
+            return;
+        }
+        long start = System.nanoTime();
+        if (correction != null)
+            frame.fill(iqFrame, iqHeader, correction);
+        else
+            frame.fill(iqFrame, iqHeader);
+        Metrics.DECODE.recordSince(start);
+        dataClientListener.notifyDataClient(frame);
+    }
+
+    private void deliverFrame(float[][] iqFrame) {
+        float[] correction = correctionFor(iqHeader);
+        if (framePool == null) {
+            if (correction != null) {
+                for (int ch = 1; ch < Math.min(iqFrame.length, correction.length / 2); ch++) {
+                    ChannelCalibrator.correct(iqFrame[ch], 0, iqFrame[ch].length, correction[2 * ch], correction[2 * ch + 1]);
+                }
+            }
+            dataClientListener.notifyDataClient(iqFrame, snapshotHeader());
+            return;
+        }
+        IqFrame frame = framePool.acquire(iqHeader.getActiveAntChs(), (int) iqHeader.getCpiLength());
+        if (frame == null) {
+            poolDrops.incrementAndGet();
+            return;
+        }
+        long start = System.nanoTime();
+        if (correction != null)
+            frame.fill(iqFrame, iqHeader, correction);
+        else
+            frame.fill(iqFrame, iqHeader);
+        Metrics.DECODE.recordSince(start);
+        dataClientListener.notifyDataClient(frame);
+    }
+
+    public IqFramePool getFramePool() {
+        return framePool;
+    }
+
     @SuppressWarnings("unused")
     private boolean isConnectionHealthy() {
         try {
@@ -121,14 +379,16 @@ public class DataClient {
         }
     }
 
+    // Runs on the executor.  Unlike disconnect(), leaves the client running.
     private void reconnect() {
-        disconnect();  // Close the current connection
+        closeSocket();  // Close the current connection
         try {
             Thread.sleep(100); // Wait before attempting to reconnect
         } catch (InterruptedException e) {
             Log.e(TAG, "Reconnection interrupted", e);
         }
-        connect();  // Attempt to reconnect
+        if (running)
+            executorService.execute(this::open);  // Attempt to reconnect
     }
 
     /**
@@ -143,117 +403,120 @@ public class DataClient {
      *             The I/Q samples are complex float 32 numbers that are unpacked and reshaped into the ndarray.
      */
     private float[][] receiveIqFrame() throws IOException {
-        int totalReceivedBytes = 0;
-        byte[] iqHeaderBytes = new byte[1024];  // Allocate buffer for the header
-
-        // Log debug message
-        Log.d(TAG, "Starting IQ header reception");
-
-        // Receive IQ header
-        while (totalReceivedBytes < iqHeaderBytes.length) {
-            int bytesRead = inputStream.read(iqHeaderBytes, totalReceivedBytes, iqHeaderBytes.length - totalReceivedBytes);
-            if (bytesRead == -1) {
-                Log.e(TAG, "Stream closed while receiving IQ header");
-                return null;
-            }
-            totalReceivedBytes += bytesRead;
-        }
-
-        // Decode the header
-        iqHeader.decodeHeader(iqHeaderBytes);
-        Log.d(TAG, "IQ header received and decoded");
+        // Receive and decode the IQ header
+        long start = System.nanoTime();
+        if (!streamReader.readHeader(iqHeader))
+            throw new EOFException("Data stream closed");  // reconnect rather than re-request on a dead stream
+        long headerRead = System.nanoTime();
+        Metrics.HEADER_READ.record(headerRead - start);
+        requestsInFlight.decrementAndGet();
+        sequence(iqHeader.getIndexCPI());
+        countFrame(iqHeader.getPayloadSize());
 
         // iqHeader.dumpHeader();  // Uncomment to view the IQ Header data
 
-        // Calculate the payload size based on the header information
-        int incomingPayloadSize = (int)iqHeader.getCpiLength() * iqHeader.getActiveAntChs() * 2 * (iqHeader.getSampleBitDepth() / 8);
-
-        if (incomingPayloadSize > 0) {
-            byte[] iqDataBytes = new byte[incomingPayloadSize];  // Allocate array for IQ data
-            totalReceivedBytes = 0;
-
-            Log.d(TAG, "Total bytes to receive: " + incomingPayloadSize);
-
-            // Receive the IQ data
-            while (totalReceivedBytes < incomingPayloadSize) {
-                int bytesRead = inputStream.read(iqDataBytes, totalReceivedBytes, iqDataBytes.length - totalReceivedBytes);
-                if (bytesRead == -1) {
-                    Log.e(TAG, "Stream closed while receiving IQ data");
-                    return null;
-                }
-                totalReceivedBytes += bytesRead;
-            }
+        if (triage.classify(iqHeader) == FrameTriage.Verdict.SKIP) {
+            if (!streamReader.skipPayload(iqHeader))
+                throw new EOFException("Data stream closed");
+            return null;
+        }
+        float[][] iqSamples = streamReader.readPayload(iqHeader);  // decodes the samples as they are read
+        Metrics.PAYLOAD_READ.recordSince(headerRead);
+        return iqSamples;  // Return the array of IQ samples
+    }
 
-            Log.d(TAG, "IQ data successfully received");
+    /**
+     * Receives a data frame into the channel reader's reusable direct buffers.
+     *
+     * @return a float view over the payload, valid only until the next frame is received
+     */
+    private FloatBuffer receiveIqFrameBuffer() throws IOException {
+        long start = System.nanoTime();
+        if (!channelReader.readHeader(headerView))
+            throw new EOFException("Data stream closed");  // reconnect rather than re-request on a dead stream
+        long headerRead = System.nanoTime();
+        Metrics.HEADER_READ.record(headerRead - start);
+        requestsInFlight.decrementAndGet();
+        sequence(headerView.getIndexCPI());
+        countFrame(headerView.getPayloadSize());
+
+        if (triage.classify(headerView) == FrameTriage.Verdict.SKIP) {
+            if (!channelReader.skipPayload(headerView))
+                throw new EOFException("Data stream closed");
+            return null;  // the header is not even decoded
+        }
+        FloatBuffer iqSamples = channelReader.readPayload(headerView);
+        Metrics.PAYLOAD_READ.recordSince(headerRead);
+        headerView.copyTo(iqHeader);
+        return iqSamples;  // CAL frames too, for the calibrator
+    }
 
-            // Convert the raw bytes to complex float32 IQ samples
-            ByteBuffer iqDataBuffer = ByteBuffer.wrap(iqDataBytes).order(ByteOrder.LITTLE_ENDIAN);
-            float[][] iqSamples = new float[iqHeader.getActiveAntChs()][(int) iqHeader.getCpiLength() * 2];
+    private static void countFrame(int payloadSize) {
+        Metrics.FRAMES_RECEIVED.mark(1);
+        Metrics.BYTES_RECEIVED.mark(HeaderIQ.HEADER_SIZE + payloadSize);
+    }
 
-            for (int ch = 0; ch < iqHeader.getActiveAntChs(); ch++) {
-                for (int j = 0; j < iqHeader.getCpiLength(); j++) {
-                    int index = 2 * j;
-                    iqSamples[ch][index] = iqDataBuffer.getFloat();       // Store the real part
-                    iqSamples[ch][index + 1] = iqDataBuffer.getFloat();   // Store the imaginary part
-                }
-            }
+    private void sequence(int cpiIndex) {
+        FrameSequencer.Result result = sequencer.observe(cpiIndex);
+        if (debugLogging && result != FrameSequencer.Result.IN_ORDER && result != FrameSequencer.Result.FIRST)
+            Log.d(TAG, "CPI " + cpiIndex + ": " + result);
+    }
 
-            if (iqHeader.getFrameType() == HeaderIQ.FRAME_TYPE_DATA) {
-                Log.d(TAG, "FRAME_TYPE_DATA");
-            }
-            else if (iqHeader.getFrameType() == HeaderIQ.FRAME_TYPE_CAL) {
-                Log.d(TAG, "FRAME_TYPE_CAL");
-            }
-            else if (iqHeader.getFrameType() == HeaderIQ.FRAME_TYPE_DUMMY) {
-                Log.d(TAG, "FRAME_TYPE_DUMMY");
-            }
-            else if (iqHeader.getFrameType() == HeaderIQ.FRAME_TYPE_RAMP) {
-                Log.d(TAG, "FRAME_TYPE_RAMP");
-            }
-            else if (iqHeader.getFrameType() == HeaderIQ.FRAME_TYPE_EMPTY) {
-                Log.d(TAG, "FRAME_TYPE_EMPTY");
-            }
-            else if (iqHeader.getFrameType() == HeaderIQ.FRAME_TYPE_TRIGW) {
-                Log.d(TAG, "FRAME_TYPE_TRIGW");
-            }
-            else {
-                Log.d(TAG, "Unknown Frame Type");
-            }
+    /**
+     * CPI index continuity of every frame received, across reconnects.  Missing frames were lost
+     * in the link or never sent by the server.
+     */
+    public FrameSequencer getSequencer() {
+        return sequencer;
+    }
 
-            if (iqHeader.getSyncWord() != HeaderIQ.SYNC_WORD) {
-                Log.d(TAG, "Sync Word Mismatch");
-            }
+    /** Data frames received intact but discarded by the IQ integrity check. */
+    public long getIntegrityDropCount() {
+        return triage.getRejectionCount(FrameTriage.Reason.INTEGRITY);
+    }
 
-            if (iqHeader.getSyncState() < 1) {
-                Log.d(TAG, "Out of Sync");
-            }
+    /** Header-first filtering of received frames, and the integrity check policy. */
+    public FrameTriage getTriage() {
+        return triage;
+    }
 
-            if (iqHeader.getNoiseSourceState() > 0) {
-                Log.d(TAG, "Noise Source On");
-            }
+    /** Data frames discarded because every pooled frame was still held downstream. */
+    public long getPoolDropCount() {
+        return poolDrops.get();
+    }
 
-            if (iqHeader.getIqSyncFlag() < 1) {
-                Log.d(TAG, "IQ Out of Sync");
-            }
+    private HeaderIQ snapshotHeader() {
+        HeaderIQ snapshot = new HeaderIQ();
+        snapshot.copyFrom(iqHeader);
+        return snapshot;
+    }
 
-            if (iqHeader.getDataType() != 3) {
-                Log.d(TAG, "Data Type is not 3");
-            }
+    @Override
+    public void start() {
+        connect();
+    }
 
+    @Override
+    public void stop() {
+        disconnect();
+    }
 
-            return iqSamples;  // Return the array of IQ samples
-        } else {
-            return null;  // No data to process
-        }
+    @Override
+    public boolean isRunning() {
+        return running;
     }
 
+    /** Stops the client: the listening loop ends and no reconnect is attempted until {@link #connect()}. */
     public void disconnect() {
         running = false; // Stop the listening loop
+        closeSocket();
+    }
+
+    private void closeSocket() {
         try {
             if (socket != null) {
                 socket.close();
             }
-            inputStream = null;
             outputStream = null;
         } catch (IOException e) {
             Log.e(TAG, "IOException on disconnect", e);
@@ -1,5 +1,44 @@
 package com.huard.heimdallclientandroid;
 
+import java.nio.FloatBuffer;
+
 public interface DataClientListener {
+    /**
+     * Delivers a frame as new per-channel arrays.  The header is a snapshot owned by the listener;
+     * the client decodes the next frame into its own instance.
+     */
     void notifyDataClient(float[][] data, HeaderIQ header);
+
+    /**
+     * Delivers a frame read in {@link DataClient.ReaderMode#CHANNEL} mode.  The buffer is reused for
+     * the next frame, so implementations must finish with it (or copy it) before returning; the header
+     * is a snapshot the listener may keep.  The default copies the channel-major payload into
+     * per-channel arrays.
+     */
+    default void notifyDataClient(FloatBuffer data, HeaderIQ header) {
+        int channelLength = (int) header.getCpiLength() * 2;
+        float[][] samples = new float[header.getActiveAntChs()][channelLength];
+        for (int ch = 0; ch < samples.length; ch++) {
+            data.position(ch * channelLength);
+            data.get(samples[ch]);
+        }
+        data.rewind();
+        notifyDataClient(samples, header);
+    }
+
+    /**
+     * Delivers a frame leased from the client's {@link IqFramePool}.  Implementations own the frame
+     * and must {@link IqFrame#release()} it once done, from any thread.  The default copies the
+     * samples out and releases immediately.
+     */
+    default void notifyDataClient(IqFrame frame) {
+        float[][] samples = new float[frame.getChannelCount()][];
+        for (int ch = 0; ch < samples.length; ch++) {
+            samples[ch] = frame.getSamples()[ch].clone();
+        }
+        HeaderIQ header = new HeaderIQ();
+        header.copyFrom(frame.getHeader());
+        frame.release();
+        notifyDataClient(samples, header);
+    }
 }
@@ -0,0 +1,378 @@
+package com.huard.heimdallclientandroid;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Direction finding from the phase-coherent channels of an antenna array.
+ * <p>
+ * Each received frame updates the spatial covariance matrix R = E[x x^H] of the array: the frame's
+ * samples, decimated to at most {@link #setMaxSnapshots(int) a few thousand snapshots}, are folded
+ * into an exponentially weighted average.  That is cheap enough to do on the receive thread, so
+ * frames never have to be held back or copied.  The eigendecomposition of R and the Bartlett and
+ * MUSIC pseudo-spectra over all scan angles then run on a worker thread; if it is still busy when
+ * the next frames arrive, they only advance the covariance and the worker picks up the latest one.
+ * <p>
+ * Steering vectors depend on the RF frequency, so a table per frequency is precomputed on first
+ * use and kept for the most recently used frequencies.
+ */
+public class DoaEngine {
+    private static final String TAG = "DoaEngine";
+
+    private static final double SPEED_OF_LIGHT = 299_792_458.0;
+    private static final int STEERING_CACHE_SIZE = 8;
+    public static final int DEFAULT_MAX_SNAPSHOTS = 4096;
+
+    /** Pseudo-spectra of one update, normalized so each peaks at 0 dB. */
+    public static final class Result {
+        final float[] anglesDeg;
+        final float[] bartlettDB;
+        final float[] musicDB;
+        float bartlettBearingDeg;
+        float musicBearingDeg;
+        long frequencyHz;
+        long frames;
+
+        Result(float[] anglesDeg) {
+            this.anglesDeg = anglesDeg;
+            this.bartlettDB = new float[anglesDeg.length];
+            this.musicDB = new float[anglesDeg.length];
+        }
+
+        public float[] getAnglesDeg() { return anglesDeg; }
+
+        public float[] getBartlettDB() { return bartlettDB; }
+
+        public float[] getMusicDB() { return musicDB; }
+
+        /** Angle of the Bartlett peak: robust, but wide and biased between close sources. */
+        public float getBartlettBearingDeg() { return bartlettBearingDeg; }
+
+        /** Angle of the MUSIC peak: sharp, given the right source count. */
+        public float getMusicBearingDeg() { return musicBearingDeg; }
+
+        public long getFrequencyHz() { return frequencyHz; }
+
+        /** Frames folded into the covariance so far. */
+        public long getFrameCount() { return frames; }
+    }
+
+    public interface DoaListener {
+        /** Called on the worker thread; the result stays valid until the update after next. */
+        void onDoa(@NonNull Result result);
+    }
+
+    private final ArrayGeometry geometry;
+    private final int m;
+    private final DoaListener listener;
+    private final float[] anglesDeg;
+    private final ExecutorService worker;
+
+    private volatile int maxSnapshots = DEFAULT_MAX_SNAPSHOTS;
+    private volatile float forgetting = 0.5f;
+    private volatile int sources = 1;
+
+    // Receive thread: running covariance, row-major upper triangle in use
+    private final double[] covRe;
+    private final double[] covIm;
+    private final double[] frameRe;
+    private final double[] frameIm;
+    private boolean primed;
+    private long frames;
+
+    // Handed to the worker under the lock
+    private final Object lock = new Object();
+    private final double[] pendingRe;
+    private final double[] pendingIm;
+    private long pendingFrequencyHz;
+    private long pendingFrames;
+    private boolean pending;
+    private boolean scheduled;
+
+    // Worker thread
+    private final HermitianEigen eigen;
+    private final double[] workRe;
+    private final double[] workIm;
+    private final double[] eigenvalues;
+    private final double[] vectorsRe;
+    private final double[] vectorsIm;
+    private final Map<Long, float[][]> steeringCache = new LinkedHashMap<Long, float[][]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, float[][]> eldest) {
+            return size() > STEERING_CACHE_SIZE;
+        }
+    };
+    private final Result[] results = new Result[2];
+    private int nextResult;
+
+    private static final LatencyHistogram covarianceTime = MetricsRegistry.getDefault().histogram("doa.cov");
+    private static final LatencyHistogram spectrumTime = MetricsRegistry.getDefault().histogram("doa.spectra");
+
+    /**
+     * @param angleStepDeg scan resolution; a linear array scans 0 to 180 degrees, a circular one
+     *                     0 up to 360
+     */
+    public DoaEngine(@NonNull ArrayGeometry geometry, float angleStepDeg, @NonNull DoaListener listener) {
+        this.geometry = geometry;
+        this.m = geometry.getElementCount();
+        this.listener = listener;
+        float span = geometry.isLinear() ? 180f : 360f;
+        int angles = geometry.isLinear() ? Math.round(span / angleStepDeg) + 1 : Math.round(span / angleStepDeg);
+        anglesDeg = new float[angles];
+        for (int i = 0; i < angles; i++) {
+            anglesDeg[i] = i * angleStepDeg;
+        }
+        covRe = new double[m * m];
+        covIm = new double[m * m];
+        frameRe = new double[m * m];
+        frameIm = new double[m * m];
+        pendingRe = new double[m * m];
+        pendingIm = new double[m * m];
+        eigen = new HermitianEigen(m);
+        workRe = new double[m * m];
+        workIm = new double[m * m];
+        eigenvalues = new double[m];
+        vectorsRe = new double[m * m];
+        vectorsIm = new double[m * m];
+        results[0] = new Result(anglesDeg);
+        results[1] = new Result(anglesDeg);
+        worker = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "DoaWorker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /** Upper bound on samples per channel used from each frame; frames are decimated evenly to it. */
+    public void setMaxSnapshots(int maxSnapshots) {
+        if (maxSnapshots < m)
+            throw new IllegalArgumentException("Need at least " + m + " snapshots");
+        this.maxSnapshots = maxSnapshots;
+    }
+
+    /**
+     * Weight of the previous covariance when a frame is folded in: 0 uses each frame alone, values
+     * near 1 average over many frames.
+     */
+    public void setForgetting(float forgetting) {
+        if (forgetting < 0 || forgetting >= 1)
+            throw new IllegalArgumentException("Forgetting factor must be in [0, 1)");
+        this.forgetting = forgetting;
+    }
+
+    /** Number of signals assumed present; the rest of the eigenvectors span the MUSIC noise subspace. */
+    public void setSourceCount(int sources) {
+        if (sources < 1 || sources >= m)
+            throw new IllegalArgumentException("Source count must be between 1 and " + (m - 1));
+        this.sources = sources;
+    }
+
+    /** Forgets the covariance, e.g. after a retune. */
+    public void reset() {
+        primed = false;
+    }
+
+    public void shutdown() {
+        worker.shutdown();
+    }
+
+    /**
+     * Folds a frame into the covariance on the calling thread and schedules the pseudo-spectra.  The
+     * frame is only read; the caller keeps ownership.
+     */
+    public void observe(@NonNull IqFrame frame) {
+        if (frame.getHeader().getFrameType() != HeaderIQ.FRAME_TYPE_DATA)
+            return;
+        observe(frame.getSamples(), frame.getCpiLength(), frame.getHeader().getRfCenterFreq());
+    }
+
+    void observe(@NonNull float[][] iq, int cpiLength, long frequencyHz) {
+        if (iq.length < m || cpiLength == 0)
+            return;
+        long start = System.nanoTime();
+        accumulate(iq, cpiLength);
+        covarianceTime.recordSince(start);
+
+        synchronized (lock) {
+            System.arraycopy(covRe, 0, pendingRe, 0, covRe.length);
+            System.arraycopy(covIm, 0, pendingIm, 0, covIm.length);
+            pendingFrequencyHz = frequencyHz;
+            pendingFrames = frames;
+            pending = true;
+            if (scheduled)
+                return;  // the running update picks this covariance up when it finishes
+            scheduled = true;
+        }
+        try {
+            worker.execute(this::drain);
+        } catch (RuntimeException e) {
+            Log.w(TAG, "DOA update rejected after shutdown");
+        }
+    }
+
+    private void accumulate(float[][] iq, int cpiLength) {
+        int stride = Math.max(1, cpiLength / maxSnapshots);
+        int snapshots = (cpiLength + stride - 1) / stride;
+        for (int i = 0; i < m * m; i++) {
+            frameRe[i] = 0;
+            frameIm[i] = 0;
+        }
+        // x_i.conj(x_j) for the upper triangle, including the diagonal
+        for (int i = 0; i < m; i++) {
+            float[] xi = iq[i];
+            for (int j = i; j < m; j++) {
+                float[] xj = iq[j];
+                double re = 0;
+                double im = 0;
+                for (int k = 0; k < cpiLength; k += stride) {
+                    float ar = xi[2 * k];
+                    float ai = xi[2 * k + 1];
+                    float br = xj[2 * k];
+                    float bi = xj[2 * k + 1];
+                    re += ar * br + ai * bi;
+                    im += ai * br - ar * bi;
+                }
+                frameRe[i * m + j] = re;
+                frameIm[i * m + j] = im;
+            }
+        }
+
+        double keep = primed ? forgetting : 0;
+        double scale = (1 - keep) / snapshots;
+        for (int i = 0; i < m; i++) {
+            for (int j = i; j < m; j++) {
+                double re = keep * covRe[i * m + j] + scale * frameRe[i * m + j];
+                double im = keep * covIm[i * m + j] + scale * frameIm[i * m + j];
+                covRe[i * m + j] = re;
+                covIm[i * m + j] = i == j ? 0 : im;
+                covRe[j * m + i] = re;  // Hermitian
+                covIm[j * m + i] = i == j ? 0 : -im;
+            }
+        }
+        primed = true;
+        frames++;
+    }
+
+    // Worker: keeps computing until no newer covariance is waiting
+    private void drain() {
+        while (true) {
+            long frequencyHz;
+            long frameCount;
+            synchronized (lock) {
+                if (!pending) {
+                    scheduled = false;
+                    return;
+                }
+                System.arraycopy(pendingRe, 0, workRe, 0, workRe.length);
+                System.arraycopy(pendingIm, 0, workIm, 0, workIm.length);
+                frequencyHz = pendingFrequencyHz;
+                frameCount = pendingFrames;
+                pending = false;
+            }
+            try {
+                Result result = results[nextResult];
+                nextResult = 1 - nextResult;
+                long start = System.nanoTime();
+                computeSpectra(workRe, workIm, frequencyHz, result);
+                spectrumTime.recordSince(start);
+                result.frequencyHz = frequencyHz;
+                result.frames = frameCount;
+                listener.onDoa(result);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "DOA update failed", e);
+            }
+        }
+    }
+
+    void computeSpectra(double[] covarianceRe, double[] covarianceIm, long frequencyHz, Result out) {
+        float[][] steering = getSteering(frequencyHz);
+        eigen.decompose(covarianceRe, covarianceIm, eigenvalues, vectorsRe, vectorsIm);
+        int noiseVectors = m - sources;
+
+        float bartlettPeak = Float.NEGATIVE_INFINITY;
+        float musicPeak = Float.NEGATIVE_INFINITY;
+        for (int a = 0; a < anglesDeg.length; a++) {
+            float[] s = steering[a];  // interleaved re, im per element
+
+            // Bartlett: a^H R a / a^H a, with |a_m| = 1
+            double bartlett = 0;
+            for (int i = 0; i < m; i++) {
+                double rowRe = 0;
+                double rowIm = 0;
+                for (int j = 0; j < m; j++) {
+                    double rRe = covarianceRe[i * m + j];
+                    double rIm = covarianceIm[i * m + j];
+                    rowRe += rRe * s[2 * j] - rIm * s[2 * j + 1];
+                    rowIm += rRe * s[2 * j + 1] + rIm * s[2 * j];
+                }
+                bartlett += s[2 * i] * rowRe + s[2 * i + 1] * rowIm;  // conj(a_i) . (R a)_i, real part
+            }
+            bartlett /= m;
+
+            // MUSIC: a^H a / sum over noise eigenvectors of |v^H a|^2
+            double projection = 0;
+            for (int k = 0; k < noiseVectors; k++) {
+                double dotRe = 0;
+                double dotIm = 0;
+                for (int i = 0; i < m; i++) {
+                    double vr = vectorsRe[i * m + k];
+                    double vi = vectorsIm[i * m + k];
+                    dotRe += vr * s[2 * i] + vi * s[2 * i + 1];  // conj(v_i) . a_i
+                    dotIm += vr * s[2 * i + 1] - vi * s[2 * i];
+                }
+                projection += dotRe * dotRe + dotIm * dotIm;
+            }
+            double music = m / Math.max(projection, 1e-20);
+
+            out.bartlettDB[a] = (float) (10 * Math.log10(Math.max(bartlett, 1e-30)));
+            out.musicDB[a] = (float) (10 * Math.log10(music));
+            if (out.bartlettDB[a] > bartlettPeak) {
+                bartlettPeak = out.bartlettDB[a];
+                out.bartlettBearingDeg = anglesDeg[a];
+            }
+            if (out.musicDB[a] > musicPeak) {
+                musicPeak = out.musicDB[a];
+                out.musicBearingDeg = anglesDeg[a];
+            }
+        }
+        for (int a = 0; a < anglesDeg.length; a++) {
+            out.bartlettDB[a] -= bartlettPeak;
+            out.musicDB[a] -= musicPeak;
+        }
+    }
+
+    /**
+     * Steering vectors for every scan angle: element m of a plane wave arriving from angle theta is
+     * advanced by 2 pi f / c (x_m cos theta + y_m sin theta) radians relative to the origin.
+     */
+    float[][] getSteering(long frequencyHz) {
+        Long key = frequencyHz / 1000;  // tables are exact enough within a kHz
+        float[][] table = steeringCache.get(key);
+        if (table != null)
+            return table;
+        double waveNumber = 2 * Math.PI * frequencyHz / SPEED_OF_LIGHT;
+        table = new float[anglesDeg.length][2 * m];
+        for (int a = 0; a < anglesDeg.length; a++) {
+            double theta = Math.toRadians(anglesDeg[a]);
+            double cos = Math.cos(theta);
+            double sin = Math.sin(theta);
+            for (int i = 0; i < m; i++) {
+                double phase = waveNumber * (geometry.getX(i) * cos + geometry.getY(i) * sin);
+                table[a][2 * i] = (float) Math.cos(phase);
+                table[a][2 * i + 1] = (float) Math.sin(phase);
+            }
+        }
+        steeringCache.put(key, table);
+        return table;
+    }
+
+    int getCachedSteeringCount() {
+        return steeringCache.size();
+    }
+}
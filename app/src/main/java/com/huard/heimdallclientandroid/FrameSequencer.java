@@ -0,0 +1,94 @@
+package com.huard.heimdallclientandroid;
+
+/**
+ * Tracks CPI index continuity of received frames.  Indices above the highest seen so far open a
+ * gap of missing frames; indices within {@link #WINDOW} below it are classified as duplicates if
+ * already seen, otherwise as late (reordered) arrivals, which close part of an earlier gap if they
+ * fall in one.  A jump further back than the window is taken as a server restart and resynchronizes.
+ * <p>
+ * Not thread-safe for {@link #observe}; counters may be read from any thread.
+ */
+public class FrameSequencer {
+    public enum Result { FIRST, IN_ORDER, GAP, DUPLICATE, REORDERED, RESYNC }
+
+    static final int WINDOW = 64;
+
+    private boolean started;
+    private long highest;
+    private long seen;  // bit i set: index (highest - i) has arrived
+    private long counted;  // bit i set: index (highest - i) was counted missing and has not arrived
+
+    private volatile long frames;
+    private volatile long gaps;
+    private volatile long missing;
+    private volatile long duplicates;
+    private volatile long reordered;
+    private volatile long resyncs;
+
+    public Result observe(int cpiIndex) {
+        frames++;
+        long index = cpiIndex & 0xFFFFFFFFL;
+        if (!started) {
+            started = true;
+            highest = index;
+            seen = 1;
+            counted = 0;
+            return Result.FIRST;
+        }
+
+        long ahead = index - highest;
+        if (ahead == 1) {
+            highest = index;
+            seen = (seen << 1) | 1;
+            counted <<= 1;
+            return Result.IN_ORDER;
+        }
+        if (ahead > 1) {
+            gaps++;
+            missing += ahead - 1;
+            highest = index;
+            seen = ahead >= WINDOW ? 1 : (seen << ahead) | 1;
+            counted = ahead >= WINDOW ? ~1L : (counted << ahead) | (((1L << (ahead - 1)) - 1) << 1);
+            return Result.GAP;
+        }
+
+        long behind = -ahead;
+        if (behind >= WINDOW) {
+            resyncs++;
+            highest = index;
+            seen = 1;
+            counted = 0;
+            return Result.RESYNC;
+        }
+        long bit = 1L << behind;
+        if ((seen & bit) != 0) {
+            duplicates++;
+            return Result.DUPLICATE;
+        }
+        seen |= bit;
+        reordered++;
+        if ((counted & bit) != 0) {
+            counted &= ~bit;
+            missing--;  // counted missing when the gap opened
+        }
+        return Result.REORDERED;
+    }
+
+    /** Forgets the sequence position, e.g. on reconnect; counters are kept. */
+    public void reset() {
+        started = false;
+    }
+
+    public long getFrameCount() { return frames; }
+
+    public long getGapCount() { return gaps; }
+
+    /** Frames never received: skipped indices not filled in by late arrivals. */
+    public long getMissingCount() { return missing; }
+
+    public long getDuplicateCount() { return duplicates; }
+
+    public long getReorderedCount() { return reordered; }
+
+    public long getResyncCount() { return resyncs; }
+}
@@ -0,0 +1,15 @@
+package com.huard.heimdallclientandroid;
+
+/**
+ * A producer of IQ frames delivered to a {@link DataClientListener}: the live {@link DataClient} or a
+ * {@link ReplaySource} playing back a recording.
+ */
+public interface FrameSource {
+    /** Begins producing frames on the source's own thread.  Does nothing while already running. */
+    void start();
+
+    /** Stops producing frames.  A stopped source may be started again. */
+    void stop();
+
+    boolean isRunning();
+}
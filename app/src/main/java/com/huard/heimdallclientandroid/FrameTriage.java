@@ -0,0 +1,189 @@
+package com.huard.heimdallclientandroid;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Decides from a frame's header alone whether its payload is worth reading, so unwanted frames are
+ * skipped on the socket without being converted, and checks the integrity of wanted frames on a
+ * sample of their payload rather than all of it.
+ * <p>
+ * Frames are counted in {@link Metrics} by type, DAQ sync and noise-source state, and per rejection
+ * {@link Reason} here.  Policies may be changed from any thread.
+ */
+public class FrameTriage {
+    private static final String TAG = "FrameTriage";
+
+    public enum Verdict {
+        /** A data frame to decode and deliver. */
+        DELIVER,
+        /** A noise-source frame to decode for the calibrator only. */
+        CALIBRATE,
+        /** Payload to skip unread. */
+        SKIP
+    }
+
+    public enum Reason {
+        /** The header does not start with the sync word, so nothing in it can be trusted. */
+        BAD_SYNC_WORD,
+        /** The payload's sample bit depth has no {@link SampleFormat}. */
+        UNDECODABLE,
+        /** Dummy, ramp, trigger-wait or empty frames, and CAL frames with no calibrator. */
+        NOT_DATA,
+        /** Data frames taken while the DAQ was out of sync, with {@link #setDropUnsynced(boolean)}. */
+        UNSYNCED,
+        /** Data frames failing the payload integrity check. */
+        INTEGRITY
+    }
+
+    public enum IntegrityCheck {
+        OFF,
+        /** RMS over {@link #INTEGRITY_SAMPLES} samples spread evenly over the checked channel. */
+        SAMPLED,
+        /** RMS over every sample of the checked channel. */
+        FULL
+    }
+
+    static final int INTEGRITY_SAMPLES = 1024;
+    private static final float MIN_INTEGRITY_RMS = 0.01f;
+
+    private volatile boolean calibrationWanted;
+    private volatile boolean dropUnsynced;
+    private volatile IntegrityCheck integrityCheck = IntegrityCheck.SAMPLED;
+    private volatile int integrityChannel = 4;  // the unused channel, which only ever carries noise
+    private final AtomicLongArray rejections = new AtomicLongArray(Reason.values().length);
+    private final boolean debugLogging = Log.isLoggable(TAG, Log.DEBUG);
+
+    /** Whether CAL frames are decoded for a calibrator rather than skipped. */
+    public void setCalibrationWanted(boolean calibrationWanted) {
+        this.calibrationWanted = calibrationWanted;
+    }
+
+    /**
+     * Whether data frames reporting the DAQ out of sync are skipped.  By default they are delivered
+     * and only counted, which keeps the spectrum live while the DAQ synchronizes; coherent
+     * processing such as direction finding should drop them.
+     */
+    public void setDropUnsynced(boolean dropUnsynced) {
+        this.dropUnsynced = dropUnsynced;
+    }
+
+    public void setIntegrityCheck(@NonNull IntegrityCheck integrityCheck) {
+        this.integrityCheck = integrityCheck;
+    }
+
+    /** Channel whose RMS must exceed the noise floor of a live receiver; frames with fewer channels pass. */
+    public void setIntegrityChannel(int integrityChannel) {
+        this.integrityChannel = integrityChannel;
+    }
+
+    public long getRejectionCount(@NonNull Reason reason) {
+        return rejections.get(reason.ordinal());
+    }
+
+    public Verdict classify(@NonNull HeaderView header) {
+        return classify(header.getIndexCPI(), header.getSyncWord(), header.getFrameType(), header.getSampleBitDepth(),
+                header.getIqSyncFlag(), header.getSyncState(), header.getNoiseSourceState());
+    }
+
+    public Verdict classify(@NonNull HeaderIQ header) {
+        return classify(header.getIndexCPI(), header.getSyncWord(), header.getFrameType(), header.getSampleBitDepth(),
+                header.getIqSyncFlag(), header.getSyncState(), header.getNoiseSourceState());
+    }
+
+    private Verdict classify(int cpiIndex, int syncWord, int frameType, int sampleBitDepth, int iqSyncFlag, int syncState,
+                             int noiseSourceState) {
+        boolean decodable = SampleFormat.forBitDepth(sampleBitDepth) != null;
+        if (syncWord != HeaderIQ.SYNC_WORD)
+            return reject(Reason.BAD_SYNC_WORD, cpiIndex, "sync word " + syncWord);
+
+        if (frameType != HeaderIQ.FRAME_TYPE_DATA) {
+            if (frameType == HeaderIQ.FRAME_TYPE_CAL)
+                Metrics.FRAMES_CAL.increment();
+            else if (frameType == HeaderIQ.FRAME_TYPE_DUMMY)
+                Metrics.FRAMES_DUMMY.increment();
+            else
+                Metrics.FRAMES_OTHER.increment();
+            if (frameType == HeaderIQ.FRAME_TYPE_CAL && calibrationWanted && decodable)
+                return Verdict.CALIBRATE;
+            return reject(Reason.NOT_DATA, cpiIndex, "frame type " + frameType);
+        }
+
+        if (noiseSourceState > 0)
+            Metrics.FRAMES_NOISE_SOURCE.increment();
+        if (!decodable)
+            return reject(Reason.UNDECODABLE, cpiIndex, sampleBitDepth + "-bit samples");
+        if (iqSyncFlag < 1 || syncState < 1) {
+            Metrics.FRAMES_UNSYNCED.increment();
+            if (dropUnsynced)
+                return reject(Reason.UNSYNCED, cpiIndex, "sync state " + syncState + ", IQ sync " + iqSyncFlag);
+            if (debugLogging)
+                Log.d(TAG, "CPI " + cpiIndex + " out of sync: sync state " + syncState + ", IQ sync " + iqSyncFlag);
+        }
+        return Verdict.DELIVER;
+    }
+
+    private Verdict reject(Reason reason, int cpiIndex, String detail) {
+        rejections.incrementAndGet(reason.ordinal());
+        if (debugLogging)
+            Log.d(TAG, "CPI " + cpiIndex + " skipped, " + detail);
+        return Verdict.SKIP;
+    }
+
+    /**
+     * Checks a decoded data frame, counting it as an {@link Reason#INTEGRITY} rejection if it fails.
+     * A dead or disconnected receiver delivers an all-zero (or constant) channel.
+     */
+    public boolean checkIntegrity(@NonNull float[][] iq) {
+        IntegrityCheck check = integrityCheck;
+        int channel = integrityChannel;
+        if (check == IntegrityCheck.OFF || channel >= iq.length)
+            return true;
+        float[] samples = iq[channel];
+        int stride = stride(check, samples.length);
+        double sumOfSquares = 0;
+        int count = 0;
+        for (int i = 0; i < samples.length; i += stride) {
+            sumOfSquares += samples[i] * samples[i];
+            count++;
+        }
+        return accept(sumOfSquares, count);
+    }
+
+    /** As {@link #checkIntegrity(float[][])}, for a channel-major payload. */
+    public boolean checkIntegrity(@NonNull FloatBuffer payload, int channelLength) {
+        IntegrityCheck check = integrityCheck;
+        int channel = integrityChannel;
+        if (check == IntegrityCheck.OFF || channelLength == 0 || (channel + 1) * channelLength > payload.limit())
+            return true;
+        int stride = stride(check, channelLength);
+        int offset = channel * channelLength;
+        double sumOfSquares = 0;
+        int count = 0;
+        for (int i = 0; i < channelLength; i += stride) {
+            float value = payload.get(offset + i);
+            sumOfSquares += value * value;
+            count++;
+        }
+        return accept(sumOfSquares, count);
+    }
+
+    private static int stride(IntegrityCheck check, int length) {
+        // Odd, so I and Q values are both sampled
+        return check == IntegrityCheck.FULL ? 1 : Math.max(1, length / (2 * INTEGRITY_SAMPLES)) | 1;
+    }
+
+    private boolean accept(double sumOfSquares, int count) {
+        float rms = count == 0 ? 0 : (float) Math.sqrt(sumOfSquares / count);
+        if (rms >= MIN_INTEGRITY_RMS)
+            return true;
+        rejections.incrementAndGet(Reason.INTEGRITY.ordinal());
+        if (debugLogging)
+            Log.d(TAG, "IQ RMS " + rms + " below " + MIN_INTEGRITY_RMS + ", frame dropped");
+        return false;
+    }
+}
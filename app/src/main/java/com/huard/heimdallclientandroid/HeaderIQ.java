@@ -11,8 +11,9 @@ import java.util.Arrays;
 
 public class HeaderIQ {
     // Constants
-    private static final int HEADER_SIZE = 1024;
+    public static final int HEADER_SIZE = 1024;
     private static final int RESERVED_BYTES = 192;
+    static final int HARDWARE_ID_LENGTH = 16;
 
     @SuppressWarnings("unused")
     public static final int FRAME_TYPE_DATA = 0;
@@ -52,7 +53,8 @@ public class HeaderIQ {
     private int iqSyncFlag;
     private int syncState;
     private int noiseSourceState;
-    private int[] reserved = new int[RESERVED_BYTES];
+    private final int[] reserved = new int[RESERVED_BYTES];
+    private final byte[] hardwareIdBytes = new byte[HARDWARE_ID_LENGTH];
     private int headerVersion;
 
     // Logger tag
@@ -87,31 +89,39 @@ public class HeaderIQ {
     }
 
     public void decodeHeader(byte[] iqHeaderByteArray) {
-        ByteBuffer buffer = ByteBuffer.wrap(iqHeaderByteArray);
+        decodeHeader(ByteBuffer.wrap(iqHeaderByteArray));
+    }
+
+    /**
+     * Decodes the DAQ's native-aligned C header: 64-bit fields are little-endian on 8-byte boundaries,
+     * with 4 bytes of padding after iooType and after the 32-bit cpiLength.
+     */
+    public void decodeHeader(@NonNull ByteBuffer buffer) {
         buffer.order(ByteOrder.LITTLE_ENDIAN); // Ensure correct byte order
         buffer.rewind();
 
         syncWord = buffer.getInt();
         frameType = buffer.getInt();
 
-        byte[] hardwareIdBytes = new byte[16];
-        buffer.get(hardwareIdBytes);
-        hardwareId = new String(hardwareIdBytes, StandardCharsets.UTF_8).trim();
+        decodeHardwareId(buffer, buffer.position());
+        buffer.position(buffer.position() + HARDWARE_ID_LENGTH);
 
         unitId = buffer.getInt();
         activeAntChs = buffer.getInt();
         iooType = buffer.getInt();
 
-        rfCenterFreq = decodeLong(buffer);
-        adcSamplingFreq = decodeLong(buffer);
-        samplingFreq = decodeLong(buffer);
+        buffer.getInt();  // alignment padding
+        rfCenterFreq = buffer.getLong();
+        adcSamplingFreq = buffer.getLong();
+        samplingFreq = buffer.getLong();
 
-        cpiLength = decodeLong(buffer);
-        timeStamp = decodeLong(buffer);
+        cpiLength = buffer.getInt() & 0xFFFFFFFFL;
+        buffer.getInt();  // alignment padding
+        timeStamp = buffer.getLong();
 
-        daqBlockIndex = (int)decodeLong(buffer);
+        daqBlockIndex = buffer.getInt();
         cpiIndex = buffer.getInt();
-        extIntegrationCntr = decodeLong(buffer);
+        extIntegrationCntr = buffer.getLong();
 
         dataType = buffer.getInt();
         sampleBitDepth = buffer.getInt();
@@ -128,7 +138,6 @@ public class HeaderIQ {
         noiseSourceState = buffer.getInt();
 
         // Decode the reserved bytes (self.reserved_bytes in Python)
-        reserved = new int[RESERVED_BYTES];
         for (int i = 0; i < RESERVED_BYTES; i++) {
             reserved[i] = buffer.getInt();
         }
@@ -136,13 +145,94 @@ public class HeaderIQ {
         headerVersion = buffer.getInt();
     }
 
-    private long decodeLong(@NonNull ByteBuffer buffer) {
-        long highBits = buffer.getInt() & 0xFFFFFFFFL << 32;
-        long lowBits = (buffer.getInt() & 0xFFFFFFFFL);
-        return lowBits | highBits;
+    /**
+     * The hardware id rarely changes between frames, so its String is only rebuilt when its bytes do.
+     */
+    private void decodeHardwareId(ByteBuffer buffer, int offset) {
+        boolean changed = false;
+        for (int i = 0; i < HARDWARE_ID_LENGTH; i++) {
+            byte b = buffer.get(offset + i);
+            if (b != hardwareIdBytes[i]) {
+                hardwareIdBytes[i] = b;
+                changed = true;
+            }
+        }
+        if (changed)
+            hardwareId = new String(hardwareIdBytes, StandardCharsets.UTF_8).trim();
+    }
+
+    /**
+     * Copies every field of another header into this one without allocating, so a decoded header
+     * can be snapshotted before the receive thread decodes the next frame into it.
+     */
+    public void copyFrom(@NonNull HeaderIQ other) {
+        syncWord = other.syncWord;
+        frameType = other.frameType;
+        hardwareId = other.hardwareId;
+        System.arraycopy(other.hardwareIdBytes, 0, hardwareIdBytes, 0, HARDWARE_ID_LENGTH);
+        unitId = other.unitId;
+        activeAntChs = other.activeAntChs;
+        iooType = other.iooType;
+        rfCenterFreq = other.rfCenterFreq;
+        adcSamplingFreq = other.adcSamplingFreq;
+        samplingFreq = other.samplingFreq;
+        cpiLength = other.cpiLength;
+        timeStamp = other.timeStamp;
+        daqBlockIndex = other.daqBlockIndex;
+        cpiIndex = other.cpiIndex;
+        extIntegrationCntr = other.extIntegrationCntr;
+        dataType = other.dataType;
+        sampleBitDepth = other.sampleBitDepth;
+        adcOverdriveFlags = other.adcOverdriveFlags;
+        System.arraycopy(other.ifGains, 0, ifGains, 0, ifGains.length);
+        delaySyncFlag = other.delaySyncFlag;
+        iqSyncFlag = other.iqSyncFlag;
+        syncState = other.syncState;
+        noiseSourceState = other.noiseSourceState;
+        System.arraycopy(other.reserved, 0, reserved, 0, reserved.length);
+        headerVersion = other.headerVersion;
+    }
+
+    void setFrameType(int frameType) {
+        this.frameType = frameType;
+    }
+
+    void setIfGains(@NonNull int[] gains) {
+        System.arraycopy(gains, 0, ifGains, 0, Math.min(gains.length, ifGains.length));
+    }
+
+    void setSampleBitDepth(int sampleBitDepth) {
+        this.sampleBitDepth = sampleBitDepth;
+    }
+
+    void setAdcOverdriveFlags(int flags) {
+        this.adcOverdriveFlags = flags;
+    }
+
+    void setUnit(int unitId, @NonNull String hardwareId) {
+        this.unitId = unitId;
+        this.hardwareId = hardwareId;
+    }
+
+    /**
+     * Fills in a synchronized data-frame header for a frame replayed from a recording, which keeps
+     * only these fields per frame.
+     */
+    void setReplayFrame(int channels, long cpiLength, int cpiIndex, long timeStamp, long rfCenterFreq, long samplingFreq) {
+        syncWord = SYNC_WORD;
+        frameType = FRAME_TYPE_DATA;
+        activeAntChs = channels;
+        this.cpiLength = cpiLength;
+        this.cpiIndex = cpiIndex;
+        this.timeStamp = timeStamp;
+        this.rfCenterFreq = rfCenterFreq;
+        this.samplingFreq = samplingFreq;
+        dataType = 3;
+        sampleBitDepth = 32;
+        iqSyncFlag = 1;
+        syncState = 1;
     }
 
-    @SuppressWarnings("unused")
     public byte[] encodeHeader() {
         ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
         buffer.order(ByteOrder.LITTLE_ENDIAN);
@@ -153,10 +243,12 @@ public class HeaderIQ {
         buffer.putInt(unitId);
         buffer.putInt(activeAntChs);
         buffer.putInt(iooType);
+        buffer.putInt(0);  // alignment padding
         buffer.putLong(rfCenterFreq);
         buffer.putLong(adcSamplingFreq);
         buffer.putLong(samplingFreq);
-        buffer.putLong(cpiLength);
+        buffer.putInt((int) cpiLength);
+        buffer.putInt(0);  // alignment padding
         buffer.putLong(timeStamp);
         buffer.putInt(daqBlockIndex);
         buffer.putInt(cpiIndex);
@@ -222,8 +314,23 @@ public class HeaderIQ {
 
     public int getFrameType() { return frameType; }
 
+    /**
+     * Number of payload bytes following this header: cpiLength complex samples per active channel.
+     */
+    public int getPayloadSize() {
+        return (int) cpiLength * activeAntChs * 2 * (sampleBitDepth / 8);
+    }
+
     public long getSamplingFreq() { return samplingFreq; }
 
+    public long getRfCenterFreq() { return rfCenterFreq; }
+
+    public long getTimeStamp() { return timeStamp; }
+
+    public String getHardwareId() { return hardwareId; }
+
+    public int getUnitId() { return unitId; }
+
     public int getSyncState() { return syncState; }
 
     public int getSyncWord() { return syncWord; }
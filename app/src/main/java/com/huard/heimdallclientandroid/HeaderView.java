@@ -0,0 +1,178 @@
+package com.huard.heimdallclientandroid;
+
+import androidx.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Flyweight accessor over an encoded 1024-byte IQ header.  Fields are read on demand at their fixed
+ * offsets in the DAQ's native-aligned layout (see {@link HeaderIQ#decodeHeader(ByteBuffer)}), so
+ * checking a frame's type or size costs a couple of buffer reads instead of a full decode.
+ * <p>
+ * A view wraps a buffer it does not own; it is only valid until that buffer is refilled.  Use
+ * {@link #copyTo(HeaderView)} or {@link #snapshot()} to keep a header beyond that, or
+ * {@link #copyTo(HeaderIQ)} to decode it into the eager form.
+ */
+public class HeaderView {
+    static final int OFFSET_SYNC_WORD = 0;
+    static final int OFFSET_FRAME_TYPE = 4;
+    static final int OFFSET_HARDWARE_ID = 8;
+    static final int OFFSET_UNIT_ID = 24;
+    static final int OFFSET_ACTIVE_ANT_CHS = 28;
+    static final int OFFSET_IOO_TYPE = 32;
+    static final int OFFSET_RF_CENTER_FREQ = 40;
+    static final int OFFSET_ADC_SAMPLING_FREQ = 48;
+    static final int OFFSET_SAMPLING_FREQ = 56;
+    static final int OFFSET_CPI_LENGTH = 64;
+    static final int OFFSET_TIME_STAMP = 72;
+    static final int OFFSET_DAQ_BLOCK_INDEX = 80;
+    static final int OFFSET_CPI_INDEX = 84;
+    static final int OFFSET_EXT_INTEGRATION_CNTR = 88;
+    static final int OFFSET_DATA_TYPE = 96;
+    static final int OFFSET_SAMPLE_BIT_DEPTH = 100;
+    static final int OFFSET_ADC_OVERDRIVE_FLAGS = 104;
+    static final int OFFSET_IF_GAINS = 108;
+    static final int OFFSET_DELAY_SYNC_FLAG = 236;
+    static final int OFFSET_IQ_SYNC_FLAG = 240;
+    static final int OFFSET_SYNC_STATE = 244;
+    static final int OFFSET_NOISE_SOURCE_STATE = 248;
+    static final int OFFSET_HEADER_VERSION = 1020;
+
+    private static final int IF_GAIN_COUNT = 32;
+
+    private ByteBuffer buffer;
+    private final boolean frozen;
+    private final byte[] hardwareIdBytes = new byte[HeaderIQ.HARDWARE_ID_LENGTH];
+    private String hardwareId = "";
+
+    public HeaderView() {
+        this.frozen = false;
+    }
+
+    private HeaderView(ByteBuffer frozenBuffer) {
+        this.buffer = frozenBuffer;
+        this.frozen = true;
+        getHardwareId();  // fill the cache now so readers on other threads never write it
+    }
+
+    /**
+     * Points this view at a header starting at index 0 of the buffer.  Nothing is decoded or
+     * allocated when the buffer is already little-endian.
+     */
+    public HeaderView wrap(@NonNull ByteBuffer header) {
+        if (frozen)
+            throw new IllegalStateException("Header snapshots cannot be re-wrapped");
+        if (header.capacity() < HeaderIQ.HEADER_SIZE)
+            throw new IllegalArgumentException("Header buffer holds " + header.capacity() + " bytes");
+        buffer = header.order() == ByteOrder.LITTLE_ENDIAN ? header : header.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        return this;
+    }
+
+    /**
+     * Copies the header bytes into a private read-only buffer, giving a value that stays valid after
+     * the source buffer is refilled and can be handed to another thread.
+     */
+    public HeaderView snapshot() {
+        ByteBuffer copy = ByteBuffer.allocate(HeaderIQ.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        copyBytes(copy);
+        return new HeaderView(copy.asReadOnlyBuffer().order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    /**
+     * Copies the header bytes into the target's own buffer without allocating once the target has
+     * one; use with pooled views to hand headers across threads allocation-free.
+     */
+    public void copyTo(@NonNull HeaderView target) {
+        if (target.frozen)
+            throw new IllegalStateException("Header snapshots are immutable");
+        if (target.buffer == null || target.buffer.isReadOnly())
+            target.buffer = ByteBuffer.allocate(HeaderIQ.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        copyBytes(target.buffer);
+    }
+
+    // Absolute long copies leave both buffers' positions alone and allocate nothing
+    private void copyBytes(ByteBuffer destination) {
+        for (int i = 0; i < HeaderIQ.HEADER_SIZE; i += 8) {
+            destination.putLong(i, buffer.getLong(i));
+        }
+    }
+
+    /** Decodes every field into an eager header.  Rewinds the wrapped buffer of a live view. */
+    public void copyTo(@NonNull HeaderIQ target) {
+        target.decodeHeader(frozen ? buffer.duplicate() : buffer);
+    }
+
+    public int getSyncWord() { return buffer.getInt(OFFSET_SYNC_WORD); }
+
+    public int getFrameType() { return buffer.getInt(OFFSET_FRAME_TYPE); }
+
+    /** Decoded only when the id bytes differ from the previous call. */
+    public String getHardwareId() {
+        boolean changed = false;
+        for (int i = 0; i < hardwareIdBytes.length; i++) {
+            byte b = buffer.get(OFFSET_HARDWARE_ID + i);
+            if (b != hardwareIdBytes[i]) {
+                hardwareIdBytes[i] = b;
+                changed = true;
+            }
+        }
+        if (changed)
+            hardwareId = new String(hardwareIdBytes, StandardCharsets.UTF_8).trim();
+        return hardwareId;
+    }
+
+    public int getUnitId() { return buffer.getInt(OFFSET_UNIT_ID); }
+
+    public int getActiveAntChs() { return buffer.getInt(OFFSET_ACTIVE_ANT_CHS); }
+
+    public int getIooType() { return buffer.getInt(OFFSET_IOO_TYPE); }
+
+    public long getRfCenterFreq() { return buffer.getLong(OFFSET_RF_CENTER_FREQ); }
+
+    public long getAdcSamplingFreq() { return buffer.getLong(OFFSET_ADC_SAMPLING_FREQ); }
+
+    public long getSamplingFreq() { return buffer.getLong(OFFSET_SAMPLING_FREQ); }
+
+    public long getCpiLength() { return buffer.getInt(OFFSET_CPI_LENGTH) & 0xFFFFFFFFL; }
+
+    public long getTimeStamp() { return buffer.getLong(OFFSET_TIME_STAMP); }
+
+    public int getDaqBlockIndex() { return buffer.getInt(OFFSET_DAQ_BLOCK_INDEX); }
+
+    public int getIndexCPI() { return buffer.getInt(OFFSET_CPI_INDEX); }
+
+    public long getExtIntegrationCntr() { return buffer.getLong(OFFSET_EXT_INTEGRATION_CNTR); }
+
+    public int getDataType() { return buffer.getInt(OFFSET_DATA_TYPE); }
+
+    public int getSampleBitDepth() { return buffer.getInt(OFFSET_SAMPLE_BIT_DEPTH); }
+
+    public int getAdcOverdriveFlags() { return buffer.getInt(OFFSET_ADC_OVERDRIVE_FLAGS); }
+
+    public int getIfGain(int channel) {
+        if (channel < 0 || channel >= IF_GAIN_COUNT)
+            throw new IndexOutOfBoundsException("IF gain channel " + channel);
+        return buffer.getInt(OFFSET_IF_GAINS + 4 * channel);
+    }
+
+    public int getDelaySyncFlag() { return buffer.getInt(OFFSET_DELAY_SYNC_FLAG); }
+
+    public int getIqSyncFlag() { return buffer.getInt(OFFSET_IQ_SYNC_FLAG); }
+
+    public int getSyncState() { return buffer.getInt(OFFSET_SYNC_STATE); }
+
+    public int getNoiseSourceState() { return buffer.getInt(OFFSET_NOISE_SOURCE_STATE); }
+
+    public int getHeaderVersion() { return buffer.getInt(OFFSET_HEADER_VERSION); }
+
+    /** Number of payload bytes following this header, as {@link HeaderIQ#getPayloadSize()}. */
+    public int getPayloadSize() {
+        return (int) getCpiLength() * getActiveAntChs() * 2 * (getSampleBitDepth() / 8);
+    }
+
+    public boolean checkSyncWord() {
+        return getSyncWord() == HeaderIQ.SYNC_WORD;
+    }
+}
@@ -0,0 +1,146 @@
+package com.huard.heimdallclientandroid;
+
+/**
+ * Eigendecomposition of small complex Hermitian matrices, such as an array covariance matrix, by
+ * cyclic Jacobi rotations.  Each rotation is a phase shift that makes the pivot real followed by a
+ * real Jacobi rotation, so the result is accurate to machine precision and needs no library.
+ * Scratch space is held by the instance; decomposing allocates nothing.
+ */
+final class HermitianEigen {
+    private static final int MAX_SWEEPS = 50;
+
+    private final int n;
+    private final double[] aRe;
+    private final double[] aIm;
+    private final double[] vRe;
+    private final double[] vIm;
+    private final int[] order;
+
+    HermitianEigen(int n) {
+        this.n = n;
+        aRe = new double[n * n];
+        aIm = new double[n * n];
+        vRe = new double[n * n];
+        vIm = new double[n * n];
+        order = new int[n];
+    }
+
+    /**
+     * Decomposes the row-major Hermitian matrix (re, im).  Eigenvalues are written ascending; the
+     * eigenvector of eigenvalue k is column k of (vectorsRe, vectorsIm), row-major.
+     */
+    void decompose(double[] re, double[] im, double[] eigenvalues, double[] vectorsRe, double[] vectorsIm) {
+        System.arraycopy(re, 0, aRe, 0, n * n);
+        System.arraycopy(im, 0, aIm, 0, n * n);
+        for (int i = 0; i < n * n; i++) {
+            vRe[i] = 0;
+            vIm[i] = 0;
+        }
+        for (int i = 0; i < n; i++) {
+            vRe[i * n + i] = 1;
+        }
+
+        for (int sweep = 0; sweep < MAX_SWEEPS; sweep++) {
+            double off = 0;
+            double diagonal = 0;
+            for (int p = 0; p < n; p++) {
+                diagonal += aRe[p * n + p] * aRe[p * n + p];
+                for (int q = p + 1; q < n; q++) {
+                    off += aRe[p * n + q] * aRe[p * n + q] + aIm[p * n + q] * aIm[p * n + q];
+                }
+            }
+            if (off <= 1e-30 * diagonal || off == 0)
+                break;
+            for (int p = 0; p < n - 1; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    rotate(p, q);
+                }
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        for (int i = 1; i < n; i++) {  // insertion sort, ascending eigenvalue
+            int index = order[i];
+            int j = i - 1;
+            while (j >= 0 && aRe[order[j] * n + order[j]] > aRe[index * n + index]) {
+                order[j + 1] = order[j];
+                j--;
+            }
+            order[j + 1] = index;
+        }
+        for (int k = 0; k < n; k++) {
+            int source = order[k];
+            eigenvalues[k] = aRe[source * n + source];
+            for (int row = 0; row < n; row++) {
+                vectorsRe[row * n + k] = vRe[row * n + source];
+                vectorsIm[row * n + k] = vIm[row * n + source];
+            }
+        }
+    }
+
+    // Zeroes A[p][q] with the unitary J = diag(1, e^-i.phi) * R(theta) acting on rows and columns p, q
+    private void rotate(int p, int q) {
+        double re = aRe[p * n + q];
+        double im = aIm[p * n + q];
+        double g = Math.hypot(re, im);
+        if (g < 1e-300)
+            return;
+        double phaseRe = re / g;   // e^i.phi
+        double phaseIm = im / g;
+        double app = aRe[p * n + p];
+        double aqq = aRe[q * n + q];
+        double theta = (aqq - app) / (2 * g);
+        double t = Math.signum(theta) / (Math.abs(theta) + Math.sqrt(theta * theta + 1));
+        if (theta == 0)
+            t = 1;
+        double c = 1 / Math.sqrt(t * t + 1);
+        double s = t * c;
+
+        // J_pp = c, J_pq = s, J_qp = -s.e^-i.phi, J_qq = c.e^-i.phi
+        double jqpRe = -s * phaseRe;
+        double jqpIm = s * phaseIm;
+        double jqqRe = c * phaseRe;
+        double jqqIm = -c * phaseIm;
+
+        // A = A.J and V = V.J on columns p, q
+        for (int k = 0; k < n; k++) {
+            rotateColumns(aRe, aIm, k, p, q, c, s, jqpRe, jqpIm, jqqRe, jqqIm);
+            rotateColumns(vRe, vIm, k, p, q, c, s, jqpRe, jqpIm, jqqRe, jqqIm);
+        }
+        // A = J^H.A on rows p, q
+        for (int k = 0; k < n; k++) {
+            double pkRe = aRe[p * n + k];
+            double pkIm = aIm[p * n + k];
+            double qkRe = aRe[q * n + k];
+            double qkIm = aIm[q * n + k];
+            // row p: conj(J_pp).A_pk + conj(J_qp).A_qk
+            aRe[p * n + k] = c * pkRe + jqpRe * qkRe + jqpIm * qkIm;
+            aIm[p * n + k] = c * pkIm + jqpRe * qkIm - jqpIm * qkRe;
+            // row q: conj(J_pq).A_pk + conj(J_qq).A_qk
+            aRe[q * n + k] = s * pkRe + jqqRe * qkRe + jqqIm * qkIm;
+            aIm[q * n + k] = s * pkIm + jqqRe * qkIm - jqqIm * qkRe;
+        }
+        aIm[p * n + p] = 0;
+        aIm[q * n + q] = 0;
+        aRe[p * n + q] = 0;
+        aIm[p * n + q] = 0;
+        aRe[q * n + p] = 0;
+        aIm[q * n + p] = 0;
+    }
+
+    private void rotateColumns(double[] mRe, double[] mIm, int row, int p, int q, double c, double s,
+                               double jqpRe, double jqpIm, double jqqRe, double jqqIm) {
+        double kpRe = mRe[row * n + p];
+        double kpIm = mIm[row * n + p];
+        double kqRe = mRe[row * n + q];
+        double kqIm = mIm[row * n + q];
+        // column p: M_kp.J_pp + M_kq.J_qp
+        mRe[row * n + p] = kpRe * c + kqRe * jqpRe - kqIm * jqpIm;
+        mIm[row * n + p] = kpIm * c + kqRe * jqpIm + kqIm * jqpRe;
+        // column q: M_kp.J_pq + M_kq.J_qq
+        mRe[row * n + q] = kpRe * s + kqRe * jqqRe - kqIm * jqqIm;
+        mIm[row * n + q] = kpIm * s + kqRe * jqqIm + kqIm * jqqRe;
+    }
+}
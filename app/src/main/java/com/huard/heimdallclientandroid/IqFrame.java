@@ -0,0 +1,101 @@
+package com.huard.heimdallclientandroid;
+
+import androidx.annotation.NonNull;
+
+import java.nio.FloatBuffer;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A recyclable IQ frame leased from an {@link IqFramePool}: per-channel interleaved I/Q samples plus
+ * a snapshot of the header they arrived with.  The holder must call {@link #release()} exactly once
+ * when finished; the frame's arrays are handed to the next lease afterwards.
+ */
+public class IqFrame {
+    private final IqFramePool pool;
+    private final float[][] samples;
+    private final HeaderIQ header = new HeaderIQ();
+    private final AtomicBoolean leased = new AtomicBoolean(false);
+
+    IqFrame(IqFramePool pool, int channels, int cpiLength) {
+        this.pool = pool;
+        this.samples = new float[channels][cpiLength * 2];
+    }
+
+    boolean fits(int channels, int cpiLength) {
+        return samples.length == channels && (channels == 0 || samples[0].length == cpiLength * 2);
+    }
+
+    void lease() {
+        leased.set(true);
+    }
+
+    /**
+     * Copies a channel-major payload view (see {@link ChannelFrameReader}) and its header into this frame.
+     */
+    void fill(@NonNull FloatBuffer payload, @NonNull HeaderIQ source) {
+        for (int ch = 0; ch < samples.length; ch++) {
+            payload.position(ch * samples[ch].length);
+            payload.get(samples[ch]);
+        }
+        payload.rewind();
+        header.copyFrom(source);
+    }
+
+    void fill(@NonNull float[][] payload, @NonNull HeaderIQ source) {
+        for (int ch = 0; ch < samples.length; ch++) {
+            System.arraycopy(payload[ch], 0, samples[ch], 0, samples[ch].length);
+        }
+        header.copyFrom(source);
+    }
+
+    /**
+     * As {@link #fill(FloatBuffer, HeaderIQ)}, multiplying each channel by its calibration
+     * correction (see {@link ChannelCalibrator#getCorrection}) as it is copied.
+     */
+    void fill(@NonNull FloatBuffer payload, @NonNull HeaderIQ source, @NonNull float[] correction) {
+        for (int ch = 0; ch < samples.length; ch++) {
+            if (ch == 0 || 2 * ch >= correction.length) {
+                payload.position(ch * samples[ch].length);
+                payload.get(samples[ch]);
+            } else {
+                ChannelCalibrator.correct(payload, ch * samples[ch].length, samples[ch], correction[2 * ch], correction[2 * ch + 1]);
+            }
+        }
+        payload.rewind();
+        header.copyFrom(source);
+    }
+
+    void fill(@NonNull float[][] payload, @NonNull HeaderIQ source, @NonNull float[] correction) {
+        for (int ch = 0; ch < samples.length; ch++) {
+            if (ch == 0 || 2 * ch >= correction.length)
+                System.arraycopy(payload[ch], 0, samples[ch], 0, samples[ch].length);
+            else
+                ChannelCalibrator.correct(payload[ch], samples[ch], samples[ch].length, correction[2 * ch], correction[2 * ch + 1]);
+        }
+        header.copyFrom(source);
+    }
+
+    /** Interleaved I/Q samples, [channel][2 * sample + (0 = I, 1 = Q)]. */
+    public float[][] getSamples() {
+        return samples;
+    }
+
+    public HeaderIQ getHeader() {
+        return header;
+    }
+
+    public int getChannelCount() {
+        return samples.length;
+    }
+
+    public int getCpiLength() {
+        return samples.length == 0 ? 0 : samples[0].length / 2;
+    }
+
+    /** Returns this frame to its pool.  The frame must not be touched after release. */
+    public void release() {
+        if (!leased.compareAndSet(true, false))
+            throw new IllegalStateException("IQ frame released twice");
+        pool.recycle(this);
+    }
+}
@@ -0,0 +1,75 @@
+package com.huard.heimdallclientandroid;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of {@link IqFrame}s shared between the receive thread and frame consumers.
+ * <p>
+ * At most {@code capacity} frames may be leased at once.  When a consumer falls behind and every
+ * frame is out, {@link #acquire(int, int)} returns null and the caller drops the incoming frame
+ * rather than allocating, so a slow consumer bounds memory instead of growing it.  A recycled
+ * frame is reused only if its shape matches; otherwise it is discarded and a new one allocated.
+ * Free frames wait in a queue preallocated to {@code capacity}, so a lease and release of a reused
+ * frame allocates nothing.
+ */
+public class IqFramePool {
+    public static final int DEFAULT_CAPACITY = 4;
+
+    private final int capacity;
+    private final ArrayBlockingQueue<IqFrame> freeFrames;
+    private final AtomicInteger leasedFrames = new AtomicInteger();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong exhausted = new AtomicLong();
+
+    public IqFramePool() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public IqFramePool(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Pool capacity must be at least 1");
+        this.capacity = capacity;
+        this.freeFrames = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Leases a frame shaped for the given channel count and CPI length.
+     *
+     * @return the frame, or null if all {@code capacity} frames are currently leased
+     */
+    public IqFrame acquire(int channels, int cpiLength) {
+        if (leasedFrames.incrementAndGet() > capacity) {
+            leasedFrames.decrementAndGet();
+            exhausted.incrementAndGet();
+            return null;
+        }
+
+        IqFrame frame = freeFrames.poll();
+        if (frame != null && frame.fits(channels, cpiLength)) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            frame = new IqFrame(this, channels, cpiLength);
+        }
+        frame.lease();
+        return frame;
+    }
+
+    void recycle(IqFrame frame) {
+        freeFrames.offer(frame);  // never full: at most capacity frames exist
+        leasedFrames.decrementAndGet();
+    }
+
+    public int getCapacity() { return capacity; }
+
+    public int getLeasedCount() { return leasedFrames.get(); }
+
+    public long getHitCount() { return hits.get(); }
+
+    public long getMissCount() { return misses.get(); }
+
+    public long getExhaustedCount() { return exhausted.get(); }
+}
@@ -0,0 +1,278 @@
+package com.huard.heimdallclientandroid;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Continuous IQ recorder writing a SigMF-style recording:
+ * <ul>
+ *   <li>{@code <name>.sigmf-data}: raw frame payloads, cf32_le, each CPI stored channel-major
+ *       (all samples of channel 0, then channel 1, ...) exactly as received</li>
+ *   <li>{@code <name>.sigmf-meta}: JSON metadata written on {@link #close()}, with a capture segment
+ *       for every change of center frequency</li>
+ *   <li>{@code <name>.sigmf-idx}: one little-endian record per frame,
+ *       {@code int cpiIndex, long timestamp, long dataOffset} ({@link #INDEX_RECORD_SIZE} bytes)</li>
+ * </ul>
+ * Both binary files are pre-extended and memory-mapped in {@link #REGION_SIZE} regions, so recording a
+ * frame is a bulk copy into the page cache.  The next region is mapped on a background thread while
+ * the current one fills, keeping file extension and mapping off the receive thread.
+ * {@link #record} must be called from a single thread.
+ */
+public class IqRecorder {
+    private static final String TAG = "IqRecorder";
+
+    public static final String DATA_EXTENSION = ".sigmf-data";
+    public static final String META_EXTENSION = ".sigmf-meta";
+    public static final String INDEX_EXTENSION = ".sigmf-idx";
+    public static final int INDEX_RECORD_SIZE = 20;
+    static final int REGION_SIZE = 64 << 20;
+    private static final int INDEX_REGION_SIZE = INDEX_RECORD_SIZE << 16;  // records never straddle regions
+
+    private final File dataFile;
+    private final File metaFile;
+    private final File indexFile;
+    private final ExecutorService mapper;
+    private final MappedFile data;
+    private final MappedFile index;
+
+    private int channelCount;
+    private long sampleRate;
+    private String hardwareId = "";
+    private long samplesPerChannel;
+    private long frameCount;
+    private final List<long[]> captures = new ArrayList<>();  // {sampleStart, frequencyHz, timestamp}
+    private boolean closed;
+
+    public IqRecorder(@NonNull File directory, @NonNull String name) throws IOException {
+        this(directory, name, REGION_SIZE);
+    }
+
+    IqRecorder(@NonNull File directory, @NonNull String name, int regionSize) throws IOException {
+        this.dataFile = new File(directory, name + DATA_EXTENSION);
+        this.metaFile = new File(directory, name + META_EXTENSION);
+        this.indexFile = new File(directory, name + INDEX_EXTENSION);
+        this.mapper = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "IqRecorderMap");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.data = new MappedFile(dataFile, regionSize);
+        this.index = new MappedFile(indexFile, INDEX_REGION_SIZE);
+        Log.i(TAG, "Recording to " + dataFile.getAbsolutePath());
+    }
+
+    /** Appends a channel-major payload view (see {@link ChannelFrameReader}). */
+    public synchronized void record(@NonNull FloatBuffer payload, @NonNull HeaderIQ header) throws IOException {
+        if (!begin(header))
+            return;
+        long offset = data.position;
+        data.put(payload);
+        payload.rewind();
+        end(header, offset);
+    }
+
+    /** Appends a payload delivered as per-channel interleaved arrays. */
+    public synchronized void record(@NonNull float[][] payload, @NonNull HeaderIQ header) throws IOException {
+        if (!begin(header))
+            return;
+        long offset = data.position;
+        int length = (int) header.getCpiLength() * 2;
+        for (int ch = 0; ch < header.getActiveAntChs(); ch++) {
+            data.put(payload[ch], length);
+        }
+        end(header, offset);
+    }
+
+    private boolean begin(HeaderIQ header) {
+        if (closed)
+            return false;
+        if (frameCount == 0) {
+            channelCount = header.getActiveAntChs();
+            sampleRate = header.getSamplingFreq();
+            hardwareId = header.getHardwareId();
+        } else if (header.getActiveAntChs() != channelCount) {
+            Log.w(TAG, "Channel count changed to " + header.getActiveAntChs() + ", frame not recorded");
+            return false;
+        }
+        if (captures.isEmpty() || captures.get(captures.size() - 1)[1] != header.getRfCenterFreq())
+            captures.add(new long[]{samplesPerChannel, header.getRfCenterFreq(), header.getTimeStamp()});
+        return true;
+    }
+
+    private void end(HeaderIQ header, long offset) throws IOException {
+        index.putIndex(header.getIndexCPI(), header.getTimeStamp(), offset);
+        samplesPerChannel += header.getCpiLength();
+        frameCount++;
+    }
+
+    public synchronized long getFrameCount() {
+        return frameCount;
+    }
+
+    public synchronized long getBytesWritten() {
+        return data.position;
+    }
+
+    public File getDataFile() {
+        return dataFile;
+    }
+
+    /**
+     * Trims the pre-extended files to their written length and writes the metadata file.
+     */
+    public synchronized void close() throws IOException {
+        if (closed)
+            return;
+        closed = true;
+        data.close();
+        index.close();
+        mapper.shutdown();
+        writeMetadata();
+        Log.i(TAG, "Recorded " + frameCount + " frames, " + data.position + " bytes");
+    }
+
+    private void writeMetadata() throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"global\": {\n");
+        json.append("    \"core:datatype\": \"cf32_le\",\n");
+        json.append("    \"core:version\": \"1.0.0\",\n");
+        json.append(String.format(Locale.US, "    \"core:sample_rate\": %d,\n", sampleRate));
+        json.append(String.format(Locale.US, "    \"core:num_channels\": %d,\n", channelCount));
+        json.append("    \"core:hw\": \"").append(hardwareId.replace("\"", "'")).append("\",\n");
+        json.append("    \"core:recorder\": \"HeimdallClientAndroid\",\n");
+        json.append("    \"heimdall:layout\": \"channel_major_cpi\",\n");
+        json.append("    \"heimdall:index\": \"").append(indexFile.getName()).append("\"\n");
+        json.append("  },\n  \"captures\": [");
+        for (int i = 0; i < captures.size(); i++) {
+            long[] capture = captures.get(i);
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append(String.format(Locale.US,
+                    "    {\"core:sample_start\": %d, \"core:frequency\": %d, \"heimdall:timestamp\": %d}",
+                    capture[0], capture[1], capture[2]));
+        }
+        json.append("\n  ],\n  \"annotations\": []\n}\n");
+
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(metaFile, false), StandardCharsets.UTF_8)) {
+            writer.write(json.toString());
+        }
+    }
+
+    /**
+     * A file grown and mapped region by region; the region after the current one is always being
+     * prepared by the mapper thread.
+     */
+    private class MappedFile {
+        private final RandomAccessFile file;
+        private final FileChannel channel;
+        private final int regionSize;
+        private MappedByteBuffer region;
+        private long regionStart;
+        private Future<MappedByteBuffer> nextRegion;
+        long position;
+
+        MappedFile(File path, int regionSize) throws IOException {
+            this.file = new RandomAccessFile(path, "rw");
+            this.file.setLength(0);
+            this.channel = file.getChannel();
+            this.regionSize = regionSize;
+            this.region = map(0);
+            this.nextRegion = prepare(regionSize);
+        }
+
+        private MappedByteBuffer map(long start) throws IOException {
+            file.setLength(start + regionSize);
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, start, regionSize);
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+            return buffer;
+        }
+
+        private Future<MappedByteBuffer> prepare(long start) {
+            return mapper.submit(() -> map(start));
+        }
+
+        private void advance() throws IOException {
+            MappedByteBuffer next;
+            try {
+                next = nextRegion.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while mapping recording region", e);
+            } catch (ExecutionException e) {
+                throw new IOException("Failed to map recording region", e.getCause());
+            }
+            regionStart += regionSize;
+            region = next;
+            nextRegion = prepare(regionStart + regionSize);
+        }
+
+        void put(FloatBuffer source) throws IOException {
+            int limit = source.limit();
+            while (source.hasRemaining()) {
+                if (!region.hasRemaining())
+                    advance();
+                int count = Math.min(source.remaining(), region.remaining() / 4);
+                source.limit(source.position() + count);
+                region.asFloatBuffer().put(source);
+                region.position(region.position() + count * 4);
+                source.limit(limit);
+            }
+            position = regionStart + region.position();
+        }
+
+        void put(float[] source, int length) throws IOException {
+            int offset = 0;
+            while (offset < length) {
+                if (!region.hasRemaining())
+                    advance();
+                int count = Math.min(length - offset, region.remaining() / 4);
+                region.asFloatBuffer().put(source, offset, count);
+                region.position(region.position() + count * 4);
+                offset += count;
+            }
+            position = regionStart + region.position();
+        }
+
+        void putIndex(int cpiIndex, long timestamp, long offset) throws IOException {
+            if (region.remaining() < INDEX_RECORD_SIZE)
+                advance();
+            region.putInt(cpiIndex);
+            region.putLong(timestamp);
+            region.putLong(offset);
+            position = regionStart + region.position();
+        }
+
+        void close() throws IOException {
+            region.force();
+            region = null;
+            try {
+                nextRegion.get();  // let a pending extension finish before trimming
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                Log.w(TAG, "Pending region mapping failed", e.getCause());
+            }
+            channel.truncate(position);
+            file.close();
+        }
+    }
+}
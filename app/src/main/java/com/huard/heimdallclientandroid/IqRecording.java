@@ -0,0 +1,155 @@
+package com.huard.heimdallclientandroid;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Read access to a recording written by {@link IqRecorder}.  The frame index is mapped on open;
+ * payloads are read on demand into a reusable direct buffer.
+ */
+public class IqRecording implements AutoCloseable {
+    private static final Pattern CAPTURE_SEGMENT =
+            Pattern.compile("\"core:sample_start\"\\s*:\\s*(\\d+)\\s*,\\s*\"core:frequency\"\\s*:\\s*(-?\\d+)");
+
+    private final RandomAccessFile dataFile;
+    private final FileChannel data;
+    private final long dataLength;
+    private final MappedByteBuffer index;
+    private final int frameCount;
+    private final int channelCount;
+    private final long sampleRate;
+    private final long centerFrequency;
+    private final long[] segmentStarts;  // first sample of each capture segment, ascending
+    private final long[] segmentFrequencies;
+    private ByteBuffer frameBuffer = ByteBuffer.allocateDirect(0);
+
+    public IqRecording(@NonNull File directory, @NonNull String name) throws IOException {
+        String meta = new String(Files.readAllBytes(new File(directory, name + IqRecorder.META_EXTENSION).toPath()),
+                StandardCharsets.UTF_8);
+        channelCount = (int) metaField(meta, "core:num_channels");
+        sampleRate = metaField(meta, "core:sample_rate");
+        centerFrequency = metaField(meta, "core:frequency");
+        List<long[]> segments = new ArrayList<>();
+        Matcher segment = CAPTURE_SEGMENT.matcher(meta);
+        while (segment.find()) {
+            segments.add(new long[]{Long.parseLong(segment.group(1)), Long.parseLong(segment.group(2))});
+        }
+        segmentStarts = new long[segments.size()];
+        segmentFrequencies = new long[segments.size()];
+        for (int i = 0; i < segments.size(); i++) {
+            segmentStarts[i] = segments.get(i)[0];
+            segmentFrequencies[i] = segments.get(i)[1];
+        }
+
+        try (RandomAccessFile indexFile = new RandomAccessFile(new File(directory, name + IqRecorder.INDEX_EXTENSION), "r")) {
+            FileChannel channel = indexFile.getChannel();
+            index = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            index.order(ByteOrder.LITTLE_ENDIAN);
+            frameCount = (int) (channel.size() / IqRecorder.INDEX_RECORD_SIZE);
+        }
+        dataFile = new RandomAccessFile(new File(directory, name + IqRecorder.DATA_EXTENSION), "r");
+        data = dataFile.getChannel();
+        dataLength = data.size();
+    }
+
+    private static long metaField(String meta, String key) throws IOException {
+        Matcher matcher = Pattern.compile("\"" + key + "\"\\s*:\\s*(-?\\d+)").matcher(meta);
+        if (!matcher.find())
+            throw new IOException("Recording metadata is missing " + key);
+        return Long.parseLong(matcher.group(1));
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getChannelCount() {
+        return channelCount;
+    }
+
+    public long getSampleRate() {
+        return sampleRate;
+    }
+
+    /** Center frequency of the first capture segment. */
+    public long getCenterFrequency() {
+        return centerFrequency;
+    }
+
+    /** Center frequency of the capture segment holding the given frame, following every retune. */
+    public long getCenterFrequency(int frame) {
+        long sample = getOffset(frame) / (8L * channelCount);
+        int found = Arrays.binarySearch(segmentStarts, sample);
+        int segment = found >= 0 ? found : -found - 2;  // the last segment starting at or before the frame
+        return segment >= 0 ? segmentFrequencies[segment] : centerFrequency;
+    }
+
+    public int getCpiIndex(int frame) {
+        return index.getInt(frame * IqRecorder.INDEX_RECORD_SIZE);
+    }
+
+    public long getTimestamp(int frame) {
+        return index.getLong(frame * IqRecorder.INDEX_RECORD_SIZE + 4);
+    }
+
+    public long getOffset(int frame) {
+        return index.getLong(frame * IqRecorder.INDEX_RECORD_SIZE + 12);
+    }
+
+    /** Complex samples per channel in the given frame. */
+    public int getCpiLength(int frame) {
+        long end = frame + 1 < frameCount ? getOffset(frame + 1) : dataLength;
+        return (int) ((end - getOffset(frame)) / (8L * channelCount));
+    }
+
+    /**
+     * Reads a frame as a channel-major payload view, the same layout {@link ChannelFrameReader}
+     * produces.  The view is valid until the next call.
+     */
+    public FloatBuffer readFrame(int frame) throws IOException {
+        int size = getCpiLength(frame) * channelCount * 8;
+        if (frameBuffer.capacity() < size)
+            frameBuffer = ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+        frameBuffer.clear();
+        frameBuffer.limit(size);
+        long position = getOffset(frame);
+        while (frameBuffer.hasRemaining()) {
+            int read = data.read(frameBuffer, position);
+            if (read < 0)
+                throw new IOException("Recording truncated in frame " + frame);
+            position += read;
+        }
+        frameBuffer.flip();
+        return frameBuffer.asFloatBuffer();
+    }
+
+    /** Reads a frame into per-channel interleaved arrays, [channel][2 * sample + (0 = I, 1 = Q)]. */
+    public float[][] readFrameArrays(int frame) throws IOException {
+        FloatBuffer payload = readFrame(frame);
+        float[][] samples = new float[channelCount][getCpiLength(frame) * 2];
+        for (float[] channel : samples) {
+            payload.get(channel);
+        }
+        return samples;
+    }
+
+    @Override
+    public void close() throws IOException {
+        dataFile.close();
+    }
+}
@@ -0,0 +1,118 @@
+package com.huard.heimdallclientandroid;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fixed-bucket histogram of durations in nanoseconds.  Buckets are log-linear: values below 4 have
+ * a bucket each, and every power of two above that is split into 4 equal buckets, so any recorded
+ * value is reported within 25% of its true value from 1 ns up to the full long range.
+ * <p>
+ * Recording is lock-free and allocation-free and may happen from any number of threads; readers
+ * see a consistent-enough view for monitoring, not an atomic snapshot.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    static final int BUCKET_COUNT = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final String name;
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** Records one duration; negative values are counted as 0. */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        buckets.incrementAndGet(bucketOf(value));
+        count.increment();
+        sum.add(value);
+        long current;
+        while (value > (current = max.get())) {
+            if (max.compareAndSet(current, value))
+                break;
+        }
+    }
+
+    /** Records the time elapsed since {@code startNanos}, a {@link System#nanoTime()} reading. */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile, so the true value is at most this.
+     *
+     * @param percentile between 0 and 100
+     * @return 0 when nothing was recorded
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank)
+                return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (msb - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (msb - SUB_BUCKET_BITS) * SUB_BUCKETS + sub;
+    }
+
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int msb = (bucket - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + sub) << (msb - SUB_BUCKET_BITS);
+    }
+
+    static long upperBound(int bucket) {
+        return bucket == BUCKET_COUNT - 1 ? Long.MAX_VALUE : lowerBound(bucket + 1) - 1;
+    }
+}
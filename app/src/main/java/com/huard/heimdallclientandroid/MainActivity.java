@@ -6,6 +6,8 @@ import android.os.Bundle;
 import android.os.Environment;
 import android.provider.Settings;
 import android.util.Log;
+import android.view.MotionEvent;
+import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
 import android.widget.RadioButton;
@@ -28,44 +30,70 @@ import com.github.mikephil.charting.data.Entry;
 import com.github.mikephil.charting.data.LineData;
 import com.github.mikephil.charting.data.LineDataSet;
 import com.github.mikephil.charting.formatter.ValueFormatter;
+import com.github.mikephil.charting.listener.ChartTouchListener;
+import com.github.mikephil.charting.listener.OnChartGestureListener;
 
-import org.apache.commons.math3.transform.DftNormalization;
-import org.apache.commons.math3.transform.FastFourierTransformer;
-import org.apache.commons.math3.transform.TransformType;
-
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+import java.util.Date;
 import java.util.Locale;
 import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 
-public class MainActivity extends AppCompatActivity implements ControlClientListener, DataClientListener {
+public class MainActivity extends AppCompatActivity implements ControlClientListener, DataClientListener, SpectrumPipeline.RenderListener {
 
     private RadioGroup channelGroup;
     private boolean isInitialized = false;
     private LineChart chart;
     private TextView statusBar;
+    private TextView metricsOverlay;
+    private boolean metricsOverlayShown = false;
+    private TextView doaStatus;
     private EditText txtFreq;
+    private Button btnRecord;
+    private EditText txtSweepStop;
+    private Button btnSweep;
     private static int CHANNEL = 1;
     private static int SAMPLE_SIZE = 32768;
     private static float SAMPLE_BANDWIDTH_MHz = 2.4f; // MHz
     private static final float DEMO_SINUSOID_FREQUENCY_MHz = -0.3f; // MHz, for generating example FFT data on startup
-    private static double[][] iqSamples;
-
-    private static ArrayList<Double> MAX_POWER_dBm;
-
-    private static ArrayList<ArrayList<Double>> FREQUENCY_MHz;
-    private static ArrayList<ArrayList<Double>> POWER_dBm;
+    private static float[][] iqSamples;
 
     private static final ArrayList<Entry> entries = new ArrayList<>();
-
+    private static final ArrayList<Entry> entryPool = new ArrayList<>();  // Entry objects reused between frames
+    private LineDataSet dataSet;
+    private LineData lineData;
+    private SpectrumFrame displayedSpectrum;  // retained so zoom and pan can redraw without new data
+    private boolean displayingPanorama;  // displayedSpectrum belongs to the sweep, not the pipeline
+    private float[] columnMHz = new float[0];
+    private float[] columnMin = new float[0];
+    private float[] columnMax = new float[0];
+
+    private static final int FRAME_ACCOUNTING_INTERVAL = 100;  // rendered frames between loss summaries
+    private static final long METRICS_REFRESH_MS = 1000;
+    private static final IqFramePool framePool = new IqFramePool();
+    private static final ChannelCalibrator calibrator = new ChannelCalibrator();  // kept across reconnects
+    private SpectrumProcessor spectrumProcessor;
+    private SpectrumPipeline spectrumPipeline;
     private static DataClient dataClient;
     private static ControlClient controlClient;
+    private static final int[] INITIAL_GAINS = {496, 496, 496, 496, 496};
+    private volatile AgcController agc;  // created by Init, fed on the receive thread
+    private boolean agcEnabled = true;
+    private IqRecorder recorder;
+    private TriggeredCapture capture;
+    private static final int CAPTURE_BUFFER_BYTES = 128 << 20;  // both windows of decimated IQ, with headroom for the writer
+    private static final long CAPTURE_PRE_TRIGGER_MS = 5000;
+    private static final long CAPTURE_POST_TRIGGER_MS = 2000;
+    private volatile ReplaySource replaySource;
+    private volatile SweepEngine sweepEngine;
+    private static final int PANORAMA_BINS = 4096;
+    private static final int DOA_ELEMENTS = 5;
+    private static final double DOA_UCA_RADIUS_M = 0.035;  // set to the array in use
+    private static final float DOA_ANGLE_STEP_DEG = 1f;
+    private DoaEngine doaEngine;
 
     private final String TAG = "MainActivity";
 
@@ -98,27 +126,84 @@ public class MainActivity extends AppCompatActivity implements ControlClientList
         }
     }
 
+    /** Switches automatic gain control on or off; gains stay where the AGC last left them. */
+    private boolean onBtnLongClickInit() {
+        agcEnabled = !agcEnabled;
+        AgcController current = agc;
+        if (current != null)
+            current.setEnabled(agcEnabled);
+        statusBar.setText(agcEnabled ? "AGC on" : "AGC off");
+        return true;
+    }
+
     private void onBtnClickGo() {
         if (isInitialized) {
+            stopReplay();
             if (dataClient != null)
                 dataClient.disconnect();
-            dataClient = new DataClient(this, "192.168.1.10", 5000);
+            dataClient = new DataClient(this, "192.168.1.10", 5000, DataClient.ReaderMode.CHANNEL, framePool);
+            dataClient.setRecorder(recorder);
+            dataClient.setCalibrator(calibrator);
+            dataClient.setCapture(capture);
             dataClient.connect();
         }
     }
 
+    private boolean onBtnLongClickGo() {
+        if (!isInitialized)
+            return false;
+        String name = findLatestRecording();
+        if (name == null) {
+            statusBar.setText("No recording to replay");
+            return true;
+        }
+        stopReplay();
+        if (dataClient != null)
+            dataClient.disconnect();
+        replaySource = new ReplaySource(this, getExternalFilesDir(null), name, ReplaySource.Pacing.REAL_TIME, framePool);
+        replaySource.setLoop(true);
+        replaySource.start();
+        statusBar.setText("Replaying " + name);
+        return true;
+    }
+
+    private void stopReplay() {
+        if (replaySource != null) {
+            replaySource.stop();
+            replaySource = null;
+        }
+    }
+
+    private String findLatestRecording() {
+        String[] files = getExternalFilesDir(null).list((dir, file) -> file.endsWith(IqRecorder.META_EXTENSION));
+        if (files == null || files.length == 0)
+            return null;
+        Arrays.sort(files);  // names are timestamped, so the last sorts newest
+        String latest = files[files.length - 1];
+        return latest.substring(0, latest.length() - IqRecorder.META_EXTENSION.length());
+    }
+
+    private void onBtnClickRecord() {
+        if (isInitialized) {
+            if (recorder == null)
+                startRecording();
+            else
+                stopRecording();
+        }
+    }
+
     private void setOnCheckedChangeListener() {
         if (isInitialized) {
             int channelSel = getSelectedChannel();
-            if (channelSel >= 0 && channelSel < 5)
+            if (channelSel >= 0 && channelSel < 5) {
                 CHANNEL = channelSel;
+                spectrumProcessor.setSelectedChannel(CHANNEL);
+                redrawDisplayedSpectrum();
+            }
         }
     }
 
     private void sendControlCommands() {
-        controlClient = new ControlClient(this, "192.168.1.10", 5001);
-        controlClient.connect();
-
         float freq_MHz;
         try {
             freq_MHz = Float.parseFloat(txtFreq.getText().toString().trim());
@@ -126,36 +211,56 @@ public class MainActivity extends AppCompatActivity implements ControlClientList
             Log.e("MainActivity", "Invalid frequency input: " + txtFreq.getText().toString());
             return;
         }
-        controlClient.sendGain(new int[]{496, 496, 496, 496, 496});
-        controlClient.sendFrequency(freq_MHz);
-        controlClient.sendSquelchThreshold(0.5f);
-        controlClient.sendInit();
-        controlClient.sendExit();
-        controlClient.disconnect();
+
+        // One session for the app's lifetime; settings already applied are skipped
+        if (controlClient == null)
+            controlClient = new ControlClient(this, "192.168.1.10", 5001);
+        ControlClient.Batch batch = controlClient.batch();
+        CompletableFuture<?>[] replies = {
+                batch.gain(INITIAL_GAINS),
+                batch.frequency(freq_MHz),
+                batch.squelchThreshold(0.5f),
+                batch.init()
+        };
+        batch.send();
+        AgcController newAgc = new AgcController(controlClient, INITIAL_GAINS);  // restarts from the gains just sent
+        newAgc.setEnabled(agcEnabled);
+        agc = newAgc;
+        CompletableFuture.allOf(replies).whenComplete((done, error) -> {
+            if (error != null) {
+                Log.e(TAG, "Control commands failed", error);
+                return;
+            }
+            StringBuilder summary = new StringBuilder("Control commands:");
+            for (CompletableFuture<?> reply : replies) {
+                summary.append(' ').append(reply.join()).append(';');
+            }
+            Log.i(TAG, summary.toString());
+        });
     }
 
     private void initialize() {
         chart = findViewById(R.id.chart);
         statusBar = findViewById(R.id.statusBar);
+        statusBar.setOnClickListener(v -> toggleMetricsOverlay());
+        statusBar.setOnLongClickListener(v -> onStatusBarLongClick());
+        metricsOverlay = findViewById(R.id.metricsOverlay);
+        doaStatus = findViewById(R.id.doaStatus);
         txtFreq = findViewById(R.id.txtFreq);
 
-        // Initialize the data structures for 5 channels
-        FREQUENCY_MHz = new ArrayList<>();
-        POWER_dBm = new ArrayList<>();
-        for (int i = 0; i < 5; i++) {
-            FREQUENCY_MHz.add(new ArrayList<>());
-            POWER_dBm.add(new ArrayList<>());
-        }
-
-        MAX_POWER_dBm = new ArrayList<>(5);
-        for (int i = 0; i < 5; i++) {
-            MAX_POWER_dBm.add(0.0);
-        }
-
         Button btnGo = findViewById(R.id.btnGo);
         btnGo.setOnClickListener(v -> onBtnClickGo());
+        btnGo.setOnLongClickListener(v -> onBtnLongClickGo());
         Button btnInit = findViewById(R.id.btnInit);
         btnInit.setOnClickListener(v -> onBtnClickInit());
+        btnInit.setOnLongClickListener(v -> onBtnLongClickInit());
+        btnRecord = findViewById(R.id.btnRecord);
+        btnRecord.setOnClickListener(v -> onBtnClickRecord());
+        Button btnTrigger = findViewById(R.id.btnTrigger);
+        btnTrigger.setOnClickListener(v -> capture.trigger("manual"));
+        txtSweepStop = findViewById(R.id.txtSweepStop);
+        btnSweep = findViewById(R.id.btnSweep);
+        btnSweep.setOnClickListener(v -> onBtnClickSweep());
 
         channelGroup = findViewById(R.id.channelGroup);
         channelGroup.setOnCheckedChangeListener((group, checkedId) -> setOnCheckedChangeListener());
@@ -167,11 +272,29 @@ public class MainActivity extends AppCompatActivity implements ControlClientList
         });
 
         initializeChart();
+        spectrumProcessor = new SpectrumProcessor();  // one worker per core, channels computed in parallel
+        spectrumProcessor.setSelectedChannel(CHANNEL);
         iqSamples = generateIQSamples();  // generate random IQ Samples for initial FFT Plot
-        //iqSamples = loadIqDataFromFile();
+        //iqSamples = loadIqDataFromRecording("iq_20240101_000000", 0);
+
+        SpectrumFrame demoSpectrum = new SpectrumFrame();
+        spectrumProcessor.computeSpectra(iqSamples, SAMPLE_BANDWIDTH_MHz, demoSpectrum);
+        displayedSpectrum = demoSpectrum;
+        plotFFT(demoSpectrum);
+
+        // Received frames are processed off the UI thread; only rendering is posted back to it
+        spectrumPipeline = new SpectrumPipeline(spectrumProcessor, this::runOnUiThread, this);
+        spectrumPipeline.start();
+
+        // The last seconds of IQ, saved with what follows when the trigger button is pressed
+        capture = new TriggeredCapture(getExternalFilesDir(null), CAPTURE_BUFFER_BYTES, TriggeredCapture.DEFAULT_MAX_FRAMES,
+                CAPTURE_PRE_TRIGGER_MS, CAPTURE_POST_TRIGGER_MS);
+        capture.setListener((dataFile, frames, reason) -> runOnUiThread(
+                () -> statusBar.setText(String.format(Locale.US, "Captured %d frames (%s)", frames, reason))));
 
-        computeFFT();
-        plotFFT();
+        // Bearings from the coherent channels, updated as fast as the worker keeps up with frames
+        doaEngine = new DoaEngine(ArrayGeometry.uniformCircular(DOA_ELEMENTS, DOA_UCA_RADIUS_M),
+                DOA_ANGLE_STEP_DEG, this::showDoa);
 
         isInitialized = true;
     }
@@ -192,35 +315,28 @@ public class MainActivity extends AppCompatActivity implements ControlClientList
         }
     }
 
-    private void computeMaxPower() {
-        for (int j = 0; j < 5; j++) {
-            List<Double> powerList = POWER_dBm.get(j); // Get the list of power values for the j-th channel
-            Double maxPower = Double.NEGATIVE_INFINITY; // Start with the lowest possible value
-
-            // Iterate through the power list to find the maximum value
-            for (Double power : powerList) {
-                if (power > maxPower) {
-                    maxPower = power;
-                }
-            }
-
-            // Store the maximum power value in MAX_POWER_dBm
-            MAX_POWER_dBm.set(j, maxPower);
-        }
+    // DOA worker thread
+    private void showDoa(@NonNull DoaEngine.Result result) {
+        String text = String.format(Locale.US, "DOA %.0f\u00B0 (Bartlett %.0f\u00B0) @ %.3f MHz",
+                result.getMusicBearingDeg(), result.getBartlettBearingDeg(), result.getFrequencyHz() / 1E6);
+        runOnUiThread(() -> doaStatus.setText(text));
     }
 
-    private void updateMaxPowerStatus() {
+    private void updateMaxPowerStatus(@NonNull SpectrumFrame spectrum) {
         StringBuilder maxPowerString = new StringBuilder();
 
-        // Iterate through the MAX_POWER_dBm list
-        for (int i = 0; i < MAX_POWER_dBm.size(); i++) {
-            double maxPower = MAX_POWER_dBm.get(i);
+        // Iterate through the per-channel max power values
+        for (int i = 0; i < spectrum.getChannelCount(); i++) {
+            double maxPower = spectrum.getMaxPowerDBm(i);
 
-            // Append the max power value
-            maxPowerString.append(String.format(Locale.US, "%.1f", maxPower));
+            // Append the max power value, or a placeholder for channels skipped in SELECTED mode
+            if (spectrum.isChannelComputed(i))
+                maxPowerString.append(String.format(Locale.US, "%.1f", maxPower));
+            else
+                maxPowerString.append("--");
 
             // Add a comma separator if it's not the last element
-            if (i < MAX_POWER_dBm.size() - 1) {
+            if (i < spectrum.getChannelCount() - 1) {
                 maxPowerString.append(", ");
             }
         }
@@ -231,30 +347,77 @@ public class MainActivity extends AppCompatActivity implements ControlClientList
         statusBar.setText(maxPowerString.toString());
     }
 
-    private void plotFFT() {
-        if (FREQUENCY_MHz.size() != POWER_dBm.size()) {
-            Log.e(TAG, "IllegalArgumentException: The sizes of FREQUENCY_MHz and POWER_dBm must be equal.");
-            throw new IllegalArgumentException("The sizes of FREQUENCY_MHz and POWER_dBm must be equal.");
+    private void plotFFT(@NonNull SpectrumFrame spectrum) {
+        plotFFT(spectrum, displayingPanorama ? 0 : CHANNEL);
+    }
+
+    private void plotFFT(@NonNull SpectrumFrame spectrum, int channel) {
+        if (channel >= spectrum.getChannelCount() || !spectrum.isChannelComputed(channel)) {
+            Log.e(TAG, "Selected channel " + channel + " not present in spectrum");
+            return;
         }
 
-        entries.clear();
-        for (int i = 0; i < FREQUENCY_MHz.get(CHANNEL).size(); i++) {
-            double fs_MHz = FREQUENCY_MHz.get(CHANNEL).get(i);
-            double P_dBm = POWER_dBm.get(CHANNEL).get(i);
-            entries.add(new Entry((float)fs_MHz, (float)P_dBm));
+        // Reduce the visible part of the spectrum to one min/max span per pixel column
+        SpectrumPyramid pyramid = spectrum.getPyramid(channel);
+        int columns = Math.round(chart.getContentRectWidth());
+        if (columns < 1)  // chart not laid out yet
+            columns = getResources().getDisplayMetrics().widthPixels;
+        if (columnMHz.length < columns) {
+            columnMHz = new float[columns];
+            columnMin = new float[columns];
+            columnMax = new float[columns];
+        }
+        float startMHz = chart.getLowestVisibleX();
+        float endMHz = chart.getHighestVisibleX();
+        if (endMHz <= startMHz) {  // chart not laid out yet, show the whole band
+            float[] frequencyMHz = spectrum.getFrequencyMHz();
+            startMHz = frequencyMHz[0];
+            endMHz = frequencyMHz[spectrum.getBinCount() - 1];
         }
+        long decimateStart = System.nanoTime();
+        int spans = pyramid.decimate(startMHz, endMHz, columns, columnMHz, columnMin, columnMax);
+        Metrics.DECIMATE.recordSince(decimateStart);
 
-        LineDataSet dataSet = new LineDataSet(entries, "FFT");
-        dataSet.setColor(android.graphics.Color.WHITE); // Set line color to white
-        dataSet.setValueTextColor(android.graphics.Color.WHITE); // Set value text color to white
+        // Draw each span as a vertical min -> max stroke so peaks survive decimation
+        entries.clear();
+        for (int i = 0; i < spans; i++) {
+            entries.add(nextEntry(columnMHz[i], columnMin[i]));
+            if (columnMax[i] != columnMin[i])
+                entries.add(nextEntry(columnMHz[i], columnMax[i]));
+        }
 
-        LineData lineData = new LineData(dataSet);
-        chart.setData(lineData);
+        if (dataSet == null) {
+            dataSet = new LineDataSet(entries, "FFT");
+            dataSet.setColor(android.graphics.Color.WHITE); // Set line color to white
+            dataSet.setValueTextColor(android.graphics.Color.WHITE); // Set value text color to white
+            dataSet.setDrawCircles(false);
+            dataSet.setDrawValues(false);
+            lineData = new LineData(dataSet);
+            chart.setData(lineData);
+        } else {
+            dataSet.setValues(entries);
+            lineData.notifyDataChanged();
+        }
 
         chart.notifyDataSetChanged(); // Notify the chart that the data has changed
         chart.invalidate(); // Refresh the chart
     }
 
+    private Entry nextEntry(float x, float y) {
+        int index = entries.size();
+        if (index == entryPool.size())
+            entryPool.add(new Entry());
+        Entry entry = entryPool.get(index);
+        entry.setX(x);
+        entry.setY(y);
+        return entry;
+    }
+
+    private void redrawDisplayedSpectrum() {
+        if (displayedSpectrum != null)
+            plotFFT(displayedSpectrum);
+    }
+
     private void initializeChart() {
         chart.clear();
 
@@ -296,13 +459,46 @@ public class MainActivity extends AppCompatActivity implements ControlClientList
         y.setGranularityEnabled(true);
         y.setAxisMaximum(0f);
         y.setAxisMinimum(-60f);
+
+        // Zoom and pan redraw from the retained spectrum's pyramid at the new resolution
+        chart.setOnChartGestureListener(new OnChartGestureListener() {
+            @Override
+            public void onChartGestureStart(MotionEvent me, ChartTouchListener.ChartGesture lastPerformedGesture) {}
+
+            @Override
+            public void onChartGestureEnd(MotionEvent me, ChartTouchListener.ChartGesture lastPerformedGesture) {
+                redrawDisplayedSpectrum();
+            }
+
+            @Override
+            public void onChartLongPressed(MotionEvent me) {}
+
+            @Override
+            public void onChartDoubleTapped(MotionEvent me) {}
+
+            @Override
+            public void onChartSingleTapped(MotionEvent me) {}
+
+            @Override
+            public void onChartFling(MotionEvent me1, MotionEvent me2, float velocityX, float velocityY) {}
+
+            @Override
+            public void onChartScale(MotionEvent me, float scaleX, float scaleY) {
+                redrawDisplayedSpectrum();
+            }
+
+            @Override
+            public void onChartTranslate(MotionEvent me, float dX, float dY) {
+                redrawDisplayedSpectrum();
+            }
+        });
     }
 
     @SuppressWarnings("unused")
     @NonNull
-    private double[][] generateIQSamples() {
+    private float[][] generateIQSamples() {
         Random random = new Random();
-        double[][] iqSamples = new double[5][SAMPLE_SIZE * 2]; // Interleaved IQ samples
+        float[][] iqSamples = new float[5][SAMPLE_SIZE * 2]; // Interleaved IQ samples
 
         for (int j = 0; j < 5; j++) {
             for (int i = 0; i < SAMPLE_SIZE; i++) {
@@ -314,173 +510,214 @@ public class MainActivity extends AppCompatActivity implements ControlClientList
                 double sinusoidI = Math.cos(2 * Math.PI * DEMO_SINUSOID_FREQUENCY_MHz * t);
                 double sinusoidQ = Math.sin(2 * Math.PI * DEMO_SINUSOID_FREQUENCY_MHz * t);
 
-                iqSamples[j][2 * i] = randomI + sinusoidI;
-                iqSamples[j][2 * i + 1] = randomQ + sinusoidQ;
+                iqSamples[j][2 * i] = (float) (randomI + sinusoidI);
+                iqSamples[j][2 * i + 1] = (float) (randomQ + sinusoidQ);
             }
         }
 
         return iqSamples;
     }
 
-    public static double[][] convertInterleavedToSeparate(double[] iqSamples) {
-        int sampleSize = iqSamples.length / 2;
-        double[][] dataRI = new double[2][sampleSize];
-
-        for (int i = 0; i < sampleSize; i++) {
-            dataRI[0][i] = iqSamples[2 * i];       // Real part
-            dataRI[1][i] = iqSamples[2 * i + 1];   // Imaginary part
-        }
-
-        return dataRI;
+    public void notifyControlClient(String message) {
+        runOnUiThread(() -> {
+            Log.i(TAG, "Control message received: " + message);
+            statusBar.setText(message);
+        });
     }
 
-    @NonNull
-    private double[][] computeFFT(@NonNull double[] iq_samples) {  // Verified Good
-        double[][] dataRI = convertInterleavedToSeparate(iq_samples);
-
-        FastFourierTransformer.transformInPlace(dataRI, DftNormalization.STANDARD, TransformType.FORWARD);
-        return dataRI;
+    public void notifyDataClient(float[][] data, HeaderIQ header) {
+        IqFrame frame = framePool.acquire(data.length, (int) header.getCpiLength());
+        if (frame == null)
+            return;  // DSP is behind, drop this frame
+        frame.fill(data, header);
+        notifyDataClient(frame);
     }
 
-    private void computeFFT() {
-
-        for (int j=0; j<5; j++) {
-            double[][] fftResult = computeFFT(iqSamples[j]);
-            double[][] shiftedFftResult = fftShift(fftResult); // [real,imag][n_samples]
-
-            FREQUENCY_MHz.get(j).clear();  // clear containers used for calculating max power in a later step
-            POWER_dBm.get(j).clear();
-
-            int num_samples = shiftedFftResult[0].length;
-            double frequencyStep = SAMPLE_BANDWIDTH_MHz / num_samples;
-            for (int i = 0; i < num_samples; i++) {
-                double fs_MHz = i * frequencyStep - SAMPLE_BANDWIDTH_MHz / 2;
-                double V_mV_real = shiftedFftResult[0][i];
-                double V_mV_imag = shiftedFftResult[1][i];
-                double V_mV = (V_mV_real * V_mV_real + V_mV_imag * V_mV_imag)/num_samples; // magnitude
-                double psd_uW = V_mV / 50;
-                double P_dBm = (10*Math.log10(psd_uW)) - 30;
-                FREQUENCY_MHz.get(j).add(fs_MHz);
-                POWER_dBm.get(j).add(P_dBm);
-            }
+    @Override
+    public void notifyDataClient(IqFrame frame) {
+        SweepEngine sweep = sweepEngine;
+        if (sweep != null) {
+            sweep.submit(frame);  // gains are held while sweeping so slices stitch evenly
+            return;
         }
+        AgcController gainControl = agc;
+        if (gainControl != null && replaySource == null)  // recorded levels say nothing about the live gains
+            gainControl.observe(frame);
+        if (doaEngine != null)
+            doaEngine.observe(frame);
+        if (spectrumPipeline != null)
+            spectrumPipeline.submit(frame);
+        else
+            frame.release();
     }
 
-    public static double[][] fftShift(double[][] data) {
-        int n = data.length;  // Number of rows (real/imag)
-        int m = data[0].length;  // Number of columns (length of FFT)
-        int halfSize = m / 2;  // Midpoint of the FFT data
-        double[][] shiftedData = new double[n][m];  // Array to hold shifted data
-
-        for (int i = 0; i < n; i++) {
-            // Shift the second half to the first half
-            System.arraycopy(data[i], halfSize, shiftedData[i], 0, m - halfSize);
-            // Shift the first half to the second half
-            System.arraycopy(data[i], 0, shiftedData[i], m - halfSize, halfSize);
+    @Override
+    public void onSpectrum(@NonNull SpectrumFrame spectrum) {
+        if (sweepEngine != null) {  // frames in flight when the sweep started
+            spectrumPipeline.recycle(spectrum);
+            return;
         }
-        return shiftedData;
+        long start = System.nanoTime();
+        SAMPLE_SIZE = (int) spectrum.getHeader().getCpiLength();
+        SAMPLE_BANDWIDTH_MHz = (float)spectrum.getHeader().getSamplingFreq()/1E6f;
+
+        updateMaxPowerStatus(spectrum);
+        plotFFT(spectrum);
+        Metrics.RENDER.recordSince(start);
+        Metrics.FRAMES_RENDERED.mark(1);
+        if (spectrumPipeline.getRenderedFrameCount() % FRAME_ACCOUNTING_INTERVAL == 0)
+            logFrameAccounting();
+
+        if (displayedSpectrum != null && !displayingPanorama)
+            spectrumPipeline.recycle(displayedSpectrum);
+        displayedSpectrum = spectrum;
+        displayingPanorama = false;
     }
 
-
-    public void notifyControlClient(String message) {
-        runOnUiThread(() -> {
-            Log.i(TAG, "Control message received: " + message);
-            statusBar.setText(message);
-        });
+    /**
+     * Summarizes where frames were lost, stage by stage: missing CPIs were never received (link or
+     * server), then frames dropped by the client, the DSP stage and the UI.
+     */
+    private void logFrameAccounting() {
+        if (dataClient == null)
+            return;
+        FrameSequencer sequencer = dataClient.getSequencer();
+        Log.i(TAG, String.format(Locale.US,
+                "Frames received %d, missing %d in %d gaps, duplicate %d, reordered %d, resync %d, lost requests %d | "
+                        + "client drops: integrity %d, pool %d | DSP drops %d, failures %d | UI drops %d, rendered %d",
+                sequencer.getFrameCount(), sequencer.getMissingCount(), sequencer.getGapCount(),
+                sequencer.getDuplicateCount(), sequencer.getReorderedCount(), sequencer.getResyncCount(),
+                dataClient.getLostRequestCount(), dataClient.getIntegrityDropCount(), dataClient.getPoolDropCount(),
+                spectrumPipeline.getIngestDropCount(), spectrumPipeline.getDspFailureCount(),
+                spectrumPipeline.getRenderDropCount(), spectrumPipeline.getRenderedFrameCount()));
     }
 
-    public void notifyDataClient(float[][] data, HeaderIQ header) {
-        runOnUiThread(() -> processData(data, header));
+    private void onBtnClickSweep() {
+        if (!isInitialized)
+            return;
+        if (sweepEngine != null) {
+            stopSweep();
+            return;
+        }
+        float startMHz;
+        float stopMHz;
+        try {
+            startMHz = Float.parseFloat(txtFreq.getText().toString().trim());
+            stopMHz = Float.parseFloat(txtSweepStop.getText().toString().trim());
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "Invalid sweep range: " + txtFreq.getText() + " to " + txtSweepStop.getText());
+            return;
+        }
+        if (stopMHz <= startMHz) {
+            statusBar.setText("Sweep stop must be above the start frequency");
+            return;
+        }
+        if (controlClient == null)
+            controlClient = new ControlClient(this, "192.168.1.10", 5001);
+
+        SweepEngine sweep = new SweepEngine(controlClient, panorama -> runOnUiThread(() -> showPanorama(panorama)),
+                CHANNEL, startMHz, stopMHz, SAMPLE_BANDWIDTH_MHz, SweepEngine.DEFAULT_USABLE_FRACTION, PANORAMA_BINS);
+        XAxis x = chart.getXAxis();
+        x.setAxisMinimum(startMHz);
+        x.setAxisMaximum(stopMHz);
+        x.setGranularity((stopMHz - startMHz) / 6);
+        chart.fitScreen();
+        sweepEngine = sweep;
+        sweep.start();
+        btnSweep.setText(R.string.stop);
+        statusBar.setText(String.format(Locale.US, "Sweeping %.1f to %.1f MHz in %d steps", startMHz, stopMHz, sweep.getStepCount()));
     }
 
-    private void processData(float[][] data, @NonNull HeaderIQ header) {
-        iqSamples = convertFloatArrayToDouble(data);
-        SAMPLE_SIZE = (int) header.getCpiLength();
-        SAMPLE_BANDWIDTH_MHz = (float)header.getSamplingFreq()/1E6f;
-        Log.i(TAG, "I/Q Data received: Size " + SAMPLE_SIZE);
+    private void showPanorama(@NonNull SpectrumFrame panorama) {
+        if (sweepEngine == null)
+            return;  // pass finished after the sweep was stopped
+        if (displayedSpectrum != null && !displayingPanorama)
+            spectrumPipeline.recycle(displayedSpectrum);
+        displayedSpectrum = panorama;
+        displayingPanorama = true;
+        plotFFT(panorama, 0);
+        statusBar.setText(String.format(Locale.US, "Sweep peak %.1f dBm", panorama.getMaxPowerDBm(0)));
+    }
 
+    private void stopSweep() {
+        SweepEngine sweep = sweepEngine;
+        if (sweep == null)
+            return;
+        sweepEngine = null;
+        sweep.stop();
+        XAxis x = chart.getXAxis();
+        x.setAxisMinimum(-1.3f);
+        x.setAxisMaximum(1.3f);
+        x.setGranularity(0.4f);
+        chart.fitScreen();
+        btnSweep.setText(R.string.sweep);
+    }
 
-        computeFFT();
+    private void toggleMetricsOverlay() {
+        metricsOverlayShown = !metricsOverlayShown;
+        metricsOverlay.setVisibility(metricsOverlayShown ? View.VISIBLE : View.GONE);
+        metricsOverlay.removeCallbacks(metricsRefresher);
+        if (metricsOverlayShown)
+            metricsRefresher.run();
+    }
 
-        computeMaxPower();
-        updateMaxPowerStatus();
+    // Redraws the overlay once a second while it is shown
+    private final Runnable metricsRefresher = new Runnable() {
+        @Override
+        public void run() {
+            if (!metricsOverlayShown)
+                return;
+            metricsOverlay.setText(MetricsRegistry.getDefault().dump());
+            metricsOverlay.postDelayed(this, METRICS_REFRESH_MS);
+        }
+    };
 
-        plotFFT();
-        //saveIqDataToFile(iqSamples);
+    /** Writes the full metrics table and the frame accounting to the log. */
+    private boolean onStatusBarLongClick() {
+        Log.i(TAG, "Pipeline metrics:\n" + MetricsRegistry.getDefault().dump());
+        logFrameAccounting();
+        return true;
     }
 
-    @SuppressWarnings("unused")
-    private void saveIqDataToFile(double[][] iqData) {
-        File file = new File(getExternalFilesDir(null), "iq_data.bin");
-        try (FileOutputStream fos = new FileOutputStream(file, false)) { // false for overwrite mode
-            // Assuming each float corresponds to a real or imaginary part
-            ByteBuffer byteBuffer = ByteBuffer.allocate(4 * iqData.length * iqData[0].length); // 4 bytes for a float
-            byteBuffer.order(ByteOrder.LITTLE_ENDIAN); // Make sure the order is the same as in Python
-            for (double[] iqDatum : iqData) {
-                for (double v : iqDatum) {
-                    byteBuffer.putFloat((float) v);
-                }
-            }
-            fos.write(byteBuffer.array());
-            fos.close();  // Close the file stream
-            Log.i(TAG, "I/Q data saved to file: " + file.getAbsolutePath());
+    private void startRecording() {
+        String name = "iq_" + new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.US).format(new Date());
+        try {
+            recorder = new IqRecorder(getExternalFilesDir(null), name);
         } catch (IOException e) {
-            Log.e(TAG, "Error writing I/Q data to file", e);
+            Log.e(TAG, "Error starting I/Q recording", e);
+            return;
         }
+        if (dataClient != null)
+            dataClient.setRecorder(recorder);
+        btnRecord.setText(R.string.stop);
     }
 
-    private double[][] loadIqDataFromFile() {
-        File file = new File(getExternalFilesDir(null), "iq_data.bin");
-        double[][] iqData = null;
-
-        try (FileInputStream fis = new FileInputStream(file)) {
-            long fileSize = file.length();
-            int numChannels = 5; // Assuming 5 channels, adjust this if necessary
-            int numSamples = (int)(fileSize / (4 * numChannels)); // Each sample is a float (4 bytes)
-
-            iqData = new double[numChannels][numSamples];
-
-            ByteBuffer byteBuffer = ByteBuffer.allocate((int)fileSize);
-            byteBuffer.order(ByteOrder.LITTLE_ENDIAN);
-
-            int totalBytesRead = 0;
-            int bytesRead;
-            while (totalBytesRead < fileSize && (bytesRead = fis.read(byteBuffer.array(), totalBytesRead, (int)fileSize - totalBytesRead)) != -1) {
-                totalBytesRead += bytesRead;
-            }
-
-            byteBuffer.rewind(); // Rewind the buffer to start reading from the beginning
-
-            for (int j = 0; j < numChannels; j++) {
-                for (int i = 0; i < numSamples; i++) {
-                    iqData[j][i] = byteBuffer.getFloat();
-                }
-            }
-
-            Log.i(TAG, "I/Q data loaded from file: " + file.getAbsolutePath());
+    private void stopRecording() {
+        if (dataClient != null)
+            dataClient.setRecorder(null);
+        try {
+            recorder.close();
+            Log.i(TAG, "I/Q recording saved: " + recorder.getDataFile().getAbsolutePath());
         } catch (IOException e) {
-            Log.e(TAG, "Error reading I/Q data from file", e);
+            Log.e(TAG, "Error closing I/Q recording", e);
         }
-
-
-        return iqData;
+        recorder = null;
+        btnRecord.setText(R.string.record);
     }
 
-
-    public double[][] convertFloatArrayToDouble(@NonNull float[][] floatArray) {
-        int rows = floatArray.length;
-        int cols = floatArray[0].length;
-        double[][] doubleArray = new double[rows][cols];
-
-        for (int i = 0; i < rows; i++) {
-            for (int j = 0; j < cols; j++) {
-                doubleArray[i][j] = floatArray[i][j];
-            }
+    @SuppressWarnings("unused")
+    private float[][] loadIqDataFromRecording(String name, int frame) {
+        try (IqRecording recording = new IqRecording(getExternalFilesDir(null), name)) {
+            SAMPLE_BANDWIDTH_MHz = recording.getSampleRate() / 1E6f;
+            Log.i(TAG, "I/Q frame " + frame + " of " + recording.getFrameCount() + " loaded from " + name);
+            return recording.readFrameArrays(frame);
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading I/Q recording " + name, e);
+            return null;
         }
-
-        return doubleArray;
     }
 
+
     @Override
     protected void onResume() {
         super.onResume();
@@ -493,9 +730,12 @@ public class MainActivity extends AppCompatActivity implements ControlClientList
     protected void onPause() {
         super.onPause();
         if (isInitialized) {
+            stopSweep();
             if (dataClient != null) {
                 dataClient.disconnect();
             }
+            if (recorder != null)
+                stopRecording();
             if (controlClient != null) {
                 controlClient.disconnect();
             }
@@ -506,9 +746,12 @@ public class MainActivity extends AppCompatActivity implements ControlClientList
     protected void onStop() {
         super.onStop();
         if (isInitialized) {
+            stopSweep();
             if (dataClient != null) {
                 dataClient.disconnect();
             }
+            if (recorder != null)
+                stopRecording();
             if (controlClient != null) {
                 controlClient.disconnect();
             }
@@ -519,10 +762,20 @@ public class MainActivity extends AppCompatActivity implements ControlClientList
     protected void onDestroy() {
         super.onDestroy();
         if (isInitialized) {
+            metricsOverlay.removeCallbacks(metricsRefresher);
+            stopReplay();
+            stopSweep();
+            spectrumPipeline.stop();
+            spectrumProcessor.shutdown();
+            doaEngine.shutdown();
+            capture.shutdown();
             if (dataClient != null) {
                 dataClient.disconnect();
             }
+            if (recorder != null)
+                stopRecording();
             if (controlClient != null) {
+                controlClient.sendExit();
                 controlClient.disconnect();
             }
         }
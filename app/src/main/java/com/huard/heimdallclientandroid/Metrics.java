@@ -0,0 +1,42 @@
+package com.huard.heimdallclientandroid;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-stage metrics of the receive, DSP and render pipeline, registered in
+ * {@link MetricsRegistry#getDefault()}.  Stages record their own durations in nanoseconds:
+ * <ul>
+ *     <li>header.read / payload.read: blocking socket reads of one frame's header and payload</li>
+ *     <li>decode: header decode and sample conversion into the delivered frame</li>
+ *     <li>fft: one forward transform (several per channel with Welch averaging)</li>
+ *     <li>psd: one channel's complete spectrum estimate, FFTs included</li>
+ *     <li>pyramid / decimate: display pyramid build and per-pixel reduction</li>
+ *     <li>render: one spectrum drawn on the UI thread, decimation included</li>
+ * </ul>
+ */
+public final class Metrics {
+    private static final MetricsRegistry REGISTRY = MetricsRegistry.getDefault();
+
+    public static final LatencyHistogram HEADER_READ = REGISTRY.histogram("header.read");
+    public static final LatencyHistogram PAYLOAD_READ = REGISTRY.histogram("payload.read");
+    public static final LatencyHistogram DECODE = REGISTRY.histogram("decode");
+    public static final LatencyHistogram FFT = REGISTRY.histogram("fft");
+    public static final LatencyHistogram PSD = REGISTRY.histogram("psd");
+    public static final LatencyHistogram PYRAMID = REGISTRY.histogram("pyramid");
+    public static final LatencyHistogram DECIMATE = REGISTRY.histogram("decimate");
+    public static final LatencyHistogram RENDER = REGISTRY.histogram("render");
+
+    public static final RateMeter FRAMES_RECEIVED = REGISTRY.meter("rx.frames", "frames", 1);
+    public static final RateMeter BYTES_RECEIVED = REGISTRY.meter("rx.bytes", "MB", 1e-6);
+    public static final RateMeter FRAMES_RENDERED = REGISTRY.meter("ui.frames", "frames", 1);
+
+    /** Non-data frames among {@link #FRAMES_RECEIVED}, by type. */
+    public static final LongAdder FRAMES_CAL = REGISTRY.counter("rx.cal");
+    public static final LongAdder FRAMES_DUMMY = REGISTRY.counter("rx.dummy");
+    public static final LongAdder FRAMES_OTHER = REGISTRY.counter("rx.other");
+    /** Data frames whose header reports the DAQ out of sync. */
+    public static final LongAdder FRAMES_UNSYNCED = REGISTRY.counter("rx.unsynced");
+    public static final LongAdder FRAMES_NOISE_SOURCE = REGISTRY.counter("rx.noise.on");
+
+    private Metrics() {}
+}
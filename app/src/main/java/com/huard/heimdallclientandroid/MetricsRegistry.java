@@ -0,0 +1,107 @@
+package com.huard.heimdallclientandroid;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Named latency histograms, rate meters and counters.  Metrics are created on first lookup and live
+ * as long as the registry; callers look them up once and keep the reference, so the per-frame cost
+ * is only the lock-free update itself.  {@link #dump()} renders everything as a text table, in
+ * registration order, for the log or the in-app overlay.
+ */
+public class MetricsRegistry {
+    private static final MetricsRegistry DEFAULT = new MetricsRegistry();
+
+    private final Map<String, LatencyHistogram> histograms = new LinkedHashMap<>();
+    private final Map<String, RateMeter> meters = new LinkedHashMap<>();
+    private final Map<String, LongAdder> counters = new LinkedHashMap<>();
+
+    /** Registry the app's pipeline stages report to; see {@link Metrics}. */
+    public static MetricsRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    public synchronized LatencyHistogram histogram(@NonNull String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = new LatencyHistogram(name);
+            histograms.put(name, histogram);
+        }
+        return histogram;
+    }
+
+    public synchronized RateMeter meter(@NonNull String name) {
+        return meter(name, "", 1);
+    }
+
+    /** The unit and scale only apply when the meter is first created. */
+    public synchronized RateMeter meter(@NonNull String name, @NonNull String unit, double scale) {
+        RateMeter meter = meters.get(name);
+        if (meter == null) {
+            meter = new RateMeter(name, unit, scale);
+            meters.put(name, meter);
+        }
+        return meter;
+    }
+
+    public synchronized LongAdder counter(@NonNull String name) {
+        LongAdder counter = counters.get(name);
+        if (counter == null) {
+            counter = new LongAdder();
+            counters.put(name, counter);
+        }
+        return counter;
+    }
+
+    /** Clears every metric's recorded values; references held by callers stay valid. */
+    public void reset() {
+        for (LatencyHistogram histogram : snapshot(histograms)) {
+            histogram.reset();
+        }
+        for (RateMeter meter : snapshot(meters)) {
+            meter.reset();
+        }
+        for (LongAdder counter : snapshot(counters)) {
+            counter.reset();
+        }
+    }
+
+    /**
+     * Latency percentiles in microseconds for every histogram that has samples, the rate of every
+     * meter since the previous dump, and every non-zero counter.
+     */
+    @NonNull
+    public String dump() {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format(Locale.US, "%-14s %8s %8s %8s %8s %8s%n", "stage us", "count", "mean", "p50", "p99", "max"));
+        for (LatencyHistogram histogram : snapshot(histograms)) {
+            long count = histogram.getCount();
+            if (count == 0)
+                continue;
+            out.append(String.format(Locale.US, "%-14s %8d %8.1f %8.1f %8.1f %8.1f%n", histogram.getName(), count,
+                    histogram.getMean() / 1e3, histogram.getPercentile(50) / 1e3,
+                    histogram.getPercentile(99) / 1e3, histogram.getMax() / 1e3));
+        }
+        for (RateMeter meter : snapshot(meters)) {
+            out.append(String.format(Locale.US, "%-14s %8.1f %s/s%n", meter.getName(), meter.sampleRate(), meter.getUnit()));
+        }
+        synchronized (this) {
+            for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+                long value = counter.getValue().sum();
+                if (value != 0)
+                    out.append(String.format(Locale.US, "%-14s %8d%n", counter.getKey(), value));
+            }
+        }
+        return out.toString();
+    }
+
+    private synchronized <T> List<T> snapshot(Map<String, T> metrics) {
+        return new ArrayList<>(metrics.values());
+    }
+}
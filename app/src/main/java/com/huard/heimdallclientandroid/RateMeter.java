@@ -0,0 +1,76 @@
+package com.huard.heimdallclientandroid;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free running total of events or bytes, read as a per-second rate over the interval since the
+ * previous {@link #sampleRate()} call.  Any thread may {@link #mark}; sampling is meant for a single
+ * periodic reader such as the metrics overlay.
+ */
+public class RateMeter {
+    private final String name;
+    private final String unit;
+    private final double scale;
+    private final LongAdder total = new LongAdder();
+    private long sampledTotal;
+    private long sampledAtNanos = System.nanoTime();
+    private double rate;
+
+    public RateMeter(String name) {
+        this(name, "", 1);
+    }
+
+    /**
+     * @param unit  label for the scaled rate, e.g. "MB"
+     * @param scale factor from marked amounts to the unit, e.g. 1e-6 for bytes to MB
+     */
+    public RateMeter(String name, String unit, double scale) {
+        this.name = name;
+        this.unit = unit;
+        this.scale = scale;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getUnit() {
+        return unit;
+    }
+
+    public void mark(long amount) {
+        total.add(amount);
+    }
+
+    public long getTotal() {
+        return total.sum();
+    }
+
+    /**
+     * Rate per second since the previous sample, in the meter's unit.  Calls less than a millisecond
+     * apart return the previous rate instead of a noisy one.
+     */
+    public synchronized double sampleRate() {
+        long now = System.nanoTime();
+        long elapsed = now - sampledAtNanos;
+        if (elapsed < 1_000_000)
+            return rate;
+        long current = total.sum();
+        rate = (current - sampledTotal) * scale * 1e9 / elapsed;
+        sampledTotal = current;
+        sampledAtNanos = now;
+        return rate;
+    }
+
+    /** Rate returned by the last {@link #sampleRate()}, without starting a new interval. */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    public synchronized void reset() {
+        total.reset();
+        sampledTotal = 0;
+        sampledAtNanos = System.nanoTime();
+        rate = 0;
+    }
+}
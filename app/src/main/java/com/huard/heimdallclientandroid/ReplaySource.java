@@ -0,0 +1,175 @@
+package com.huard.heimdallclientandroid;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays back a recording written by {@link IqRecorder} to a {@link DataClientListener}, exactly as
+ * {@link DataClient} delivers live frames.
+ * <p>
+ * {@link Pacing#REAL_TIME} spaces frames by the recorded timestamps (falling back to the CPI duration
+ * where timestamps are missing or out of order) and drops frames when the frame pool is exhausted,
+ * like the live client.  {@link Pacing#MAX_SPEED} emits frames back to back and waits for a free
+ * pooled frame instead of dropping, so every recorded frame reaches the listener; with a pool no larger
+ * than the {@link SpectrumPipeline} ingest capacity nothing is dropped downstream either, which makes
+ * a max-speed replay a deterministic benchmark of the DSP and render chain.
+ */
+public class ReplaySource implements FrameSource {
+    private static final String TAG = "ReplaySource";
+
+    public enum Pacing { REAL_TIME, MAX_SPEED }
+
+    private static final long MAX_TIMESTAMP_GAP_MS = 10_000;
+
+    private final DataClientListener listener;
+    private final File directory;
+    private final String name;
+    private final Pacing pacing;
+    private final IqFramePool framePool;
+    private final HeaderIQ header = new HeaderIQ();
+    private volatile boolean loop;
+    private volatile boolean running;
+    private Thread thread;
+    private final AtomicLong framesEmitted = new AtomicLong();
+    private final AtomicLong framesDropped = new AtomicLong();
+
+    /**
+     * @param framePool if non-null, frames are delivered as leased {@link IqFrame}s through
+     *                  {@link DataClientListener#notifyDataClient(IqFrame)}
+     */
+    public ReplaySource(@NonNull DataClientListener listener, @NonNull File directory, @NonNull String name,
+                        @NonNull Pacing pacing, IqFramePool framePool) {
+        this.listener = listener;
+        this.directory = directory;
+        this.name = name;
+        this.pacing = pacing;
+        this.framePool = framePool;
+    }
+
+    /** Restart from the first frame after the last one instead of stopping. */
+    public void setLoop(boolean loop) {
+        this.loop = loop;
+    }
+
+    /** Replays from the first frame, after the previous replay thread, if any, has finished. */
+    @Override
+    public synchronized void start() {
+        if (running)
+            return;
+        if (thread != null) {
+            try {
+                thread.join();  // stop() has woken it, or it reached the end
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        running = true;
+        thread = new Thread(this::replay, "ReplaySource");
+        thread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        running = false;
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /** Waits for the replay thread to finish, e.g. after a non-looping replay reaches the end. */
+    public void join() throws InterruptedException {
+        Thread replayThread;
+        synchronized (this) {
+            replayThread = thread;
+        }
+        if (replayThread != null)
+            replayThread.join();
+    }
+
+    public long getFramesEmitted() {
+        return framesEmitted.get();
+    }
+
+    public long getFramesDropped() {
+        return framesDropped.get();
+    }
+
+    private void replay() {
+        try (IqRecording recording = new IqRecording(directory, name)) {
+            Log.i(TAG, "Replaying " + recording.getFrameCount() + " frames from " + name + " (" + pacing + ")");
+            do {
+                long due = System.nanoTime();
+                for (int i = 0; i < recording.getFrameCount() && running; i++) {
+                    if (pacing == Pacing.REAL_TIME) {
+                        if (i > 0)
+                            due += frameInterval(recording, i);
+                        waitUntil(due);
+                    }
+                    emit(recording, i);
+                }
+            } while (loop && running);
+        } catch (IOException e) {
+            Log.e(TAG, "Error replaying " + name, e);
+        } finally {
+            running = false;
+        }
+    }
+
+    private long frameInterval(IqRecording recording, int frame) {
+        long deltaMs = recording.getTimestamp(frame) - recording.getTimestamp(frame - 1);
+        if (deltaMs > 0 && deltaMs <= MAX_TIMESTAMP_GAP_MS)
+            return TimeUnit.MILLISECONDS.toNanos(deltaMs);
+        return recording.getCpiLength(frame - 1) * 1_000_000_000L / Math.max(1, recording.getSampleRate());
+    }
+
+    private void waitUntil(long due) {
+        long remaining;
+        while (running && (remaining = due - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private void emit(IqRecording recording, int frame) throws IOException {
+        int cpiLength = recording.getCpiLength(frame);
+        header.setReplayFrame(recording.getChannelCount(), cpiLength, recording.getCpiIndex(frame),
+                recording.getTimestamp(frame), recording.getCenterFrequency(frame), recording.getSampleRate());
+        FloatBuffer payload = recording.readFrame(frame);
+
+        if (framePool == null) {
+            listener.notifyDataClient(payload, snapshotHeader());
+            framesEmitted.incrementAndGet();
+            return;
+        }
+        IqFrame iqFrame = framePool.acquire(recording.getChannelCount(), cpiLength);
+        while (iqFrame == null && pacing == Pacing.MAX_SPEED && running) {
+            LockSupport.parkNanos(100_000);
+            iqFrame = framePool.acquire(recording.getChannelCount(), cpiLength);
+        }
+        if (iqFrame == null) {
+            framesDropped.incrementAndGet();
+            return;
+        }
+        iqFrame.fill(payload, header);
+        listener.notifyDataClient(iqFrame);
+        framesEmitted.incrementAndGet();
+    }
+
+    private HeaderIQ snapshotHeader() {
+        HeaderIQ snapshot = new HeaderIQ();
+        snapshot.copyFrom(header);
+        return snapshot;
+    }
+}
@@ -0,0 +1,88 @@
+package com.huard.heimdallclientandroid;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Encodings of the interleaved I/Q values in a frame payload, selected by the header's sample bit
+ * depth.  Integer samples are signed little-endian and are scaled so full scale maps to +-1; a DAQ
+ * sending narrow samples needs a half or a quarter of the link bandwidth of cf32.
+ */
+public enum SampleFormat {
+    FLOAT32(4, 1f),
+    INT16(2, 1f / 32768),
+    INT8(1, 1f / 128);
+
+    /** Bytes converted per block, small enough to stay in L1 between the copy and the conversion. */
+    static final int BLOCK_BYTES = 4096;
+
+    private final int bytesPerValue;
+    private final float scale;
+
+    SampleFormat(int bytesPerValue, float scale) {
+        this.bytesPerValue = bytesPerValue;
+        this.scale = scale;
+    }
+
+    /** The format for a header's sampleBitDepth, or null if there is no decoder for it. */
+    @Nullable
+    public static SampleFormat forBitDepth(int sampleBitDepth) {
+        switch (sampleBitDepth) {
+            case 32:
+                return FLOAT32;
+            case 16:
+                return INT16;
+            case 8:
+                return INT8;
+            default:
+                return null;
+        }
+    }
+
+    public int getBytesPerValue() {
+        return bytesPerValue;
+    }
+
+    /** Decodes {@code count} values starting at {@code sourceOffset} bytes into the source array. */
+    public void decode(@NonNull byte[] source, int sourceOffset, @NonNull float[] destination, int destinationOffset, int count) {
+        switch (this) {
+            case FLOAT32:
+                ByteBuffer.wrap(source, sourceOffset, count * 4).order(ByteOrder.LITTLE_ENDIAN)
+                        .asFloatBuffer().get(destination, destinationOffset, count);
+                break;
+            case INT16:
+                for (int i = 0, b = sourceOffset; i < count; i++, b += 2) {
+                    destination[destinationOffset + i] = (short) ((source[b] & 0xFF) | (source[b + 1] << 8)) * scale;
+                }
+                break;
+            case INT8:
+                for (int i = 0; i < count; i++) {
+                    destination[destinationOffset + i] = source[sourceOffset + i] * scale;
+                }
+                break;
+        }
+    }
+
+    /**
+     * Decodes {@code count} values from the buffer's position, which is advanced past them.  Integer
+     * samples are copied out a block at a time through {@code scratch}, at least
+     * {@link #BLOCK_BYTES} long, and converted while the block is still in cache.
+     */
+    public void decode(@NonNull ByteBuffer source, @NonNull float[] destination, int destinationOffset, int count,
+                       @NonNull byte[] scratch) {
+        if (this == FLOAT32) {
+            source.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(destination, destinationOffset, count);
+            source.position(source.position() + count * 4);
+            return;
+        }
+        int valuesPerBlock = BLOCK_BYTES / bytesPerValue;
+        for (int done = 0; done < count; done += valuesPerBlock) {
+            int values = Math.min(valuesPerBlock, count - done);
+            source.get(scratch, 0, values * bytesPerValue);
+            decode(scratch, 0, destination, destinationOffset + done, values);
+        }
+    }
+}
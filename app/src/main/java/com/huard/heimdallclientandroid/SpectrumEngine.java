@@ -0,0 +1,133 @@
+package com.huard.heimdallclientandroid;
+
+import androidx.annotation.NonNull;
+
+import org.jtransforms.fft.FloatFFT_1D;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Single-precision complex FFT over interleaved I/Q samples with cached plans.
+ * <p>
+ * Building a JTransforms plan computes twiddle tables and is far more expensive than a transform,
+ * so plans are kept per FFT length (the CPI length in practice) and reused for every channel of
+ * every frame.  Transforms run in place on a scratch buffer owned by the engine, leaving the input
+ * untouched.  An engine is not thread-safe; give each worker thread its own.
+ */
+public class SpectrumEngine {
+    private static final int MAX_CACHED_PLANS = 4;
+
+    private final Map<Integer, FloatFFT_1D> plans = new HashMap<>();
+    private int lastLength = -1;
+    private FloatFFT_1D lastPlan;  // the map is only consulted, boxing n, when the length changes
+    private float[] scratch = new float[0];
+
+    @NonNull
+    public FloatFFT_1D getPlan(int n) {
+        if (n == lastLength)
+            return lastPlan;
+        FloatFFT_1D plan = plans.get(n);
+        if (plan == null) {
+            if (plans.size() >= MAX_CACHED_PLANS)
+                plans.clear();  // CPI length changed repeatedly, drop stale plans
+            plan = new FloatFFT_1D(n);
+            plans.put(n, plan);
+        }
+        lastLength = n;
+        lastPlan = plan;
+        return plan;
+    }
+
+    /**
+     * Forward FFT of the first n complex samples of {@code iq}, [I0, Q0, I1, Q1, ...].
+     *
+     * @return the interleaved transform, in a scratch buffer valid until the next call
+     */
+    @NonNull
+    public float[] forward(@NonNull float[] iq, int n) {
+        if (scratch.length < 2 * n)
+            scratch = new float[2 * n];
+        System.arraycopy(iq, 0, scratch, 0, 2 * n);
+        forwardInPlace(scratch, n);
+        return scratch;
+    }
+
+    /**
+     * Forward FFT of the first n complex samples of {@code buffer}, overwriting them.
+     */
+    public void forwardInPlace(@NonNull float[] buffer, int n) {
+        long start = System.nanoTime();
+        getPlan(n).complexForward(buffer);
+        Metrics.FFT.recordSince(start);
+    }
+
+    /**
+     * Fused FFT-shift, power and dBm conversion: transforms the first n complex samples of
+     * {@code iq} and writes the power of each bin in dBm into {@code powerDBm}, ordered from
+     * -fs/2 to +fs/2, without any intermediate shifted copy.
+     *
+     * @return the peak power in dBm across all bins
+     */
+    public float powerSpectrumDBm(@NonNull float[] iq, int n, @NonNull float[] powerDBm) {
+        float[] spectrum = forward(iq, n);
+        int halfSize = n / 2;
+        int upper = n - halfSize;
+        float maxMagnitude = 0f;
+
+        // Bins [halfSize, n) are the negative frequencies and come first after the shift
+        for (int i = 0; i < upper; i++) {
+            int k = 2 * (halfSize + i);
+            float re = spectrum[k];
+            float im = spectrum[k + 1];
+            float magnitude = re * re + im * im;
+            if (magnitude > maxMagnitude)
+                maxMagnitude = magnitude;
+            powerDBm[i] = toDBm(magnitude / n);
+        }
+        for (int i = 0; i < halfSize; i++) {
+            int k = 2 * i;
+            float re = spectrum[k];
+            float im = spectrum[k + 1];
+            float magnitude = re * re + im * im;
+            if (magnitude > maxMagnitude)
+                maxMagnitude = magnitude;
+            powerDBm[upper + i] = toDBm(magnitude / n);
+        }
+        return toDBm(maxMagnitude / n);
+    }
+
+    /**
+     * Shifts a spectrum of normalized bin powers (natural FFT order) into {@code powerDBm} in dBm,
+     * ordered from -fs/2 to +fs/2.
+     *
+     * @return the peak power in dBm across all bins
+     */
+    public static float shiftToDBm(@NonNull float[] power, int n, @NonNull float[] powerDBm) {
+        int halfSize = n / 2;
+        int upper = n - halfSize;
+        float maxPower = 0f;
+        for (int i = 0; i < upper; i++) {
+            float value = power[halfSize + i];
+            if (value > maxPower)
+                maxPower = value;
+            powerDBm[i] = toDBm(value);
+        }
+        for (int i = 0; i < halfSize; i++) {
+            float value = power[i];
+            if (value > maxPower)
+                maxPower = value;
+            powerDBm[upper + i] = toDBm(value);
+        }
+        return toDBm(maxPower);
+    }
+
+    // |X|^2 / n is the bin power in mV^2; across 50 ohm that is uW, then uW -> dBm
+    static float toDBm(float power) {
+        return (float) (10 * Math.log10(power / 50.0) - 30);
+    }
+
+    public int getCachedPlanCount() {
+        return plans.size();
+    }
+}
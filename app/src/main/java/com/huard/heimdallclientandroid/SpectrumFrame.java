@@ -0,0 +1,68 @@
+package com.huard.heimdallclientandroid;
+
+/**
+ * Per-channel power spectra computed from one IQ frame, handed from the DSP stage to the render
+ * stage.  Instances are recycled by {@link SpectrumPipeline}; the power arrays are refilled in
+ * place and only reallocated when the number of bins changes.
+ */
+public class SpectrumFrame {
+    final HeaderIQ header = new HeaderIQ();
+    float[] frequencyMHz = new float[0];  // shared between frames, never written after creation
+    float[][] powerDBm = new float[0][];
+    double[] maxPowerDBm = new double[0];
+    int channelCount;
+    int binCount;
+    final SpectrumPyramid pyramid = new SpectrumPyramid();
+    int pyramidChannel = -1;
+
+    void resize(int channels, int bins) {
+        if (powerDBm.length < channels) {
+            float[][] grown = new float[channels][];
+            System.arraycopy(powerDBm, 0, grown, 0, powerDBm.length);
+            powerDBm = grown;
+        }
+        for (int ch = 0; ch < channels; ch++) {
+            if (powerDBm[ch] == null || powerDBm[ch].length != bins)
+                powerDBm[ch] = new float[bins];
+        }
+        if (maxPowerDBm.length != channels)
+            maxPowerDBm = new double[channels];
+        channelCount = channels;
+        binCount = bins;
+    }
+
+    void clearChannel(int channel) {
+        maxPowerDBm[channel] = Double.NaN;
+    }
+
+    public HeaderIQ getHeader() { return header; }
+
+    public int getChannelCount() { return channelCount; }
+
+    public int getBinCount() { return binCount; }
+
+    /** Frequency of each bin relative to the center frequency, shared by all channels. */
+    public float[] getFrequencyMHz() { return frequencyMHz; }
+
+    /** Power of each bin in dBm; only meaningful if {@link #isChannelComputed(int)}. */
+    public float[] getPowerDBm(int channel) { return powerDBm[channel]; }
+
+    /** Peak power of a channel, or NaN if the channel was not computed for this frame. */
+    public double getMaxPowerDBm(int channel) { return maxPowerDBm[channel]; }
+
+    public boolean isChannelComputed(int channel) { return !Double.isNaN(maxPowerDBm[channel]); }
+
+    /**
+     * Min/max pyramid of a channel's spectrum for display.  The DSP stage builds it for the
+     * selected channel; asking for another channel rebuilds it on the calling thread.
+     */
+    public SpectrumPyramid getPyramid(int channel) {
+        if (pyramidChannel != channel) {
+            long start = System.nanoTime();
+            pyramid.build(powerDBm[channel], frequencyMHz, binCount);
+            Metrics.PYRAMID.recordSince(start);
+            pyramidChannel = channel;
+        }
+        return pyramid;
+    }
+}
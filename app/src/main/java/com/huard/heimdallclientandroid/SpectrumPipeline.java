@@ -0,0 +1,167 @@
+package com.huard.heimdallclientandroid;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Three-stage ingest -> DSP -> render pipeline.
+ * <p>
+ * The network thread {@link #submit(IqFrame) submits} leased frames into the ingest queue without
+ * ever blocking.  A dedicated DSP thread turns them into {@link SpectrumFrame}s and offers those to
+ * the render queue, then schedules at most one pending render task on the render executor (the UI
+ * thread in the app).  Each stage is decoupled by a bounded {@link SpscQueue}, so a slow renderer
+ * causes stale spectra to be dropped rather than stalling DSP, and slow DSP drops stale frames
+ * rather than stalling the socket.
+ */
+public class SpectrumPipeline {
+    private static final String TAG = "SpectrumPipeline";
+
+    public interface RenderListener {
+        /**
+         * Called on the render executor.  The listener owns the spectrum from here on and should
+         * hand it back through {@link #recycle(SpectrumFrame)} once it no longer displays it.
+         */
+        void onSpectrum(@NonNull SpectrumFrame spectrum);
+    }
+
+    public static final int DEFAULT_INGEST_CAPACITY = 2;
+    public static final int DEFAULT_RENDER_CAPACITY = 2;
+
+    private final SpectrumProcessor processor;
+    private final Executor renderExecutor;
+    private final RenderListener renderListener;
+    private final SpscQueue<IqFrame> ingestQueue;
+    private final SpscQueue<SpectrumFrame> renderQueue;
+    private final ConcurrentLinkedQueue<SpectrumFrame> freeSpectra = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean renderScheduled = new AtomicBoolean(false);
+    private final AtomicLong processedFrames = new AtomicLong();
+    private final AtomicLong renderedFrames = new AtomicLong();
+    private final AtomicLong dspFailures = new AtomicLong();
+    private final Runnable renderTask = this::render;
+
+    private volatile boolean running;
+    private volatile Thread dspThread;
+
+    public SpectrumPipeline(SpectrumProcessor processor, Executor renderExecutor, RenderListener renderListener) {
+        this(processor, renderExecutor, renderListener,
+                DEFAULT_INGEST_CAPACITY, SpscQueue.OverflowPolicy.DROP_OLDEST,
+                DEFAULT_RENDER_CAPACITY, SpscQueue.OverflowPolicy.LATEST_WINS);
+    }
+
+    public SpectrumPipeline(SpectrumProcessor processor, Executor renderExecutor, RenderListener renderListener,
+                            int ingestCapacity, SpscQueue.OverflowPolicy ingestPolicy,
+                            int renderCapacity, SpscQueue.OverflowPolicy renderPolicy) {
+        this.processor = processor;
+        this.renderExecutor = renderExecutor;
+        this.renderListener = renderListener;
+        this.ingestQueue = new SpscQueue<>(ingestCapacity, ingestPolicy, IqFrame::release);
+        this.renderQueue = new SpscQueue<>(renderCapacity, renderPolicy, freeSpectra::offer);
+    }
+
+    public synchronized void start() {
+        if (running)
+            return;
+        running = true;
+        Thread thread = new Thread(this::runDsp, "SpectrumDSP");
+        thread.setPriority(Thread.NORM_PRIORITY + 1);
+        dspThread = thread;
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        Thread thread = dspThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+            try {
+                thread.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        dspThread = null;
+        ingestQueue.clear();
+    }
+
+    /**
+     * Hands a leased frame to the DSP stage.  Must be called from a single producer thread.  The
+     * pipeline takes ownership and releases the frame once processed or dropped.
+     */
+    public void submit(@NonNull IqFrame frame) {
+        if (!running) {
+            frame.release();
+            return;
+        }
+        ingestQueue.offer(frame);
+        Thread thread = dspThread;
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
+
+    private void runDsp() {
+        while (running) {
+            IqFrame frame = ingestQueue.poll();
+            if (frame == null) {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(100));
+                continue;
+            }
+
+            SpectrumFrame spectrum = freeSpectra.poll();
+            if (spectrum == null)
+                spectrum = new SpectrumFrame();
+            try {
+                processor.process(frame, spectrum);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "DSP failed on frame", e);
+                dspFailures.incrementAndGet();
+                freeSpectra.offer(spectrum);
+                continue;
+            }
+            processedFrames.incrementAndGet();
+
+            renderQueue.offer(spectrum);
+            if (renderScheduled.compareAndSet(false, true))
+                renderExecutor.execute(renderTask);
+        }
+    }
+
+    private void render() {
+        renderScheduled.set(false);
+        SpectrumFrame spectrum = renderQueue.poll();
+        if (spectrum == null)
+            return;
+        renderListener.onSpectrum(spectrum);
+        renderedFrames.incrementAndGet();
+        if (!renderQueue.isEmpty() && renderScheduled.compareAndSet(false, true))
+            renderExecutor.execute(renderTask);
+    }
+
+    /** Returns a spectrum handed out by {@link RenderListener#onSpectrum} for reuse. */
+    public void recycle(@NonNull SpectrumFrame spectrum) {
+        freeSpectra.offer(spectrum);
+    }
+
+    public SpscQueue<IqFrame> getIngestQueue() { return ingestQueue; }
+
+    public SpscQueue<SpectrumFrame> getRenderQueue() { return renderQueue; }
+
+    public long getProcessedFrameCount() { return processedFrames.get(); }
+
+    public long getRenderedFrameCount() { return renderedFrames.get(); }
+
+    /** Frames discarded before DSP because a newer frame arrived while the DSP thread was busy. */
+    public long getIngestDropCount() { return ingestQueue.getDroppedCount(); }
+
+    public long getDspFailureCount() { return dspFailures.get(); }
+
+    /** Spectra computed but superseded before the UI got to draw them. */
+    public long getRenderDropCount() { return renderQueue.getDroppedCount(); }
+}
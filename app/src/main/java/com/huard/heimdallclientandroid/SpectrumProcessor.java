@@ -0,0 +1,261 @@
+package com.huard.heimdallclientandroid;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Converts IQ samples into per-channel power spectra in dBm.  Holds no Android state so it can run
+ * on any worker thread.
+ * <p>
+ * Channels are independent, so with more than one thread each channel's FFT and PSD run as a
+ * separate task on a fixed worker pool, with the calling thread taking a share.  The call returns
+ * only once every channel of the frame is done.  Each channel has its own {@link SpectrumEngine},
+ * so a processor must be driven by one caller thread at a time.
+ */
+public class SpectrumProcessor {
+    private static final String TAG = "SpectrumProcessor";
+
+    public enum ChannelMode {
+        /** Compute every active channel. */
+        ALL,
+        /** Compute only the selected channel; the others are left empty. */
+        SELECTED
+    }
+
+    private final ExecutorService workers;
+    private SpectrumEngine[] engines = new SpectrumEngine[0];
+    private ChannelTask[] channelTasks = new ChannelTask[0];
+    private volatile ChannelMode channelMode = ChannelMode.ALL;
+    private volatile int selectedChannel = 0;
+    private volatile WelchConfig welchConfig;
+    private WelchEstimator[] estimators = new WelchEstimator[0];
+
+    // Per-frame state shared with the channel tasks, published by executor submission
+    private final AtomicInteger pendingChannels = new AtomicInteger();
+    private volatile Thread joiningThread;
+    private volatile RuntimeException channelFailure;
+    private float[] frequencyAxis = new float[0];
+    private float frequencyAxisBandwidthMHz;
+    private float[][] frameSamples;
+    private SpectrumFrame frameOut;
+    private WelchConfig frameConfig;
+
+    /** Uses one worker per available core. */
+    public SpectrumProcessor() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param threads total threads to spread channels over, including the caller; 1 computes
+     *                channels sequentially on the caller
+     */
+    public SpectrumProcessor(int threads) {
+        if (threads > 1) {
+            AtomicInteger threadIndex = new AtomicInteger();
+            workers = Executors.newFixedThreadPool(threads - 1, r -> {
+                Thread thread = new Thread(r, "SpectrumWorker-" + threadIndex.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+        } else {
+            workers = null;
+        }
+    }
+
+    public void setChannelMode(@NonNull ChannelMode mode) {
+        channelMode = mode;
+    }
+
+    public ChannelMode getChannelMode() {
+        return channelMode;
+    }
+
+    /**
+     * Channel computed in {@link ChannelMode#SELECTED} mode, and the channel whose display pyramid
+     * is built alongside its spectrum.
+     */
+    public void setSelectedChannel(int channel) {
+        selectedChannel = channel;
+    }
+
+    /**
+     * Switches between a single CPI-length periodogram (null, the default) and Welch averaging
+     * with the given settings.  Takes effect from the next frame and resets any averaging state.
+     */
+    public void setWelchConfig(WelchConfig config) {
+        welchConfig = config;
+    }
+
+    public WelchConfig getWelchConfig() {
+        return welchConfig;
+    }
+
+    /** Stops the worker pool.  The processor falls back to computing on the caller afterwards. */
+    public void shutdown() {
+        if (workers != null) {
+            workers.shutdown();
+            try {
+                workers.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Computes the spectra of a received frame, reading the float samples directly, and releases
+     * the frame afterwards.
+     */
+    public void process(@NonNull IqFrame frame, @NonNull SpectrumFrame out) {
+        try {
+            out.header.copyFrom(frame.getHeader());
+            computeSpectra(frame.getSamples(), out.header.getSamplingFreq() / 1E6f, out);
+        } finally {
+            frame.release();  // spectra are computed, hand the frame back to the receive thread
+        }
+    }
+
+    /**
+     * Computes the spectrum and peak power of every requested channel of interleaved IQ samples.
+     */
+    public void computeSpectra(@NonNull float[][] iqSamples, float sampleBandwidthMHz, @NonNull SpectrumFrame out) {
+        int channels = iqSamples.length;
+        WelchConfig config = welchConfig;
+        int bins = config != null ? config.fftSize : channels == 0 ? 0 : iqSamples[0].length / 2;
+        out.resize(channels, bins);
+        out.frequencyMHz = getFrequencyAxis(bins, sampleBandwidthMHz);
+        ensureChannels(channels, config);
+        frameConfig = config;
+
+        if (channelMode == ChannelMode.SELECTED) {
+            int channel = selectedChannel;
+            for (int j = 0; j < channels; j++) {
+                if (j != channel)
+                    out.clearChannel(j);
+            }
+            if (channel >= 0 && channel < channels)
+                computeChannel(channel, iqSamples, out);
+            buildPyramid(out);
+            return;
+        }
+
+        if (workers == null || workers.isShutdown() || channels == 1) {
+            for (int j = 0; j < channels; j++) {
+                computeChannel(j, iqSamples, out);
+            }
+            buildPyramid(out);
+            return;
+        }
+
+        frameSamples = iqSamples;
+        frameOut = out;
+        channelFailure = null;
+        joiningThread = Thread.currentThread();
+        pendingChannels.set(channels);
+
+        // Fan channels 1..N-1 out to the pool and compute channel 0 here
+        for (int j = 1; j < channels; j++) {
+            workers.execute(channelTasks[j]);
+        }
+        channelTasks[0].run();
+
+        // Join point: every channel of this frame finishes before the next frame starts
+        while (pendingChannels.get() > 0) {
+            LockSupport.park(this);
+        }
+        joiningThread = null;
+        frameSamples = null;
+        frameOut = null;
+        frameConfig = null;
+
+        RuntimeException failure = channelFailure;
+        if (failure != null)
+            throw failure;
+        buildPyramid(out);
+    }
+
+    private void buildPyramid(SpectrumFrame out) {
+        int channel = selectedChannel;
+        out.pyramidChannel = -1;
+        if (channel >= 0 && channel < out.channelCount && out.isChannelComputed(channel))
+            out.getPyramid(channel);
+    }
+
+    private void ensureChannels(int channels, WelchConfig config) {
+        if (config != null && (estimators.length < channels || estimators[0].getConfig() != config)) {
+            WelchEstimator[] rebuilt = new WelchEstimator[Math.max(channels, estimators.length)];
+            for (int j = 0; j < rebuilt.length; j++) {
+                rebuilt[j] = new WelchEstimator(config);
+            }
+            estimators = rebuilt;
+        }
+
+        if (engines.length >= channels)
+            return;
+        SpectrumEngine[] grownEngines = new SpectrumEngine[channels];
+        ChannelTask[] grownTasks = new ChannelTask[channels];
+        System.arraycopy(engines, 0, grownEngines, 0, engines.length);
+        System.arraycopy(channelTasks, 0, grownTasks, 0, channelTasks.length);
+        for (int j = engines.length; j < channels; j++) {
+            grownEngines[j] = new SpectrumEngine();
+            grownTasks[j] = new ChannelTask(j);
+        }
+        engines = grownEngines;
+        channelTasks = grownTasks;
+    }
+
+    /**
+     * Bin frequencies in MHz from -fs/2 upward.  The axis only depends on the FFT size and sample
+     * rate, so it is rebuilt only when either changes; the returned array is never modified.
+     */
+    private float[] getFrequencyAxis(int bins, float sampleBandwidthMHz) {
+        if (frequencyAxis.length != bins || frequencyAxisBandwidthMHz != sampleBandwidthMHz) {
+            float[] axis = new float[bins];
+            double frequencyStep = (double) sampleBandwidthMHz / bins;
+            for (int i = 0; i < bins; i++) {
+                axis[i] = (float) (i * frequencyStep - sampleBandwidthMHz / 2.0);
+            }
+            frequencyAxis = axis;
+            frequencyAxisBandwidthMHz = sampleBandwidthMHz;
+        }
+        return frequencyAxis;
+    }
+
+    private void computeChannel(int channel, float[][] iqSamples, SpectrumFrame out) {
+        int cpiLength = iqSamples[channel].length / 2;
+        long start = System.nanoTime();
+        if (frameConfig != null)
+            out.maxPowerDBm[channel] = estimators[channel].estimate(iqSamples[channel], cpiLength, out.powerDBm[channel]);
+        else
+            out.maxPowerDBm[channel] = engines[channel].powerSpectrumDBm(iqSamples[channel], cpiLength, out.powerDBm[channel]);
+        Metrics.PSD.recordSince(start);
+    }
+
+    private final class ChannelTask implements Runnable {
+        private final int channel;
+
+        ChannelTask(int channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void run() {
+            try {
+                computeChannel(channel, frameSamples, frameOut);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Spectrum failed on channel " + channel, e);
+                channelFailure = e;
+            } finally {
+                if (pendingChannels.decrementAndGet() == 0)
+                    LockSupport.unpark(joiningThread);
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.huard.heimdallclientandroid;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Multi-resolution min/max summary of one spectrum, used to draw it at screen resolution.
+ * <p>
+ * Level 0 holds the bins themselves; each level above pairs up the buckets below it, keeping the
+ * minimum and maximum of each pair, down to a single bucket.  Any zoom window can then be reduced
+ * to one min/max span per pixel column by reading a handful of buckets from the level whose bucket
+ * width best matches the bins per column, instead of rescanning the full-resolution spectrum.
+ * Peaks survive every level, so narrow signals never disappear when zoomed out.  Arrays are reused
+ * while the bin count stays the same.
+ */
+public class SpectrumPyramid {
+    private float[][] mins = new float[0][];
+    private float[][] maxs = new float[0][];
+    private float[] frequencyMHz = new float[0];
+    private int binCount;
+
+    /**
+     * Builds the pyramid for a spectrum.  The frequency axis must be linear and is retained (not
+     * copied), so it must not be modified afterwards.
+     */
+    public void build(@NonNull float[] powerDBm, @NonNull float[] frequencyMHz, int bins) {
+        if (bins != binCount || mins.length == 0)
+            allocate(bins);
+        this.frequencyMHz = frequencyMHz;
+
+        System.arraycopy(powerDBm, 0, mins[0], 0, bins);
+        for (int level = 1; level < mins.length; level++) {
+            float[] lowerMin = mins[level - 1];
+            float[] lowerMax = maxs[level - 1];
+            float[] min = mins[level];
+            float[] max = maxs[level];
+            int lowerSize = lowerMin.length;
+            for (int i = 0; i < min.length; i++) {
+                int a = 2 * i;
+                int b = Math.min(a + 1, lowerSize - 1);
+                min[i] = Math.min(lowerMin[a], lowerMin[b]);
+                max[i] = Math.max(lowerMax[a], lowerMax[b]);
+            }
+        }
+    }
+
+    private void allocate(int bins) {
+        int levels = 1;
+        for (int size = bins; size > 1; size = (size + 1) / 2) {
+            levels++;
+        }
+        mins = new float[levels][];
+        maxs = new float[levels][];
+        int size = bins;
+        for (int level = 0; level < levels; level++) {
+            mins[level] = new float[size];
+            maxs[level] = level == 0 ? mins[0] : new float[size];  // a single bin is its own min and max
+            size = (size + 1) / 2;
+        }
+        binCount = bins;
+    }
+
+    public int getBinCount() {
+        return binCount;
+    }
+
+    /**
+     * Reduces the bins between {@code startMHz} and {@code endMHz} to at most {@code columns}
+     * min/max spans.  When the window holds fewer bins than columns every bin is emitted with
+     * min == max.
+     *
+     * @return the number of spans written to {@code outX}, {@code outMin} and {@code outMax}
+     */
+    public int decimate(float startMHz, float endMHz, int columns,
+                        @NonNull float[] outX, @NonNull float[] outMin, @NonNull float[] outMax) {
+        if (binCount < 2 || columns < 1)
+            return 0;
+        float firstMHz = frequencyMHz[0];
+        float stepMHz = frequencyMHz[1] - frequencyMHz[0];
+        int lo = clamp((int) Math.floor((startMHz - firstMHz) / stepMHz), 0, binCount - 1);
+        int hi = clamp((int) Math.ceil((endMHz - firstMHz) / stepMHz) + 1, lo + 1, binCount);
+        int span = hi - lo;
+
+        if (span <= columns) {
+            float[] bins = mins[0];
+            for (int i = 0; i < span; i++) {
+                outX[i] = frequencyMHz[lo + i];
+                outMin[i] = bins[lo + i];
+                outMax[i] = bins[lo + i];
+            }
+            return span;
+        }
+
+        // Coarsest level whose buckets are no wider than one column
+        int level = 31 - Integer.numberOfLeadingZeros(span / columns);
+        level = Math.min(level, mins.length - 1);
+        float[] min = mins[level];
+        float[] max = maxs[level];
+        for (int c = 0; c < columns; c++) {
+            int first = lo + (int) ((long) span * c / columns);
+            int last = lo + (int) ((long) span * (c + 1) / columns) - 1;
+            float columnMin = Float.POSITIVE_INFINITY;
+            float columnMax = Float.NEGATIVE_INFINITY;
+            for (int b = first >> level; b <= last >> level; b++) {
+                if (min[b] < columnMin)
+                    columnMin = min[b];
+                if (max[b] > columnMax)
+                    columnMax = max[b];
+            }
+            outX[c] = frequencyMHz[(first + last) / 2];
+            outMin[c] = columnMin;
+            outMax[c] = columnMax;
+        }
+        return columns;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
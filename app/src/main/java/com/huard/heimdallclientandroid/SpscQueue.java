@@ -0,0 +1,129 @@
+package com.huard.heimdallclientandroid;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Bounded lock-free queue connecting one producer thread to one consumer thread.
+ * <p>
+ * The producer never blocks: when the queue is full the oldest queued item is evicted to make room.
+ * Under {@link OverflowPolicy#LATEST_WINS} the consumer additionally skips straight to the newest
+ * item, discarding any older ones still queued.  Evicted and skipped items are passed to the drop
+ * handler (on whichever thread discarded them) so pooled objects can be returned.
+ */
+public class SpscQueue<T> {
+
+    public enum OverflowPolicy {
+        /** Keep up to capacity items in order; evict the oldest when a new one arrives while full. */
+        DROP_OLDEST,
+        /** Only the newest item matters; the consumer discards everything older on each poll. */
+        LATEST_WINS
+    }
+
+    private final AtomicReferenceArray<T> slots;
+    private final int capacity;
+    private final int mask;
+    private final OverflowPolicy policy;
+    private final Consumer<T> dropHandler;
+
+    // head is advanced by CAS because the producer may also evict from it
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile int highWaterMark;
+
+    /**
+     * @param capacity    maximum queued items, rounded up to a power of two
+     * @param dropHandler receives every item discarded by the overflow policy; may be null
+     */
+    public SpscQueue(int capacity, OverflowPolicy policy, Consumer<T> dropHandler) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Queue capacity must be at least 1");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity)
+            size <<= 1;
+        this.slots = new AtomicReferenceArray<>(size);
+        this.capacity = size;
+        this.mask = size - 1;
+        this.policy = policy;
+        this.dropHandler = dropHandler;
+    }
+
+    /** Producer side.  Always succeeds, evicting the oldest item if the queue is full. */
+    public void offer(T item) {
+        long t = tail.get();
+        while (t - head.get() >= capacity) {
+            T evicted = removeHead();
+            if (evicted != null)
+                drop(evicted);
+        }
+        slots.set((int) (t & mask), item);
+        tail.set(t + 1);
+        offered.incrementAndGet();
+
+        int depth = (int) (t + 1 - head.get());
+        if (depth > highWaterMark)
+            highWaterMark = depth;
+    }
+
+    /**
+     * Consumer side.
+     *
+     * @return the next item (or, under LATEST_WINS, the newest item), or null if the queue is empty
+     */
+    public T poll() {
+        T item = removeHead();
+        if (policy == OverflowPolicy.LATEST_WINS && item != null) {
+            T newer;
+            while ((newer = removeHead()) != null) {
+                drop(item);
+                item = newer;
+            }
+        }
+        return item;
+    }
+
+    /** Discards every queued item through the drop handler. */
+    public void clear() {
+        T item;
+        while ((item = removeHead()) != null) {
+            drop(item);
+        }
+    }
+
+    private T removeHead() {
+        while (true) {
+            long h = head.get();
+            if (h >= tail.get())
+                return null;
+            T item = slots.get((int) (h & mask));
+            if (head.compareAndSet(h, h + 1))
+                return item;
+        }
+    }
+
+    private void drop(T item) {
+        dropped.incrementAndGet();
+        if (dropHandler != null)
+            dropHandler.accept(item);
+    }
+
+    public boolean isEmpty() { return head.get() >= tail.get(); }
+
+    public int getCapacity() { return capacity; }
+
+    public OverflowPolicy getPolicy() { return policy; }
+
+    /** Items currently queued. */
+    public int getDepth() { return (int) Math.max(0, tail.get() - head.get()); }
+
+    /** Largest depth observed since construction. */
+    public int getHighWaterMark() { return highWaterMark; }
+
+    public long getOfferedCount() { return offered.get(); }
+
+    public long getDroppedCount() { return dropped.get(); }
+}
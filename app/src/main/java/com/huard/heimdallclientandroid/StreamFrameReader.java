@@ -0,0 +1,104 @@
+package com.huard.heimdallclientandroid;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads IQ frames from a blocking {@link InputStream}.  Each frame is copied into freshly allocated
+ * heap arrays, so the returned samples may be retained by the caller indefinitely.
+ */
+public class StreamFrameReader {
+    private static final String TAG = "StreamFrameReader";
+
+    private final InputStream inputStream;
+
+    public StreamFrameReader(@NonNull InputStream inputStream) {
+        this.inputStream = inputStream;
+    }
+
+    /**
+     * Reads the 1024-byte IQ header and decodes it into the supplied header object.
+     *
+     * @return false if the stream closed before the header was complete
+     */
+    public boolean readHeader(@NonNull HeaderIQ iqHeader) throws IOException {
+        int totalReceivedBytes = 0;
+        byte[] iqHeaderBytes = new byte[HeaderIQ.HEADER_SIZE];  // Allocate buffer for the header
+
+        // Receive IQ header
+        while (totalReceivedBytes < iqHeaderBytes.length) {
+            int bytesRead = inputStream.read(iqHeaderBytes, totalReceivedBytes, iqHeaderBytes.length - totalReceivedBytes);
+            if (bytesRead == -1) {
+                Log.e(TAG, "Stream closed while receiving IQ header");
+                return false;
+            }
+            totalReceivedBytes += bytesRead;
+        }
+
+        iqHeader.decodeHeader(iqHeaderBytes);
+        return true;
+    }
+
+    /**
+     * Reads the payload described by the header and converts it to an (N x 2M) array of interleaved
+     * I/Q floats, N channels by M complex samples, decoding the header's {@link SampleFormat}.
+     *
+     * @return null if the header describes no payload or the stream closed mid-payload
+     */
+    public float[][] readPayload(@NonNull HeaderIQ iqHeader) throws IOException {
+        int incomingPayloadSize = iqHeader.getPayloadSize();
+        if (incomingPayloadSize <= 0)
+            return null;  // No data to process
+
+        byte[] iqDataBytes = new byte[incomingPayloadSize];  // Allocate array for IQ data
+        int totalReceivedBytes = 0;
+
+        // Receive the IQ data
+        while (totalReceivedBytes < incomingPayloadSize) {
+            int bytesRead = inputStream.read(iqDataBytes, totalReceivedBytes, iqDataBytes.length - totalReceivedBytes);
+            if (bytesRead == -1) {
+                Log.e(TAG, "Stream closed while receiving IQ data");
+                return null;
+            }
+            totalReceivedBytes += bytesRead;
+        }
+
+        // Convert the raw bytes to float IQ samples, one channel-major block per channel
+        SampleFormat format = SampleFormat.forBitDepth(iqHeader.getSampleBitDepth());
+        if (format == null) {
+            Log.w(TAG, "No decoder for " + iqHeader.getSampleBitDepth() + "-bit samples, frame dropped");
+            return null;
+        }
+        int channelLength = (int) iqHeader.getCpiLength() * 2;
+        float[][] iqSamples = new float[iqHeader.getActiveAntChs()][channelLength];
+        for (int ch = 0; ch < iqSamples.length; ch++) {
+            format.decode(iqDataBytes, ch * channelLength * format.getBytesPerValue(), iqSamples[ch], 0, channelLength);
+        }
+        return iqSamples;
+    }
+
+    /**
+     * Discards the payload described by the header without converting it.
+     *
+     * @return false if the stream closed mid-payload
+     */
+    public boolean skipPayload(@NonNull HeaderIQ iqHeader) throws IOException {
+        long remaining = Math.max(0, iqHeader.getPayloadSize());
+        while (remaining > 0) {
+            long skipped = inputStream.skip(remaining);
+            if (skipped <= 0) {  // skip may give up early; a read tells a slow stream from a closed one
+                if (inputStream.read() == -1) {
+                    Log.e(TAG, "Stream closed while skipping IQ data");
+                    return false;
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,248 @@
+package com.huard.heimdallclientandroid;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Sweeps the receiver across a frequency range wider than one capture and stitches the slices into
+ * a single panorama spectrum.
+ * <p>
+ * The range is cut into steps of the usable bandwidth, the sampled band less the filter roll-off
+ * trimmed from both edges.  After each retune, received frames are discarded until a data frame's
+ * header reports the new center frequency, so no fixed settling delay is needed.  As soon as a
+ * slice's frame is accepted the retune to the next step is sent, and the slice's PSD is computed
+ * and stitched on a worker thread while the hardware settles, so a sweep runs as fast as the DAQ can
+ * retune.  After the last step the sweep starts over and the finished panorama is handed to the
+ * listener.
+ */
+public class SweepEngine {
+    private static final String TAG = "SweepEngine";
+
+    /** Fraction of the sampled bandwidth kept from each slice. */
+    public static final float DEFAULT_USABLE_FRACTION = 0.8f;
+    static final long RETUNE_TIMEOUT_MS = 2000;
+    private static final long FREQUENCY_TOLERANCE_HZ = 1000;
+
+    public interface SweepListener {
+        /**
+         * Called on the sweep worker after every complete pass.  The panorama is a one-channel
+         * spectrum with absolute frequencies in MHz; it stays valid until the next pass completes.
+         */
+        void onPanorama(@NonNull SpectrumFrame panorama);
+    }
+
+    private static final LatencyHistogram sliceTime = MetricsRegistry.getDefault().histogram("sweep.slice");
+    private static final LatencyHistogram passTime = MetricsRegistry.getDefault().histogram("sweep.pass");
+
+    private final ControlClient controlClient;
+    private final SweepListener listener;
+    private final int channel;
+    private final float startMHz;
+    private final float stopMHz;
+    private final float usableMHz;
+    private final float[] stepCenterMHz;
+    private final long[] stepCenterHz;
+    private final ExecutorService worker;
+
+    // Receive thread state
+    private volatile boolean running;
+    private int step;
+    private long retunedAtMs;
+    private long discarded;
+
+    // Worker state
+    private final SpectrumEngine engine = new SpectrumEngine();
+    private float[] slicePowerDBm = new float[0];
+    private final float[] panoramaDBm;
+    private int pass;
+    private long passStartNanos = System.nanoTime();
+    private final SpectrumFrame[] published = {new SpectrumFrame(), new SpectrumFrame()};
+    private int nextPublished;
+
+    /**
+     * @param controlClient  session used to retune
+     * @param channel        receiver channel whose spectrum is swept
+     * @param startMHz       lower edge of the panorama
+     * @param stopMHz        upper edge of the panorama
+     * @param sampleRateMHz  sampled bandwidth of each capture
+     * @param usableFraction share of the sampled bandwidth kept from each slice, e.g. {@link #DEFAULT_USABLE_FRACTION}
+     * @param panoramaBins   resolution of the stitched panorama; slices are max-pooled into it
+     */
+    public SweepEngine(@NonNull ControlClient controlClient, @NonNull SweepListener listener, int channel,
+                       float startMHz, float stopMHz, float sampleRateMHz, float usableFraction, int panoramaBins) {
+        if (stopMHz <= startMHz)
+            throw new IllegalArgumentException("Sweep stop must be above its start");
+        if (usableFraction <= 0 || usableFraction > 1)
+            throw new IllegalArgumentException("Usable fraction must be in (0, 1]");
+        this.controlClient = controlClient;
+        this.listener = listener;
+        this.channel = channel;
+        this.startMHz = startMHz;
+        this.stopMHz = stopMHz;
+        this.usableMHz = sampleRateMHz * usableFraction;
+
+        int steps = Math.max(1, (int) Math.ceil((stopMHz - startMHz) / usableMHz));
+        stepCenterMHz = new float[steps];
+        stepCenterHz = new long[steps];
+        for (int i = 0; i < steps; i++) {
+            stepCenterMHz[i] = startMHz + usableMHz * (i + 0.5f);
+            stepCenterHz[i] = (long) (stepCenterMHz[i]*1E6);  // as ControlClient encodes it
+        }
+
+        panoramaDBm = new float[panoramaBins];
+        float[] frequencyMHz = new float[panoramaBins];
+        for (int p = 0; p < panoramaBins; p++) {
+            frequencyMHz[p] = startMHz + (stopMHz - startMHz) * (p + 0.5f) / panoramaBins;
+        }
+        for (SpectrumFrame frame : published) {
+            frame.resize(1, panoramaBins);
+            frame.frequencyMHz = frequencyMHz;
+        }
+
+        worker = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "SweepWorker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int getStepCount() {
+        return stepCenterMHz.length;
+    }
+
+    public float getStepCenterMHz(int step) {
+        return stepCenterMHz[step];
+    }
+
+    /** Frames thrown away while waiting for a retune to take effect. */
+    public long getDiscardedFrameCount() {
+        return discarded;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    public void start() {
+        running = true;
+        step = 0;
+        retune();
+    }
+
+    /** Stops sweeping; the receiver stays tuned where it was. */
+    public void stop() {
+        running = false;
+        worker.shutdown();
+    }
+
+    /**
+     * Takes a received frame on the receive thread.  The frame is always released, either at once
+     * if it is discarded or by the worker once its slice is stitched.
+     */
+    public void submit(@NonNull IqFrame frame) {
+        HeaderIQ header = frame.getHeader();
+        if (!running || header.getFrameType() != HeaderIQ.FRAME_TYPE_DATA || channel >= frame.getChannelCount()
+                || Math.abs(header.getRfCenterFreq() - stepCenterHz[step]) > FREQUENCY_TOLERANCE_HZ) {
+            frame.release();
+            discarded++;
+            if (running && System.currentTimeMillis() - retunedAtMs > RETUNE_TIMEOUT_MS) {
+                Log.w(TAG, "Retune to " + stepCenterMHz[step] + " MHz not seen, resending");
+                controlClient.forgetState();
+                retune();
+            }
+            return;
+        }
+
+        int sliceStep = step;
+        step = (step + 1) % stepCenterMHz.length;
+        retune();  // the hardware settles on the next step while this slice is processed
+        try {
+            worker.execute(() -> stitch(frame, sliceStep));
+        } catch (RuntimeException e) {
+            frame.release();  // stopped meanwhile
+        }
+    }
+
+    private void retune() {
+        retunedAtMs = System.currentTimeMillis();
+        controlClient.sendFrequency(stepCenterMHz[step]).whenComplete((reply, error) -> {
+            if (error != null)
+                Log.e(TAG, "Retune failed", error);
+        });
+    }
+
+    // Worker thread: PSD of the slice, then its usable bins max-pooled into the panorama
+    private void stitch(IqFrame frame, int sliceStep) {
+        long start = System.nanoTime();
+        int n;
+        float sampleRateMHz;
+        try {
+            n = frame.getCpiLength();
+            sampleRateMHz = frame.getHeader().getSamplingFreq() / 1E6f;
+            if (slicePowerDBm.length != n)
+                slicePowerDBm = new float[n];
+            engine.powerSpectrumDBm(frame.getSamples()[channel], n, slicePowerDBm);
+        } finally {
+            frame.release();
+        }
+
+        // The slices tile the range, so every panorama bin is taken from exactly one slice: the one
+        // whose usable band holds the bin's center.  Its value is the peak of the slice bins inside
+        // it, or the nearest slice bin when the panorama is finer than the slice.  Offsets are in
+        // double precision since a float in MHz cannot resolve a slice bin at GHz centers.
+        int bins = panoramaDBm.length;
+        double panoramaBinMHz = (double) (stopMHz - startMHz) / bins;
+        double sliceBinMHz = (double) sampleRateMHz / n;
+        double centerMHz = stepCenterHz[sliceStep] / 1E6;
+        double lowMHz = centerMHz - usableMHz / 2.0;
+        double highMHz = centerMHz + usableMHz / 2.0;
+        int first = Math.max(0, (int) Math.floor((lowMHz - startMHz) / panoramaBinMHz));
+        int last = Math.min(bins - 1, (int) Math.ceil((highMHz - startMHz) / panoramaBinMHz));
+        for (int p = first; p <= last; p++) {
+            double binLowMHz = startMHz + p * panoramaBinMHz;
+            double binCenterMHz = binLowMHz + panoramaBinMHz / 2;
+            if (binCenterMHz < lowMHz || binCenterMHz >= highMHz)
+                continue;
+            // Slice bin k is at offset (k - n/2) * sliceBinMHz from the center
+            int kLow = Math.max(0, (int) Math.ceil((binLowMHz - centerMHz) / sliceBinMHz) + n / 2);
+            int kHigh = Math.min(n - 1, (int) Math.ceil((binLowMHz + panoramaBinMHz - centerMHz) / sliceBinMHz) + n / 2 - 1);
+            if (kLow > kHigh) {
+                int nearest = (int) Math.round((binCenterMHz - centerMHz) / sliceBinMHz) + n / 2;
+                kLow = kHigh = Math.max(0, Math.min(n - 1, nearest));
+            }
+            float peak = slicePowerDBm[kLow];
+            for (int k = kLow + 1; k <= kHigh; k++) {
+                peak = Math.max(peak, slicePowerDBm[k]);
+            }
+            panoramaDBm[p] = peak;
+        }
+        sliceTime.recordSince(start);
+
+        if (sliceStep == stepCenterMHz.length - 1)
+            publish();
+    }
+
+    private void publish() {
+        SpectrumFrame frame = published[nextPublished];
+        nextPublished = 1 - nextPublished;
+        float[] power = frame.powerDBm[0];
+        float peak = Float.NEGATIVE_INFINITY;
+        System.arraycopy(panoramaDBm, 0, power, 0, power.length);
+        for (float value : power) {
+            peak = Math.max(peak, value);
+        }
+        frame.maxPowerDBm[0] = peak;
+        frame.pyramidChannel = -1;
+        frame.header.setReplayFrame(1, 0, pass, System.currentTimeMillis(),
+                (long) ((startMHz + stopMHz) / 2 * 1E6), (long) ((stopMHz - startMHz) * 1E6));
+        pass++;
+        long now = System.nanoTime();
+        passTime.record(now - passStartNanos);
+        passStartNanos = now;
+        listener.onPanorama(frame);
+    }
+}
@@ -0,0 +1,347 @@
+package com.huard.heimdallclientandroid;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps the last few seconds of received frames in an off-heap ring buffer and, when triggered,
+ * saves them together with a post-trigger window as an {@link IqRecorder} recording.
+ * <p>
+ * Frames are appended on the receive thread with one bulk copy from the reader's buffer into a
+ * single direct buffer, and their headers are snapshotted into preallocated slots, so buffering
+ * allocates nothing.  The oldest frames are evicted to make room, or once they are older than the
+ * pre-trigger time.  A trigger (a channel's power rising through a threshold, or {@link #trigger})
+ * pins every buffered frame, and a writer thread flushes them to disk, followed by the frames of the
+ * post-trigger window as they arrive.  If the writer falls behind until the ring is full of unsaved
+ * frames, new frames are left out of the capture rather than held up; streaming never waits for it.
+ */
+public class TriggeredCapture {
+    private static final String TAG = "TriggeredCapture";
+
+    public static final int DEFAULT_MAX_FRAMES = 1024;
+    private static final int POWER_SAMPLES = 512;  // complex samples per channel for the power trigger
+
+    public interface CaptureListener {
+        /** Called on the writer thread once a capture is on disk. */
+        void onCaptureSaved(@NonNull File dataFile, long frames, @NonNull String reason);
+    }
+
+    private static final class Slot {
+        final HeaderIQ header = new HeaderIQ();
+        int offset;
+        int length;
+        long arrivalMs;
+    }
+
+    private final File directory;
+    private final ByteBuffer ring;
+    private final FloatBuffer ringFloats;
+    private final Slot[] slots;
+    private final ExecutorService writer;
+    private final Object lock = new Object();
+
+    private volatile long preTriggerMs;
+    private volatile long postTriggerMs;
+    private volatile float thresholdDbfs = Float.NaN;
+    private volatile CaptureListener listener;
+
+    // Guarded by lock.  Frames are numbered; oldest..newest are buffered, in ring order.
+    private long oldest;
+    private long next;
+    private int head;  // ring offset of the oldest frame
+    private int tail;  // ring offset after the newest frame
+    private boolean capturing;
+    private long flushed;  // first pinned frame not yet on disk
+    private long captureEnd = Long.MAX_VALUE;  // first frame after the post-trigger window
+    private long captureEndMs;
+    private long overruns;
+    private long captures;
+
+    // Receive thread
+    private boolean aboveThreshold;
+
+    /**
+     * @param capacityBytes ring size; at least the pre-trigger time at the link's byte rate, plus
+     *                      headroom for the post-trigger window while the writer catches up
+     * @param preTriggerMs  history kept before a trigger
+     * @param postTriggerMs frames saved after a trigger
+     */
+    public TriggeredCapture(@NonNull File directory, int capacityBytes, int maxFrames, long preTriggerMs, long postTriggerMs) {
+        this.directory = directory;
+        this.ring = ByteBuffer.allocateDirect(capacityBytes).order(ByteOrder.LITTLE_ENDIAN);
+        this.ringFloats = ring.asFloatBuffer();
+        this.slots = new Slot[maxFrames];
+        for (int i = 0; i < maxFrames; i++) {
+            slots[i] = new Slot();
+        }
+        this.preTriggerMs = preTriggerMs;
+        this.postTriggerMs = postTriggerMs;
+        this.writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "CaptureWriter");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public void setListener(CaptureListener listener) {
+        this.listener = listener;
+    }
+
+    public void setPreTriggerMs(long preTriggerMs) {
+        this.preTriggerMs = preTriggerMs;
+    }
+
+    public void setPostTriggerMs(long postTriggerMs) {
+        this.postTriggerMs = postTriggerMs;
+    }
+
+    /**
+     * Triggers when the mean power of any channel rises through this level, in dB relative to a
+     * full-scale (magnitude 1) sample; NaN disables the power trigger.
+     */
+    public void setThresholdDbfs(float thresholdDbfs) {
+        this.thresholdDbfs = thresholdDbfs;
+    }
+
+    public boolean isCapturing() {
+        synchronized (lock) {
+            return capturing;
+        }
+    }
+
+    /** Frames left out of captures because the ring was full of frames not yet saved. */
+    public long getOverrunCount() {
+        synchronized (lock) {
+            return overruns;
+        }
+    }
+
+    public long getCaptureCount() {
+        synchronized (lock) {
+            return captures;
+        }
+    }
+
+    public int getBufferedFrameCount() {
+        synchronized (lock) {
+            return (int) (next - oldest);
+        }
+    }
+
+    /** Buffers a channel-major payload view (see {@link ChannelFrameReader}); the view is left rewound. */
+    public void append(@NonNull FloatBuffer payload, @NonNull HeaderIQ header) {
+        append(payload, null, header, System.currentTimeMillis());
+    }
+
+    /** Buffers a payload delivered as per-channel interleaved arrays. */
+    public void append(@NonNull float[][] payload, @NonNull HeaderIQ header) {
+        append(null, payload, header, System.currentTimeMillis());
+    }
+
+    void append(FloatBuffer view, float[][] arrays, HeaderIQ header, long nowMs) {
+        int channelLength = (int) header.getCpiLength() * 2;
+        int channels = header.getActiveAntChs();
+        int length = channels * channelLength * 4;
+        if (length <= 0)
+            return;
+        synchronized (lock) {
+            evictOlderThan(nowMs - preTriggerMs);
+            int offset = allocate(length);
+            if (offset < 0) {
+                if (capturing && next < captureEnd)
+                    overruns++;
+                if (capturing && nowMs >= captureEndMs && captureEnd == Long.MAX_VALUE) {
+                    captureEnd = next;  // the window has passed while frames were being dropped
+                    lock.notifyAll();
+                }
+                return;
+            }
+            ringFloats.position(offset / 4);
+            if (view != null) {
+                ringFloats.put(view);
+                view.rewind();
+            } else {
+                for (int ch = 0; ch < channels; ch++) {
+                    ringFloats.put(arrays[ch], 0, channelLength);
+                }
+            }
+            Slot slot = slots[(int) (next % slots.length)];
+            slot.header.copyFrom(header);
+            slot.offset = offset;
+            slot.length = length;
+            slot.arrivalMs = nowMs;
+            tail = offset + length;
+            next++;
+            if (capturing && captureEnd == Long.MAX_VALUE && nowMs >= captureEndMs)
+                captureEnd = next;  // this is the last frame of the window
+            lock.notifyAll();
+        }
+
+        if (!Float.isNaN(thresholdDbfs))
+            checkPower(view, arrays, channels, channelLength);
+    }
+
+    // Returns the ring offset for a frame of length bytes, evicting the oldest frames as needed, or -1
+    // if that would evict a frame not yet saved
+    private int allocate(int length) {
+        if (length > ring.capacity())
+            return -1;
+        while (true) {
+            if (next == oldest) {
+                head = 0;
+                tail = 0;
+            }
+            boolean full = next - oldest == slots.length;
+            int start = tail + length <= ring.capacity() ? tail : 0;
+            if (!full) {
+                if (next == oldest)
+                    return 0;
+                if (head < tail) {  // free space is [tail, capacity) and [0, head)
+                    if (start == tail || length <= head)
+                        return start;
+                } else if (start == tail && tail + length <= head) {  // free space is [tail, head)
+                    return start;
+                }
+            }
+            if (!evictOldest())
+                return -1;
+        }
+    }
+
+    private boolean evictOldest() {
+        if (next == oldest || (capturing && oldest >= flushed))
+            return false;
+        oldest++;
+        head = next == oldest ? tail : slots[(int) (oldest % slots.length)].offset;
+        return true;
+    }
+
+    private void evictOlderThan(long cutoffMs) {
+        while (next != oldest && slots[(int) (oldest % slots.length)].arrivalMs < cutoffMs && evictOldest()) {
+            // evicted
+        }
+    }
+
+    private void checkPower(FloatBuffer view, float[][] arrays, int channels, int channelLength) {
+        int stride = Math.max(1, channelLength / (2 * POWER_SAMPLES)) * 2;
+        double limit = Math.pow(10, thresholdDbfs / 10);
+        boolean above = false;
+        for (int ch = 0; ch < channels && !above; ch++) {
+            double power = 0;
+            int count = 0;
+            for (int k = 0; k + 1 < channelLength; k += stride) {
+                float i = view != null ? view.get(ch * channelLength + k) : arrays[ch][k];
+                float q = view != null ? view.get(ch * channelLength + k + 1) : arrays[ch][k + 1];
+                power += i * i + q * q;
+                count++;
+            }
+            above = count > 0 && power / count >= limit;
+        }
+        if (above && !aboveThreshold)
+            trigger(String.format(Locale.US, "power above %.1f dBFS", thresholdDbfs));
+        aboveThreshold = above;
+    }
+
+    /**
+     * Saves the buffered history and the post-trigger window that follows.  Ignored while a capture
+     * is still being saved.
+     *
+     * @return false if a capture was already in progress
+     */
+    public boolean trigger(@NonNull String reason) {
+        long nowMs = System.currentTimeMillis();
+        synchronized (lock) {
+            if (capturing) {
+                Log.i(TAG, "Trigger (" + reason + ") ignored, capture in progress");
+                return false;
+            }
+            capturing = true;
+            flushed = oldest;
+            captureEnd = Long.MAX_VALUE;
+            captureEndMs = nowMs + postTriggerMs;
+            captures++;
+        }
+        String name = "capture_" + new SimpleDateFormat("yyyyMMdd_HHmmss_SSS", Locale.US).format(new Date(nowMs));
+        Log.i(TAG, "Triggered (" + reason + "), saving " + name);
+        try {
+            writer.execute(() -> save(name, reason));
+        } catch (RuntimeException e) {
+            synchronized (lock) {
+                capturing = false;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    // Writer thread
+    private void save(String name, String reason) {
+        IqRecorder recorder = null;
+        long frames = 0;
+        try {
+            recorder = new IqRecorder(directory, name);
+            while (true) {
+                Slot slot;
+                FloatBuffer payload;
+                synchronized (lock) {
+                    while (flushed == next && flushed < captureEnd) {
+                        long waitMs = captureEndMs - System.currentTimeMillis();
+                        if (waitMs <= 0) {
+                            captureEnd = next;  // no more frames arrived within the window
+                            break;
+                        }
+                        lock.wait(waitMs);
+                    }
+                    if (flushed >= captureEnd)
+                        break;
+                    slot = slots[(int) (flushed % slots.length)];
+                    ByteBuffer bytes = ring.duplicate();
+                    bytes.limit(slot.offset + slot.length).position(slot.offset);
+                    payload = bytes.slice().order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+                }
+                // The slot stays pinned until flushed advances, so the ring region cannot be reused
+                recorder.record(payload, slot.header);
+                frames++;
+                synchronized (lock) {
+                    flushed++;
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Capture " + name + " failed", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (recorder != null) {
+                try {
+                    recorder.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "Error closing capture " + name, e);
+                }
+            }
+            synchronized (lock) {
+                capturing = false;
+            }
+        }
+        Log.i(TAG, "Capture " + name + " saved, " + frames + " frames");
+        CaptureListener target = listener;
+        if (target != null && recorder != null)
+            target.onCaptureSaved(recorder.getDataFile(), frames, reason);
+    }
+
+    /** Stops the writer after the capture in progress, if any, is saved. */
+    public void shutdown() {
+        writer.shutdown();
+    }
+}
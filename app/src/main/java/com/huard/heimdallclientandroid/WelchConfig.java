@@ -0,0 +1,59 @@
+package com.huard.heimdallclientandroid;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Immutable settings for {@link WelchEstimator}.
+ */
+public class WelchConfig {
+
+    public enum Averaging {
+        /** Each frame's Welch estimate stands alone. */
+        NONE,
+        /** Exponential moving average across frames with weight {@code alpha} on the newest. */
+        EXPONENTIAL,
+        /** Mean of the last {@code blockFrames} frames' estimates. */
+        BLOCK
+    }
+
+    public final int fftSize;
+    public final float overlap;
+    public final WindowFunction window;
+    public final Averaging averaging;
+    public final float alpha;
+    public final int blockFrames;
+
+    /**
+     * @param fftSize     segment length, a power of two
+     * @param overlap     fraction of each segment shared with the next, in [0, 1)
+     * @param alpha       weight of the newest frame for EXPONENTIAL averaging, in (0, 1]
+     * @param blockFrames number of frames averaged for BLOCK averaging
+     */
+    public WelchConfig(int fftSize, float overlap, @NonNull WindowFunction window,
+                       @NonNull Averaging averaging, float alpha, int blockFrames) {
+        if (fftSize < 2 || Integer.bitCount(fftSize) != 1)
+            throw new IllegalArgumentException("FFT size must be a power of two");
+        if (overlap < 0f || overlap >= 1f)
+            throw new IllegalArgumentException("Overlap must be in [0, 1)");
+        if (averaging == Averaging.EXPONENTIAL && (alpha <= 0f || alpha > 1f))
+            throw new IllegalArgumentException("Alpha must be in (0, 1]");
+        if (averaging == Averaging.BLOCK && blockFrames < 1)
+            throw new IllegalArgumentException("Block averaging needs at least one frame");
+        this.fftSize = fftSize;
+        this.overlap = overlap;
+        this.window = window;
+        this.averaging = averaging;
+        this.alpha = alpha;
+        this.blockFrames = blockFrames;
+    }
+
+    /** Hann window, 50% overlap, no cross-frame averaging. */
+    public WelchConfig(int fftSize) {
+        this(fftSize, 0.5f, WindowFunction.HANN, Averaging.NONE, 1f, 1);
+    }
+
+    /** Samples between the starts of consecutive segments. */
+    public int getHop() {
+        return Math.max(1, Math.round(fftSize * (1f - overlap)));
+    }
+}
@@ -0,0 +1,141 @@
+package com.huard.heimdallclientandroid;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+
+/**
+ * Welch power spectral density estimate for one channel.
+ * <p>
+ * The CPI is split into overlapping windowed segments of {@link WelchConfig#fftSize} samples whose
+ * periodograms are averaged, trading resolution for a much lower-variance noise floor at a fraction
+ * of the cost of one CPI-length FFT.  Estimates can further be averaged across frames; that state
+ * lives in primitive accumulators, so one estimator must be used per channel and per thread.
+ * Bin powers are normalized by the window energy, so with a rectangular window and one segment
+ * the result equals the plain periodogram.
+ */
+public class WelchEstimator {
+    private final WelchConfig config;
+    private final SpectrumEngine engine = new SpectrumEngine();
+    private final float[] window;
+    private final float windowEnergy;
+    private final float[] segment;
+    private final float[] framePower;
+    private final float[] averagePower;
+
+    // BLOCK averaging: ring of recent frame estimates and their running sum
+    private final float[][] history;
+    private final double[] historySum;
+    private int historyIndex;
+    private int historyCount;
+    private boolean primed;
+
+    public WelchEstimator(@NonNull WelchConfig config) {
+        this.config = config;
+        int n = config.fftSize;
+        this.window = config.window.coefficients(n);
+        float energy = 0f;
+        for (float w : window) {
+            energy += w * w;
+        }
+        this.windowEnergy = energy;
+        this.segment = new float[2 * n];
+        this.framePower = new float[n];
+        this.averagePower = new float[n];
+        if (config.averaging == WelchConfig.Averaging.BLOCK) {
+            this.history = new float[config.blockFrames][n];
+            this.historySum = new double[n];
+        } else {
+            this.history = null;
+            this.historySum = null;
+        }
+    }
+
+    public WelchConfig getConfig() {
+        return config;
+    }
+
+    /** Forgets any cross-frame average, e.g. after retuning. */
+    public void reset() {
+        primed = false;
+        historyIndex = 0;
+        historyCount = 0;
+        if (historySum != null)
+            Arrays.fill(historySum, 0);
+    }
+
+    /**
+     * Estimates the spectrum of {@code cpiLength} interleaved complex samples and writes it in dBm,
+     * shifted to run from -fs/2 to +fs/2, into the first {@code fftSize} entries of {@code powerDBm}.
+     * A CPI shorter than the FFT size is zero-padded.
+     *
+     * @return the peak power in dBm across all bins
+     */
+    public float estimate(@NonNull float[] iq, int cpiLength, @NonNull float[] powerDBm) {
+        int n = config.fftSize;
+        int hop = config.getHop();
+        int segments = cpiLength >= n ? 1 + (cpiLength - n) / hop : 1;
+
+        Arrays.fill(framePower, 0f);
+        for (int s = 0; s < segments; s++) {
+            int start = s * hop;
+            int available = Math.min(n, cpiLength - start);
+            for (int i = 0; i < available; i++) {
+                float w = window[i];
+                segment[2 * i] = iq[2 * (start + i)] * w;
+                segment[2 * i + 1] = iq[2 * (start + i) + 1] * w;
+            }
+            Arrays.fill(segment, 2 * available, 2 * n, 0f);
+
+            engine.forwardInPlace(segment, n);
+            for (int i = 0; i < n; i++) {
+                float re = segment[2 * i];
+                float im = segment[2 * i + 1];
+                framePower[i] += re * re + im * im;
+            }
+        }
+
+        float scale = 1f / (segments * windowEnergy);
+        for (int i = 0; i < n; i++) {
+            framePower[i] *= scale;
+        }
+
+        return SpectrumEngine.shiftToDBm(average(framePower), n, powerDBm);
+    }
+
+    private float[] average(float[] power) {
+        int n = power.length;
+        switch (config.averaging) {
+            case EXPONENTIAL:
+                if (!primed) {
+                    System.arraycopy(power, 0, averagePower, 0, n);
+                    primed = true;
+                } else {
+                    float alpha = config.alpha;
+                    for (int i = 0; i < n; i++) {
+                        averagePower[i] += alpha * (power[i] - averagePower[i]);
+                    }
+                }
+                return averagePower;
+            case BLOCK:
+                float[] slot = history[historyIndex];
+                boolean full = historyCount == history.length;
+                for (int i = 0; i < n; i++) {
+                    if (full)
+                        historySum[i] -= slot[i];
+                    historySum[i] += power[i];
+                    slot[i] = power[i];
+                }
+                historyIndex = (historyIndex + 1) % history.length;
+                if (!full)
+                    historyCount++;
+                for (int i = 0; i < n; i++) {
+                    averagePower[i] = (float) (historySum[i] / historyCount);
+                }
+                return averagePower;
+            case NONE:
+            default:
+                return power;
+        }
+    }
+}
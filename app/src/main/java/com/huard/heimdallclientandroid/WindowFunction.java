@@ -0,0 +1,50 @@
+package com.huard.heimdallclientandroid;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Periodic FFT window functions.  Coefficient tables are computed once per length and shared, so
+ * callers must treat the returned arrays as read-only.
+ */
+public enum WindowFunction {
+    RECTANGULAR(new double[]{1.0}),
+    HANN(new double[]{0.5, 0.5}),
+    BLACKMAN_HARRIS(new double[]{0.35875, 0.48829, 0.14128, 0.01168}),
+    FLAT_TOP(new double[]{0.21557895, 0.41663158, 0.277263158, 0.083578947, 0.006947368});
+
+    // Cosine-sum terms: w[i] = a0 - a1 cos(2 pi i / n) + a2 cos(4 pi i / n) - ...
+    private final double[] terms;
+    private final ConcurrentHashMap<Integer, float[]> tables = new ConcurrentHashMap<>();
+
+    WindowFunction(double[] terms) {
+        this.terms = terms;
+    }
+
+    /** The n-point coefficient table, computed on first use. */
+    @NonNull
+    public float[] coefficients(int n) {
+        float[] table = tables.get(n);
+        if (table == null) {
+            table = compute(n);
+            float[] existing = tables.putIfAbsent(n, table);
+            if (existing != null)
+                table = existing;
+        }
+        return table;
+    }
+
+    private float[] compute(int n) {
+        float[] table = new float[n];
+        for (int i = 0; i < n; i++) {
+            double value = 0;
+            for (int k = 0; k < terms.length; k++) {
+                double term = terms[k] * Math.cos(2 * Math.PI * k * i / n);
+                value += (k % 2 == 0) ? term : -term;
+            }
+            table[i] = (float) value;
+        }
+        return table;
+    }
+}
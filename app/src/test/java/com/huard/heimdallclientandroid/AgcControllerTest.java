@@ -0,0 +1,87 @@
+package com.huard.heimdallclientandroid;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class AgcControllerTest {
+    private static final int CHANNELS = 5;
+    private static final int CPI_LENGTH = 1024;
+
+    private final HeaderIQ header = new HeaderIQ();
+
+    @Test
+    public void overdrive_dropsOnlyFlaggedChannelAndWaitsForNewGains() {
+        AgcController agc = new AgcController(null, new int[]{496, 496, 496, 496, 496});
+        float[][] samples = tone(0.5f, 0.5f, 0.5f, 0.5f, 0.5f);
+        setHeader(agc.getGains(), 1 << 2);
+
+        int[] gains = agc.evaluate(samples, header, 0);
+        assertNotNull(gains);
+        assertArrayEquals(new int[]{496, 496, 439, 496, 496}, gains);
+
+        // Frames still reporting the old gains were captured before the change
+        assertNull(agc.evaluate(samples, header, 500));
+
+        setHeader(gains, 1 << 2);
+        assertArrayEquals(new int[]{496, 496, 402, 496, 496}, agc.evaluate(samples, header, 600));
+        assertEquals(2, agc.getChangeCount());
+    }
+
+    @Test
+    public void levels_stepWithConfirmationAndHysteresis() {
+        AgcController agc = new AgcController(null, new int[]{254, 254, 254, 254, 254});
+        // channel 0 clips, channel 1 is weak, channel 2 sits between the thresholds
+        float[][] samples = tone(0.95f, 0.01f, 0.3f, 0.3f, 0.3f);
+        setHeader(agc.getGains(), 0);
+
+        long now = 10_000;
+        for (int i = 1; i < AgcController.CONFIRMATIONS; i++) {
+            assertNull(agc.evaluate(samples, header, now));
+            now += AgcController.EVALUATION_INTERVAL_MS;
+        }
+        int[] gains = agc.evaluate(samples, header, now);
+        assertArrayEquals(new int[]{229, 280, 254, 254, 254}, gains);
+
+        // After settling, the weak channel may only rise again once the release hold has passed
+        setHeader(gains, 0);
+        samples = tone(0.5f, 0.01f, 0.3f, 0.3f, 0.3f);
+        int[] next = null;
+        long changedAt = now;
+        while (next == null) {
+            now += AgcController.EVALUATION_INTERVAL_MS;
+            next = agc.evaluate(samples, header, now);
+        }
+        assertArrayEquals(new int[]{229, 297, 254, 254, 254}, next);
+        assertEquals(changedAt + AgcController.RELEASE_HOLD_MS, now);
+    }
+
+    @Test
+    public void gainTableLimits_stopFurtherCommands() {
+        AgcController agc = new AgcController(null, new int[]{0, 0, 0, 0, 0});
+        setHeader(agc.getGains(), 0x1F);
+        assertNull(agc.evaluate(tone(1f, 1f, 1f, 1f, 1f), header, 0));
+        assertEquals(0, agc.getChangeCount());
+    }
+
+    private void setHeader(int[] gains, int overdriveFlags) {
+        header.setReplayFrame(CHANNELS, CPI_LENGTH, 0, 0, 2_409_000_000L, 2_400_000L);
+        header.setIfGains(gains);
+        header.setAdcOverdriveFlags(overdriveFlags);
+    }
+
+    private static float[][] tone(float... amplitudes) {
+        float[][] samples = new float[amplitudes.length][2 * CPI_LENGTH];
+        for (int ch = 0; ch < amplitudes.length; ch++) {
+            for (int k = 0; k < CPI_LENGTH; k++) {
+                double phase = 2 * Math.PI * k / 16.0;
+                samples[ch][2 * k] = (float) (amplitudes[ch] * Math.cos(phase));
+                samples[ch][2 * k + 1] = (float) (amplitudes[ch] * Math.sin(phase));
+            }
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,113 @@
+package com.huard.heimdallclientandroid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+public class ChannelCalibratorTest {
+    private static final int CHANNELS = 5;
+    private static final int CPI = 4096;
+    private static final long FREQUENCY_HZ = 433_000_000L;
+    private static final float[] GAINS = {1f, 0.5f, 2f, 1.2f, 0.8f};
+    private static final double[] PHASES = {0, 0.7, -2.1, 3.0, 1.4};
+
+    /** The same noise on every channel, with each channel's gain and phase offset applied. */
+    private static float[][] noiseSource(Random random) {
+        float[][] iq = new float[CHANNELS][2 * CPI];
+        for (int k = 0; k < CPI; k++) {
+            double re = random.nextGaussian();
+            double im = random.nextGaussian();
+            for (int ch = 0; ch < CHANNELS; ch++) {
+                double cos = GAINS[ch] * Math.cos(PHASES[ch]);
+                double sin = GAINS[ch] * Math.sin(PHASES[ch]);
+                iq[ch][2 * k] = (float) (re * cos - im * sin);
+                iq[ch][2 * k + 1] = (float) (re * sin + im * cos);
+            }
+        }
+        return iq;
+    }
+
+    private static HeaderIQ header(int frameType, long frequencyHz, int gain) {
+        HeaderIQ header = new HeaderIQ();
+        header.setReplayFrame(CHANNELS, CPI, 0, 0, frequencyHz, 2_400_000L);
+        header.setFrameType(frameType);
+        header.setIfGains(new int[]{gain, gain, gain, gain, gain});
+        return header;
+    }
+
+    private static FloatBuffer channelMajor(float[][] iq) {
+        FloatBuffer buffer = FloatBuffer.allocate(CHANNELS * 2 * CPI);
+        for (float[] channel : iq) {
+            buffer.put(channel);
+        }
+        buffer.rewind();
+        return buffer;
+    }
+
+    @Test
+    public void correctedDataFramesMatchReferenceChannel() {
+        ChannelCalibrator calibrator = new ChannelCalibrator();
+        Random random = new Random(1);
+        assertTrue(calibrator.calibrate(noiseSource(random), header(HeaderIQ.FRAME_TYPE_CAL, FREQUENCY_HZ, 280)));
+
+        HeaderIQ data = header(HeaderIQ.FRAME_TYPE_DATA, FREQUENCY_HZ, 280);
+        float[] correction = calibrator.getCorrection(data);
+        assertNotNull(correction);
+        float[][] signal = noiseSource(random);
+        IqFramePool pool = new IqFramePool();
+        IqFrame fromArrays = pool.acquire(CHANNELS, CPI);
+        IqFrame fromBuffer = pool.acquire(CHANNELS, CPI);
+        fromArrays.fill(signal, data, correction);
+        fromBuffer.fill(channelMajor(signal), data, correction);
+        for (int ch = 1; ch < CHANNELS; ch++) {
+            for (int k = 0; k < 2 * CPI; k += 97) {
+                assertEquals(signal[0][k], fromArrays.getSamples()[ch][k], 1e-3f);
+                assertEquals(signal[0][k], fromBuffer.getSamples()[ch][k], 1e-3f);
+            }
+        }
+        fromArrays.release();
+        fromBuffer.release();
+    }
+
+    @Test
+    public void correctionsAreCachedPerTuning() {
+        ChannelCalibrator calibrator = new ChannelCalibrator();
+        Random random = new Random(2);
+        assertTrue(calibrator.calibrate(channelMajor(noiseSource(random)), header(HeaderIQ.FRAME_TYPE_CAL, FREQUENCY_HZ, 280)));
+        float[] correction = calibrator.getCorrection(header(HeaderIQ.FRAME_TYPE_DATA, FREQUENCY_HZ, 280));
+        assertNotNull(correction);
+
+        // Other gains at the same frequency fall back to its corrections; another frequency has none
+        assertSame(correction, calibrator.getCorrection(header(HeaderIQ.FRAME_TYPE_DATA, FREQUENCY_HZ, 400)));
+        assertNull(calibrator.getCorrection(header(HeaderIQ.FRAME_TYPE_DATA, FREQUENCY_HZ + 1_000_000L, 280)));
+
+        assertTrue(calibrator.calibrate(noiseSource(random), header(HeaderIQ.FRAME_TYPE_CAL, FREQUENCY_HZ, 400)));
+        float[] atNewGain = calibrator.getCorrection(header(HeaderIQ.FRAME_TYPE_DATA, FREQUENCY_HZ, 400));
+        assertTrue(atNewGain != correction);
+        assertSame(correction, calibrator.getCorrection(header(HeaderIQ.FRAME_TYPE_DATA, FREQUENCY_HZ, 280)));
+        assertEquals(2, calibrator.getCalibrationCount());
+    }
+
+    @Test
+    public void incoherentFrameIsRejected() {
+        ChannelCalibrator calibrator = new ChannelCalibrator();
+        Random random = new Random(3);
+        float[][] independent = new float[CHANNELS][2 * CPI];
+        for (float[] channel : independent) {
+            for (int k = 0; k < channel.length; k++) {
+                channel[k] = (float) random.nextGaussian();
+            }
+        }
+        assertFalse(calibrator.calibrate(independent, header(HeaderIQ.FRAME_TYPE_CAL, FREQUENCY_HZ, 280)));
+        assertNull(calibrator.getCorrection(header(HeaderIQ.FRAME_TYPE_DATA, FREQUENCY_HZ, 280)));
+        assertEquals(1, calibrator.getRejectionCount());
+    }
+}
@@ -0,0 +1,141 @@
+package com.huard.heimdallclientandroid;
+
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class ConnectionManagerTest {
+    private static final int CHANNELS = 5;
+
+    @Test
+    public void units_streamOnOneThreadWithFramesTaggedBySource() throws Exception {
+        try (HeimdallSimulator first = new HeimdallSimulator(); HeimdallSimulator second = new HeimdallSimulator()) {
+            first.setPayload(CHANNELS, 1024).setUnit(1, "kraken-a");
+            second.setPayload(CHANNELS, 4096).setUnit(2, "kraken-b");
+            CountDownLatch firstFrames = new CountDownLatch(20);
+            CountDownLatch secondFrames = new CountDownLatch(20);
+            AtomicInteger mismatches = new AtomicInteger();
+            Set<Thread> threads = ConcurrentHashMap.newKeySet();
+            ConnectionManager manager = new ConnectionManager((unit, payload, header) -> {
+                threads.add(Thread.currentThread());
+                boolean fromFirst = unit.getDataPort() == first.getDataPort();
+                if (header.getUnitId() != (fromFirst ? 1 : 2)
+                        || payload.limit() != CHANNELS * header.getCpiLength() * 2)
+                    mismatches.incrementAndGet();
+                (fromFirst ? firstFrames : secondFrames).countDown();
+            });
+            ConnectionManager.Unit a = manager.addUnit("localhost", first.getDataPort(), 0);
+            ConnectionManager.Unit b = manager.addUnit("localhost", second.getDataPort(), 0);
+            b.setRequestWindow(4);
+
+            manager.start();
+            assertTrue(firstFrames.await(10, TimeUnit.SECONDS));
+            assertTrue(secondFrames.await(10, TimeUnit.SECONDS));
+            manager.stop();
+
+            assertEquals(0, mismatches.get());
+            assertEquals(1, threads.size());
+            assertEquals(1, a.getUnitId());
+            assertEquals("kraken-a", a.getHardwareId());
+            assertEquals(2, b.getUnitId());
+            assertEquals("kraken-b", b.getHardwareId());
+            assertEquals(0, a.getSequencer().getMissingCount());
+        }
+    }
+
+    @Test
+    public void controlCommands_areAnsweredPerUnit() throws Exception {
+        try (HeimdallSimulator first = new HeimdallSimulator(); HeimdallSimulator second = new HeimdallSimulator()) {
+            ConnectionManager manager = new ConnectionManager((unit, payload, header) -> { });
+            ConnectionManager.Unit a = manager.addUnit("localhost", first.getDataPort(), first.getControlPort());
+            ConnectionManager.Unit b = manager.addUnit("localhost", second.getDataPort(), second.getControlPort());
+            manager.start();
+
+            ControlClient.Reply frequency = a.sendFrequency(433.5f).get(5, TimeUnit.SECONDS);
+            ControlClient.Reply gain = b.sendGain(new int[]{496, 496, 300, 0, 0}).get(5, TimeUnit.SECONDS);
+            manager.stop();
+
+            assertEquals("FREQ", frequency.getCommand());
+            assertEquals("FNSD", frequency.getResponse());
+            assertEquals("GAIN", gain.getCommand());
+            assertEquals(433_500_000L, first.getCenterFrequency());
+            assertArrayEquals(new int[]{496, 496, 297, 0, 0}, second.getGains());
+            assertEquals(0, first.getControlCommands().indexOf("FREQ"));
+            assertFalse(second.getControlCommands().contains("FREQ"));
+        }
+    }
+
+    @Test
+    public void saturatedUnit_doesNotStarveOtherUnits() throws Exception {
+        try (HeimdallSimulator fast = new HeimdallSimulator(); HeimdallSimulator other = new HeimdallSimulator()) {
+            fast.setPayload(CHANNELS, 1 << 16);
+            CountDownLatch streaming = new CountDownLatch(5);
+            ConnectionManager manager = new ConnectionManager((unit, payload, header) -> {
+                streaming.countDown();
+                try {
+                    Thread.sleep(2);  // slower than the link, so the fast unit's socket never drains
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            manager.addUnit("localhost", fast.getDataPort(), 0).setRequestWindow(16);
+            ConnectionManager.Unit b = manager.addUnit("localhost", other.getDataPort(), other.getControlPort());
+            manager.start();
+            assertTrue(streaming.await(10, TimeUnit.SECONDS));
+
+            assertEquals("FNSD", b.sendInit().get(3, TimeUnit.SECONDS).getResponse());
+            manager.stop();
+        }
+    }
+
+    @Test
+    public void stoppedManager_failsCommandsUntilRestarted() throws Exception {
+        try (HeimdallSimulator simulator = new HeimdallSimulator()) {
+            simulator.setPayload(CHANNELS, 1024);
+            AtomicInteger received = new AtomicInteger();
+            ConnectionManager manager = new ConnectionManager((unit, payload, header) -> received.incrementAndGet());
+            ConnectionManager.Unit unit = manager.addUnit("localhost", simulator.getDataPort(), simulator.getControlPort());
+            manager.start();
+            assertEquals("FNSD", unit.sendInit().get(5, TimeUnit.SECONDS).getResponse());
+            manager.stop();
+
+            CompletableFuture<ControlClient.Reply> afterStop = unit.sendInit();
+            assertTrue(afterStop.isCompletedExceptionally());
+
+            manager.start();
+            assertEquals("FNSD", unit.sendInit().get(5, TimeUnit.SECONDS).getResponse());
+            int before = received.get();
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (received.get() <= before && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            manager.stop();
+
+            assertTrue(received.get() > before);
+            assertEquals(2, simulator.getDataConnectionCount());
+        }
+    }
+
+    @Test
+    public void midStreamDisconnect_unitReconnects() throws Exception {
+        try (HeimdallSimulator simulator = new HeimdallSimulator()) {
+            simulator.setPayload(CHANNELS, 1024).setDisconnectAfterFrames(10);
+            CountDownLatch received = new CountDownLatch(25);
+            ConnectionManager manager = new ConnectionManager((unit, payload, header) -> received.countDown());
+            manager.addUnit("localhost", simulator.getDataPort(), 0).setRequestWindow(4);
+
+            manager.start();
+            assertTrue(received.await(10, TimeUnit.SECONDS));
+            manager.stop();
+
+            assertTrue(simulator.getDataConnectionCount() >= 3);
+        }
+    }
+}
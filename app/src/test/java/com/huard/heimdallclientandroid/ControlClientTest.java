@@ -0,0 +1,95 @@
+package com.huard.heimdallclientandroid;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class ControlClientTest {
+
+    @Test
+    public void batch_pipelinesCommandsWithoutExplicitConnect() throws Exception {
+        try (HeimdallSimulator simulator = new HeimdallSimulator()) {
+            ControlClient control = new ControlClient(null, "localhost", simulator.getControlPort());
+            ControlClient.Batch batch = control.batch();
+            CompletableFuture<ControlClient.Reply> gain = batch.gain(new int[]{496, 496, 300, 0, 0});
+            CompletableFuture<ControlClient.Reply> frequency = batch.frequency(433.5f);
+            CompletableFuture<ControlClient.Reply> squelch = batch.squelchThreshold(0.5f);
+            CompletableFuture<ControlClient.Reply> init = batch.init();
+            batch.send();
+
+            List<CompletableFuture<ControlClient.Reply>> replies = Arrays.asList(gain, frequency, squelch, init);
+            CompletableFuture.allOf(gain, frequency, squelch, init).get(5, TimeUnit.SECONDS);
+            String[] names = {"GAIN", "FREQ", "STHU", "INIT"};
+            for (int i = 0; i < replies.size(); i++) {
+                ControlClient.Reply reply = replies.get(i).get();
+                assertEquals(names[i], reply.getCommand());
+                assertEquals("FNSD", reply.getResponse());
+                assertFalse(reply.isSkipped());
+                assertTrue(reply.getRoundTripNanos() > 0);
+            }
+            assertEquals(Arrays.asList(names), simulator.getControlCommands());
+            assertEquals(433_500_000L, simulator.getCenterFrequency());
+            assertArrayEquals(new int[]{496, 496, 297, 0, 0}, simulator.getGains());
+            control.disconnect();
+        }
+    }
+
+    @Test
+    public void redundantSettings_areSkippedUntilTheSessionEnds() throws Exception {
+        try (HeimdallSimulator simulator = new HeimdallSimulator()) {
+            ControlClient control = new ControlClient(null, "localhost", simulator.getControlPort());
+            control.sendFrequency(433.5f).get(5, TimeUnit.SECONDS);
+            control.sendGain(new int[]{496, 496, 496, 496, 496}).get(5, TimeUnit.SECONDS);
+
+            assertTrue(control.sendFrequency(433.5f).get(5, TimeUnit.SECONDS).isSkipped());
+            assertTrue(control.sendGain(new int[]{490, 496, 496, 496, 496}).get(5, TimeUnit.SECONDS).isSkipped());
+            assertFalse(control.sendFrequency(868f).get(5, TimeUnit.SECONDS).isSkipped());
+            assertEquals(Arrays.asList("FREQ", "GAIN", "FREQ"), simulator.getControlCommands());
+
+            // The server closes the session after EXIT; the next command reconnects and resends
+            assertEquals("FNSD", control.sendExit().get(5, TimeUnit.SECONDS).getResponse());
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (control.isConnected() && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertFalse(control.isConnected());
+            assertFalse(control.sendFrequency(868f).get(5, TimeUnit.SECONDS).isSkipped());
+            assertEquals(Arrays.asList("FREQ", "GAIN", "FREQ", "EXIT", "FREQ"), simulator.getControlCommands());
+            control.disconnect();
+        }
+    }
+
+    @Test
+    public void slowReply_afterIdleSession_isAwaitedFromItsCommand() throws Exception {
+        try (HeimdallSimulator simulator = new HeimdallSimulator()) {
+            simulator.setControlLatencyMs(2500);  // several reader polls, with the reply split across them
+            ControlClient control = new ControlClient(null, "localhost", simulator.getControlPort());
+            control.connect();
+            Thread.sleep(4000);  // most of a reply timeout with the reader idle
+
+            ControlClient.Reply reply = control.sendInit().get(10, TimeUnit.SECONDS);
+            assertEquals("FNSD", reply.getResponse());
+            assertTrue(reply.getRoundTripNanos() >= TimeUnit.MILLISECONDS.toNanos(2500));
+            assertTrue(control.isConnected());
+            control.disconnect();
+        }
+    }
+
+    @Test(expected = java.util.concurrent.ExecutionException.class)
+    public void unreachableServer_failsTheCommand() throws Exception {
+        int port;
+        try (HeimdallSimulator simulator = new HeimdallSimulator()) {
+            port = simulator.getControlPort();
+        }
+        ControlClient control = new ControlClient(null, "localhost", port);
+        control.sendInit().get(10, TimeUnit.SECONDS);
+    }
+}
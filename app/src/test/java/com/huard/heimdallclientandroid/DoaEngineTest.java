@@ -0,0 +1,113 @@
+package com.huard.heimdallclientandroid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class DoaEngineTest {
+    private static final long FREQUENCY_HZ = 433_000_000L;
+    private static final int CPI = 8192;
+
+    /** A random-phase source arriving from {@code bearingDeg}, plus independent noise per element. */
+    private static float[][] planeWave(ArrayGeometry geometry, double bearingDeg, double noise, Random random) {
+        int m = geometry.getElementCount();
+        double waveNumber = 2 * Math.PI * FREQUENCY_HZ / 299_792_458.0;
+        double theta = Math.toRadians(bearingDeg);
+        float[][] iq = new float[m][2 * CPI];
+        for (int k = 0; k < CPI; k++) {
+            double signalPhase = 2 * Math.PI * random.nextDouble();
+            for (int i = 0; i < m; i++) {
+                double phase = signalPhase
+                        + waveNumber * (geometry.getX(i) * Math.cos(theta) + geometry.getY(i) * Math.sin(theta));
+                iq[i][2 * k] = (float) (Math.cos(phase) + noise * random.nextGaussian());
+                iq[i][2 * k + 1] = (float) (Math.sin(phase) + noise * random.nextGaussian());
+            }
+        }
+        return iq;
+    }
+
+    private static DoaEngine.Result estimate(ArrayGeometry geometry, float[][]... frames) throws InterruptedException {
+        CountDownLatch updates = new CountDownLatch(1);
+        AtomicReference<DoaEngine.Result> last = new AtomicReference<>();
+        DoaEngine engine = new DoaEngine(geometry, 1f, result -> {
+            if (result.getFrameCount() == frames.length) {
+                last.set(result);
+                updates.countDown();
+            }
+        });
+        for (float[][] frame : frames) {
+            engine.observe(frame, CPI, FREQUENCY_HZ);
+        }
+        assertTrue(updates.await(5, TimeUnit.SECONDS));
+        engine.shutdown();
+        return last.get();
+    }
+
+    private static float angleError(float a, float b) {
+        float difference = Math.abs(a - b) % 360;
+        return Math.min(difference, 360 - difference);
+    }
+
+    @Test
+    public void circularArray_findsBearingOverFullCircle() throws Exception {
+        ArrayGeometry uca = ArrayGeometry.uniformCircular(5, 0.2);
+        Random random = new Random(1);
+        for (double bearing : new double[]{37, 221}) {
+            DoaEngine.Result result = estimate(uca, planeWave(uca, bearing, 0.3, random), planeWave(uca, bearing, 0.3, random));
+            assertTrue("MUSIC " + result.getMusicBearingDeg(), angleError(result.getMusicBearingDeg(), (float) bearing) <= 1);
+            assertTrue("Bartlett " + result.getBartlettBearingDeg(), angleError(result.getBartlettBearingDeg(), (float) bearing) <= 2);
+            assertEquals(0f, result.getMusicDB()[Math.round((float) bearing)], 3f);
+        }
+    }
+
+    @Test
+    public void linearArray_musicPeakIsSharperThanBartlett() throws Exception {
+        ArrayGeometry ula = ArrayGeometry.uniformLinear(5, 0.3);  // about half a wavelength at 433 MHz
+        DoaEngine.Result result = estimate(ula, planeWave(ula, 60, 0.1, new Random(2)));
+        assertTrue("MUSIC " + result.getMusicBearingDeg(), angleError(result.getMusicBearingDeg(), 60) <= 1);
+        assertTrue("Bartlett " + result.getBartlettBearingDeg(), angleError(result.getBartlettBearingDeg(), 60) <= 2);
+        // 10 degrees off the source the MUSIC null is far deeper than the Bartlett beam's roll-off
+        assertTrue(result.getMusicDB()[70] < result.getBartlettDB()[70] - 10);
+    }
+
+    @Test
+    public void hermitianEigen_reconstructsEigenpairs() {
+        int n = 5;
+        Random random = new Random(3);
+        double[] re = new double[n * n];
+        double[] im = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            re[i * n + i] = random.nextGaussian();
+            for (int j = i + 1; j < n; j++) {
+                re[i * n + j] = re[j * n + i] = random.nextGaussian();
+                im[i * n + j] = random.nextGaussian();
+                im[j * n + i] = -im[i * n + j];
+            }
+        }
+        double[] values = new double[n];
+        double[] vRe = new double[n * n];
+        double[] vIm = new double[n * n];
+        new HermitianEigen(n).decompose(re, im, values, vRe, vIm);
+
+        for (int k = 0; k < n; k++) {
+            if (k > 0)
+                assertTrue(values[k] >= values[k - 1]);
+            for (int i = 0; i < n; i++) {
+                double avRe = 0;
+                double avIm = 0;
+                for (int j = 0; j < n; j++) {
+                    avRe += re[i * n + j] * vRe[j * n + k] - im[i * n + j] * vIm[j * n + k];
+                    avIm += re[i * n + j] * vIm[j * n + k] + im[i * n + j] * vRe[j * n + k];
+                }
+                assertEquals(values[k] * vRe[i * n + k], avRe, 1e-9);
+                assertEquals(values[k] * vIm[i * n + k], avIm, 1e-9);
+            }
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.huard.heimdallclientandroid;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.channels.Channels;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the direct-buffer channel frame path against the InputStream path.  Throughput of both
+ * is measured by PayloadDecodeBenchmark in the JMH module.
+ */
+public class FrameReaderTest {
+    private static final int CHANNELS = 5;
+
+    @Test
+    public void channelReader_matchesStreamReader() throws IOException {
+        byte[] stream = TestFrames.frames(2, CHANNELS, 256);
+        StreamFrameReader streamReader = new StreamFrameReader(new ByteArrayInputStream(stream));
+        ChannelFrameReader channelReader = new ChannelFrameReader(Channels.newChannel(new ByteArrayInputStream(stream)));
+        HeaderIQ streamHeader = new HeaderIQ();
+        HeaderIQ channelHeader = new HeaderIQ();
+
+        for (int frame = 0; frame < 2; frame++) {
+            assertTrue(streamReader.readHeader(streamHeader));
+            assertTrue(channelReader.readHeader(channelHeader));
+            assertEquals(256, channelHeader.getCpiLength());
+            assertEquals(frame, channelHeader.getIndexCPI());
+
+            float[][] expected = streamReader.readPayload(streamHeader);
+            FloatBuffer actual = channelReader.readPayload(channelHeader);
+            assertNotNull(expected);
+            assertNotNull(actual);
+            assertEquals(CHANNELS * 256 * 2, actual.remaining());
+            for (int ch = 0; ch < CHANNELS; ch++) {
+                for (int i = 0; i < expected[ch].length; i++) {
+                    assertEquals(expected[ch][i], actual.get(ch * 512 + i), 0f);
+                }
+            }
+        }
+        assertFalse(channelReader.readHeader(channelHeader));
+    }
+
+    @Test
+    public void channelReader_growsOnlyForLargerFrames() throws IOException {
+        byte[] small = TestFrames.frame(HeaderIQ.FRAME_TYPE_DATA, CHANNELS, 128, 0);
+        byte[] large = TestFrames.frame(HeaderIQ.FRAME_TYPE_DATA, CHANNELS, 256, 1);
+        byte[] stream = new byte[2 * large.length + small.length];
+        System.arraycopy(large, 0, stream, 0, large.length);
+        System.arraycopy(small, 0, stream, large.length, small.length);
+        System.arraycopy(large, 0, stream, large.length + small.length, large.length);
+
+        ChannelFrameReader reader = new ChannelFrameReader(Channels.newChannel(new ByteArrayInputStream(stream)));
+        HeaderIQ header = new HeaderIQ();
+        int capacity = -1;
+        for (int frame = 0; frame < 3; frame++) {
+            assertTrue(reader.readHeader(header));
+            assertNotNull(reader.readPayload(header));
+            if (capacity < 0)
+                capacity = reader.getPayloadCapacity();
+            assertEquals(capacity, reader.getPayloadCapacity());
+        }
+    }
+}
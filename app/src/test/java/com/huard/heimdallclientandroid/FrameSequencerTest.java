@@ -0,0 +1,92 @@
+package com.huard.heimdallclientandroid;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameSequencerTest {
+
+    @Test
+    public void contiguousIndices_areInOrder() {
+        FrameSequencer sequencer = new FrameSequencer();
+        assertEquals(FrameSequencer.Result.FIRST, sequencer.observe(10));
+        for (int i = 11; i < 200; i++) {
+            assertEquals(FrameSequencer.Result.IN_ORDER, sequencer.observe(i));
+        }
+        assertEquals(190, sequencer.getFrameCount());
+        assertEquals(0, sequencer.getMissingCount());
+        assertEquals(0, sequencer.getGapCount());
+    }
+
+    @Test
+    public void skippedIndices_countAsMissing() {
+        FrameSequencer sequencer = new FrameSequencer();
+        sequencer.observe(0);
+        sequencer.observe(1);
+        assertEquals(FrameSequencer.Result.GAP, sequencer.observe(5));
+        assertEquals(FrameSequencer.Result.GAP, sequencer.observe(7));
+
+        assertEquals(2, sequencer.getGapCount());
+        assertEquals(4, sequencer.getMissingCount());
+    }
+
+    @Test
+    public void lateArrival_closesGapAndRepeatIsDuplicate() {
+        FrameSequencer sequencer = new FrameSequencer();
+        sequencer.observe(0);
+        sequencer.observe(3);
+        assertEquals(FrameSequencer.Result.REORDERED, sequencer.observe(1));
+        assertEquals(FrameSequencer.Result.DUPLICATE, sequencer.observe(1));
+        assertEquals(FrameSequencer.Result.DUPLICATE, sequencer.observe(3));
+        assertEquals(FrameSequencer.Result.IN_ORDER, sequencer.observe(4));
+
+        assertEquals(1, sequencer.getMissingCount());  // only index 2 never arrived
+        assertEquals(1, sequencer.getReorderedCount());
+        assertEquals(2, sequencer.getDuplicateCount());
+    }
+
+    @Test
+    public void lateArrival_fromBeforeTheFirstFrame_wasNeverMissing() {
+        FrameSequencer sequencer = new FrameSequencer();
+        sequencer.observe(10);
+        assertEquals(FrameSequencer.Result.REORDERED, sequencer.observe(8));
+        sequencer.observe(13);
+        assertEquals(FrameSequencer.Result.REORDERED, sequencer.observe(9));
+        assertEquals(FrameSequencer.Result.REORDERED, sequencer.observe(11));
+
+        assertEquals(1, sequencer.getMissingCount());  // 12; 8 and 9 preceded the sequence
+        assertEquals(3, sequencer.getReorderedCount());
+    }
+
+    @Test
+    public void lateArrival_afterLongGap_closesOnlyCountedIndices() {
+        FrameSequencer sequencer = new FrameSequencer();
+        sequencer.observe(0);
+        sequencer.observe(100);  // 99 missing, the last 63 of them still inside the window
+        assertEquals(FrameSequencer.Result.REORDERED, sequencer.observe(99));
+        assertEquals(FrameSequencer.Result.REORDERED, sequencer.observe(40));
+        assertEquals(97, sequencer.getMissingCount());
+    }
+
+    @Test
+    public void largeBackwardJump_resynchronizes() {
+        FrameSequencer sequencer = new FrameSequencer();
+        sequencer.observe(5000);
+        sequencer.observe(5001);
+        assertEquals(FrameSequencer.Result.RESYNC, sequencer.observe(0));
+        assertEquals(FrameSequencer.Result.IN_ORDER, sequencer.observe(1));
+        assertEquals(0, sequencer.getMissingCount());
+        assertEquals(1, sequencer.getResyncCount());
+    }
+
+    @Test
+    public void reset_startsFreshSequenceButKeepsCounters() {
+        FrameSequencer sequencer = new FrameSequencer();
+        sequencer.observe(0);
+        sequencer.observe(2);
+        sequencer.reset();
+        assertEquals(FrameSequencer.Result.FIRST, sequencer.observe(100));
+        assertEquals(1, sequencer.getMissingCount());
+        assertEquals(3, sequencer.getFrameCount());
+    }
+}
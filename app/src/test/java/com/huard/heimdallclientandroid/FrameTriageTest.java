@@ -0,0 +1,117 @@
+package com.huard.heimdallclientandroid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.Channels;
+import java.util.Random;
+
+public class FrameTriageTest {
+    private static final int CHANNELS = 5;
+    private static final int CPI = 4096;  // 160 KiB payloads, several skip buffers long
+
+    private static HeaderView view(int frameType, int offset, int value) {
+        ByteBuffer header = ByteBuffer.wrap(TestFrames.header(frameType, CHANNELS, CPI, 0)).order(ByteOrder.LITTLE_ENDIAN);
+        if (offset >= 0)
+            header.putInt(offset, value);
+        return new HeaderView().wrap(header);
+    }
+
+    @Test
+    public void classify_decidesFromHeaderAlone() {
+        FrameTriage triage = new FrameTriage();
+        assertEquals(FrameTriage.Verdict.DELIVER, triage.classify(view(HeaderIQ.FRAME_TYPE_DATA, -1, 0)));
+        assertEquals(FrameTriage.Verdict.SKIP, triage.classify(view(HeaderIQ.FRAME_TYPE_DUMMY, -1, 0)));
+        assertEquals(FrameTriage.Verdict.SKIP, triage.classify(view(HeaderIQ.FRAME_TYPE_CAL, -1, 0)));
+        assertEquals(FrameTriage.Verdict.SKIP, triage.classify(view(HeaderIQ.FRAME_TYPE_DATA, 0, 0x12345678)));
+        assertEquals(FrameTriage.Verdict.SKIP, triage.classify(view(HeaderIQ.FRAME_TYPE_DATA, 100, 12)));
+        assertEquals(FrameTriage.Verdict.DELIVER, triage.classify(view(HeaderIQ.FRAME_TYPE_DATA, 240, 0)));
+
+        triage.setCalibrationWanted(true);
+        triage.setDropUnsynced(true);
+        assertEquals(FrameTriage.Verdict.CALIBRATE, triage.classify(view(HeaderIQ.FRAME_TYPE_CAL, -1, 0)));
+        assertEquals(FrameTriage.Verdict.SKIP, triage.classify(view(HeaderIQ.FRAME_TYPE_DATA, 244, 0)));
+
+        assertEquals(2, triage.getRejectionCount(FrameTriage.Reason.NOT_DATA));
+        assertEquals(1, triage.getRejectionCount(FrameTriage.Reason.BAD_SYNC_WORD));
+        assertEquals(1, triage.getRejectionCount(FrameTriage.Reason.UNDECODABLE));
+        assertEquals(1, triage.getRejectionCount(FrameTriage.Reason.UNSYNCED));
+    }
+
+    @Test
+    public void undecodableFrame_isNotCountedAsUnsynced() {
+        FrameTriage triage = new FrameTriage();
+        long unsynced = Metrics.FRAMES_UNSYNCED.sum();
+
+        assertEquals(FrameTriage.Verdict.SKIP, triage.classify(view(HeaderIQ.FRAME_TYPE_DATA, 100, 12)));
+
+        assertEquals(1, triage.getRejectionCount(FrameTriage.Reason.UNDECODABLE));
+        assertEquals(unsynced, Metrics.FRAMES_UNSYNCED.sum());
+    }
+
+    @Test
+    public void skippedPayloads_leaveReadersAlignedOnNextFrame() throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        stream.write(TestFrames.frame(HeaderIQ.FRAME_TYPE_DUMMY, CHANNELS, CPI, 0));
+        stream.write(TestFrames.frame(HeaderIQ.FRAME_TYPE_DATA, CHANNELS, CPI, 1));
+        byte[] bytes = stream.toByteArray();
+
+        StreamFrameReader streamReader = new StreamFrameReader(new ByteArrayInputStream(bytes));
+        HeaderIQ header = new HeaderIQ();
+        assertTrue(streamReader.readHeader(header));
+        assertTrue(streamReader.skipPayload(header));
+        assertTrue(streamReader.readHeader(header));
+        assertEquals(1, header.getIndexCPI());
+        float[][] samples = streamReader.readPayload(header);
+        assertNotNull(samples);
+        assertEquals(4f + 17e-3f, samples[4][34], 1e-6f);
+
+        ChannelFrameReader channelReader = new ChannelFrameReader(Channels.newChannel(new ByteArrayInputStream(bytes)));
+        HeaderView view = new HeaderView();
+        assertTrue(channelReader.readHeader(view));
+        assertTrue(channelReader.skipPayload(view));
+        assertEquals(0, channelReader.getPayloadCapacity());  // skipping never grows the payload buffer
+        assertTrue(channelReader.readHeader(view));
+        assertEquals(1, view.getIndexCPI());
+        FloatBuffer payload = channelReader.readPayload(view);
+        assertNotNull(payload);
+        assertEquals(4f + 17e-3f, payload.get(4 * 2 * CPI + 34), 1e-6f);
+    }
+
+    @Test
+    public void integrity_flagsDeadChannelOnSampledSubset() {
+        FrameTriage triage = new FrameTriage();
+        float[][] iq = new float[CHANNELS][2 * CPI];
+        Random random = new Random(1);
+        for (int k = 0; k < 2 * CPI; k++) {
+            iq[0][k] = (float) random.nextGaussian();
+        }
+        assertFalse(triage.checkIntegrity(iq));  // channel 4 is all zeros
+
+        FloatBuffer payload = FloatBuffer.allocate(CHANNELS * 2 * CPI);
+        for (float[] channel : iq) {
+            payload.put(channel);
+        }
+        payload.rewind();
+        assertFalse(triage.checkIntegrity(payload, 2 * CPI));
+        assertEquals(2, triage.getRejectionCount(FrameTriage.Reason.INTEGRITY));
+
+        System.arraycopy(iq[0], 0, iq[4], 0, 2 * CPI);
+        assertTrue(triage.checkIntegrity(iq));
+        triage.setIntegrityCheck(FrameTriage.IntegrityCheck.FULL);
+        assertTrue(triage.checkIntegrity(iq));
+        triage.setIntegrityCheck(FrameTriage.IntegrityCheck.OFF);
+        assertTrue(triage.checkIntegrity(new float[CHANNELS][2 * CPI]));
+        triage.setIntegrityCheck(FrameTriage.IntegrityCheck.SAMPLED);
+        assertTrue(triage.checkIntegrity(new float[2][2 * CPI]));  // no channel 4 to check
+    }
+}
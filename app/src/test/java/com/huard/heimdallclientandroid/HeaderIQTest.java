@@ -0,0 +1,53 @@
+package com.huard.heimdallclientandroid;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class HeaderIQTest {
+
+    @Test
+    public void encodeHeader_roundTripsThroughDecode() {
+        HeaderIQ header = new HeaderIQ();
+        header.setReplayFrame(5, 1 << 20, 1234, 1_735_689_600_123L, 5_800_000_000L, 2_400_000L);
+        header.setIfGains(new int[]{496, 480, 0, 9, 14});
+
+        byte[] encoded = header.encodeHeader();
+        HeaderIQ decoded = new HeaderIQ();
+        decoded.decodeHeader(encoded);
+
+        assertEquals(HeaderIQ.HEADER_SIZE, encoded.length);
+        assertEquals(HeaderIQ.SYNC_WORD, decoded.getSyncWord());
+        assertEquals(5, decoded.getActiveAntChs());
+        assertEquals(1 << 20, decoded.getCpiLength());
+        assertEquals(1234, decoded.getIndexCPI());
+        assertEquals(1_735_689_600_123L, decoded.getTimeStamp());
+        assertEquals(5_800_000_000L, decoded.getRfCenterFreq());
+        assertEquals(2_400_000L, decoded.getSamplingFreq());
+        assertEquals(480, decoded.getIfGains()[1]);
+        assertEquals(32, decoded.getSampleBitDepth());
+    }
+
+    @Test
+    public void decodeHeader_readsAlignedDaqLayout() {
+        ByteBuffer buffer = ByteBuffer.allocate(HeaderIQ.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0, HeaderIQ.SYNC_WORD);
+        buffer.putLong(40, 5_800_000_000L);  // rfCenterFreq
+        buffer.putInt(64, 65536);            // cpiLength
+        buffer.putLong(72, 1_735_689_600_123L);  // timeStamp
+        buffer.putInt(84, 42);               // cpiIndex
+        buffer.putInt(100, 32);              // sampleBitDepth
+
+        HeaderIQ header = new HeaderIQ();
+        header.decodeHeader(buffer);
+
+        assertEquals(5_800_000_000L, header.getRfCenterFreq());
+        assertEquals(65536, header.getCpiLength());
+        assertEquals(1_735_689_600_123L, header.getTimeStamp());
+        assertEquals(42, header.getIndexCPI());
+        assertEquals(32, header.getSampleBitDepth());
+    }
+}
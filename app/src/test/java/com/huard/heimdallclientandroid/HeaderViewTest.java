@@ -0,0 +1,80 @@
+package com.huard.heimdallclientandroid;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class HeaderViewTest {
+
+    @Test
+    public void view_matchesEagerDecode() {
+        ByteBuffer encoded = encoded(7, 1_735_689_600_123L);
+        HeaderIQ eager = new HeaderIQ();
+        eager.decodeHeader(encoded.duplicate());
+        HeaderView view = new HeaderView().wrap(encoded);
+
+        assertEquals(eager.getSyncWord(), view.getSyncWord());
+        assertEquals(eager.getFrameType(), view.getFrameType());
+        assertEquals(eager.getActiveAntChs(), view.getActiveAntChs());
+        assertEquals(eager.getCpiLength(), view.getCpiLength());
+        assertEquals(eager.getIndexCPI(), view.getIndexCPI());
+        assertEquals(eager.getTimeStamp(), view.getTimeStamp());
+        assertEquals(eager.getRfCenterFreq(), view.getRfCenterFreq());
+        assertEquals(eager.getSamplingFreq(), view.getSamplingFreq());
+        assertEquals(eager.getIfGains()[2], view.getIfGain(2));
+        assertEquals(eager.getPayloadSize(), view.getPayloadSize());
+        assertTrue(view.checkSyncWord());
+    }
+
+    @Test
+    public void hardwareId_isDecodedOnlyWhenItsBytesChange() {
+        ByteBuffer encoded = encoded(0, 0);
+        encoded.position(HeaderView.OFFSET_HARDWARE_ID);
+        encoded.put("K5-0001".getBytes(StandardCharsets.US_ASCII));
+        HeaderView view = new HeaderView().wrap(encoded);
+
+        String first = view.getHardwareId();
+        assertEquals("K5-0001", first);
+        assertSame(first, view.getHardwareId());
+
+        encoded.put(HeaderView.OFFSET_HARDWARE_ID + 6, (byte) '2');
+        assertEquals("K5-0002", view.getHardwareId());
+    }
+
+    @Test
+    public void snapshot_survivesBufferReuse() {
+        ByteBuffer encoded = encoded(1, 100);
+        HeaderView view = new HeaderView().wrap(encoded);
+        HeaderView snapshot = view.snapshot();
+        HeaderView pooled = new HeaderView();
+        view.copyTo(pooled);
+
+        encoded.putInt(HeaderView.OFFSET_CPI_INDEX, 2);
+        encoded.putLong(HeaderView.OFFSET_TIME_STAMP, 200);
+
+        assertEquals(2, view.getIndexCPI());
+        assertEquals(1, snapshot.getIndexCPI());
+        assertEquals(100, snapshot.getTimeStamp());
+        assertEquals(1, pooled.getIndexCPI());
+
+        HeaderIQ eager = new HeaderIQ();
+        snapshot.copyTo(eager);
+        assertEquals(1, eager.getIndexCPI());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void snapshot_cannotBeRewrapped() {
+        new HeaderView().wrap(encoded(0, 0)).snapshot().wrap(encoded(1, 0));
+    }
+
+    private static ByteBuffer encoded(int cpiIndex, long timestamp) {
+        HeaderIQ header = new HeaderIQ();
+        header.setReplayFrame(5, 4096, cpiIndex, timestamp, 2_409_000_000L, 2_400_000L);
+        header.setIfGains(new int[]{0, 9, 14, 27, 37});
+        return ByteBuffer.wrap(header.encodeHeader()).order(ByteOrder.LITTLE_ENDIAN);
+    }
+}
@@ -0,0 +1,279 @@
+package com.huard.heimdallclientandroid;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Loopback stand-in for a Heimdall DAQ server.  The data port answers "streaming" and each
+ * "IQDownload" with a 1024-byte {@link HeaderIQ#encodeHeader()} header and a channel-major cf32
+ * payload of tones; the control port accepts 128-byte INIT/FREQ/GAIN/STHU/EXIT messages, applies
+ * FREQ and GAIN to subsequent headers and answers each with "FNSD".
+ * <p>
+ * Knobs may be changed while running: frame rate (0 answers requests as fast as they arrive), link
+ * latency added to each answer, payload shape, and a forced disconnect after a number of frames on
+ * each data connection.
+ */
+final class HeimdallSimulator implements Closeable {
+    private static final int CONTROL_MESSAGE_SIZE = 128;
+
+    private final ServerSocket dataServer;
+    private final ServerSocket controlServer;
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+    private final List<String> controlCommands = new CopyOnWriteArrayList<>();
+
+    private volatile int channels = 5;
+    private volatile int cpiLength = 1 << 14;
+    private volatile long sampleRate = 2_400_000L;
+    private volatile double frameRate;
+    private volatile int latencyMs;
+    private volatile int disconnectAfterFrames;
+    private volatile int controlLatencyMs;
+    private volatile long centerFrequency = 2_409_000_000L;
+    private volatile int[] gains = new int[5];
+    private volatile int unitId;
+    private volatile String hardwareId = "";
+    private volatile byte[] payload;
+
+    private final AtomicInteger cpiIndex = new AtomicInteger();
+    private final AtomicLong framesSent = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicInteger dataConnections = new AtomicInteger();
+    private final AtomicInteger maxRequestsOutstanding = new AtomicInteger();
+
+    HeimdallSimulator() throws IOException {
+        dataServer = new ServerSocket(0);
+        controlServer = new ServerSocket(0);
+        payload = buildPayload(channels, cpiLength);
+        daemon(() -> accept(dataServer, this::serveData), "SimulatorData").start();
+        daemon(() -> accept(controlServer, this::serveControl), "SimulatorControl").start();
+    }
+
+    int getDataPort() { return dataServer.getLocalPort(); }
+
+    int getControlPort() { return controlServer.getLocalPort(); }
+
+    HeimdallSimulator setPayload(int channels, int cpiLength) {
+        this.channels = channels;
+        this.cpiLength = cpiLength;
+        this.payload = buildPayload(channels, cpiLength);
+        return this;
+    }
+
+    HeimdallSimulator setFrameRate(double framesPerSecond) {
+        this.frameRate = framesPerSecond;
+        return this;
+    }
+
+    HeimdallSimulator setLatencyMs(int latencyMs) {
+        this.latencyMs = latencyMs;
+        return this;
+    }
+
+    /** Delays each control reply, sending its first half midway so the client sees a partial reply. */
+    HeimdallSimulator setControlLatencyMs(int latencyMs) {
+        this.controlLatencyMs = latencyMs;
+        return this;
+    }
+
+    /** Identity reported in every header. */
+    HeimdallSimulator setUnit(int unitId, String hardwareId) {
+        this.unitId = unitId;
+        this.hardwareId = hardwareId;
+        return this;
+    }
+
+    /** Closes each data connection after this many frames; 0 never disconnects. */
+    HeimdallSimulator setDisconnectAfterFrames(int frames) {
+        this.disconnectAfterFrames = frames;
+        return this;
+    }
+
+    long getFramesSent() { return framesSent.get(); }
+
+    long getBytesSent() { return bytesSent.get(); }
+
+    int getDataConnectionCount() { return dataConnections.get(); }
+
+    /** Most IQDownload requests received on one connection and not yet being answered. */
+    int getMaxRequestsOutstanding() { return maxRequestsOutstanding.get(); }
+
+    long getCenterFrequency() { return centerFrequency; }
+
+    int[] getGains() { return gains; }
+
+    List<String> getControlCommands() { return controlCommands; }
+
+    private static Thread daemon(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private interface Handler {
+        void serve(Socket socket) throws IOException, InterruptedException;
+    }
+
+    private void accept(ServerSocket server, Handler handler) {
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                sockets.add(socket);
+                daemon(() -> {
+                    try (Socket s = socket) {
+                        handler.serve(s);
+                    } catch (IOException | InterruptedException ignored) {
+                        // client went away or simulator closed
+                    } finally {
+                        sockets.remove(socket);
+                    }
+                }, "SimulatorConnection").start();
+            } catch (IOException ignored) {
+                // server closed
+            }
+        }
+    }
+
+    // Requests are read on this thread and answered on a writer thread after the injected latency,
+    // so pipelined requests overlap their latency like a real link.
+    private void serveData(Socket socket) throws IOException, InterruptedException {
+        dataConnections.incrementAndGet();
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        OutputStream out = socket.getOutputStream();
+        LinkedBlockingQueue<Long> requests = new LinkedBlockingQueue<>();
+        AtomicInteger outstanding = new AtomicInteger();
+
+        Thread writer = daemon(() -> {
+            HeaderIQ header = new HeaderIQ();
+            int sent = 0;
+            long due = System.nanoTime();
+            try {
+                while (true) {
+                    long arrival = requests.take();
+                    sleepUntil(arrival + TimeUnit.MILLISECONDS.toNanos(latencyMs));
+                    double rate = frameRate;
+                    if (rate > 0) {
+                        due = Math.max(due + (long) (1e9 / rate), System.nanoTime() - (long) (1e9 / rate));
+                        sleepUntil(due);
+                    }
+                    outstanding.decrementAndGet();
+                    byte[] frame = payload;
+                    header.setReplayFrame(channels, cpiLength, cpiIndex.getAndIncrement(),
+                            System.currentTimeMillis(), centerFrequency, sampleRate);
+                    header.setIfGains(gains);
+                    header.setUnit(unitId, hardwareId);
+                    out.write(header.encodeHeader());
+                    out.write(frame);
+                    out.flush();
+                    framesSent.incrementAndGet();
+                    bytesSent.addAndGet(HeaderIQ.HEADER_SIZE + frame.length);
+                    if (disconnectAfterFrames > 0 && ++sent >= disconnectAfterFrames) {
+                        socket.close();
+                        return;
+                    }
+                }
+            } catch (InterruptedException | IOException ignored) {
+                // client went away
+            }
+        }, "SimulatorWriter");
+        writer.start();
+
+        try {
+            in.readFully(new byte[9]);  // "streaming"
+            byte[] request = new byte[10];
+            while (true) {
+                in.readFully(request);  // "IQDownload"
+                maxRequestsOutstanding.accumulateAndGet(outstanding.incrementAndGet(), Math::max);
+                requests.put(System.nanoTime());
+            }
+        } finally {
+            writer.interrupt();
+        }
+    }
+
+    private void serveControl(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        OutputStream out = socket.getOutputStream();
+        byte[] message = new byte[CONTROL_MESSAGE_SIZE];
+        byte[] reply = Arrays.copyOf("FNSD".getBytes(StandardCharsets.US_ASCII), CONTROL_MESSAGE_SIZE);
+
+        while (true) {
+            in.readFully(message);
+            String command = new String(message, 0, 4, StandardCharsets.US_ASCII);
+            ByteBuffer parameters = ByteBuffer.wrap(message, 4, CONTROL_MESSAGE_SIZE - 4).slice().order(ByteOrder.LITTLE_ENDIAN);
+            if (command.equals("FREQ")) {
+                centerFrequency = parameters.getLong();
+            } else if (command.equals("GAIN")) {
+                int[] newGains = new int[5];
+                for (int i = 0; i < newGains.length; i++) {
+                    newGains[i] = parameters.getInt();
+                }
+                gains = newGains;
+            }
+            controlCommands.add(command);
+            int latency = controlLatencyMs;
+            if (latency > 0) {
+                sleep(latency / 2);
+                out.write(reply, 0, CONTROL_MESSAGE_SIZE / 2);
+                out.flush();
+                sleep(latency - latency / 2);
+                out.write(reply, CONTROL_MESSAGE_SIZE / 2, CONTROL_MESSAGE_SIZE / 2);
+            } else {
+                out.write(reply);
+            }
+            out.flush();
+            if (command.equals("EXIT"))
+                return;
+        }
+    }
+
+    private static void sleep(int ms) throws IOException {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        }
+    }
+
+    private static void sleepUntil(long deadline) throws InterruptedException {
+        long wait = deadline - System.nanoTime();
+        if (wait > 0)
+            TimeUnit.NANOSECONDS.sleep(wait);
+    }
+
+    /** Channel ch carries a tone at (ch + 1) / 64 of the sample rate with amplitude 0.5. */
+    private static byte[] buildPayload(int channels, int cpiLength) {
+        ByteBuffer buffer = ByteBuffer.allocate(channels * cpiLength * 8).order(ByteOrder.LITTLE_ENDIAN);
+        for (int ch = 0; ch < channels; ch++) {
+            double step = 2 * Math.PI * (ch + 1) / 64.0;
+            for (int k = 0; k < cpiLength; k++) {
+                buffer.putFloat((float) (0.5 * Math.cos(step * k)));
+                buffer.putFloat((float) (0.5 * Math.sin(step * k)));
+            }
+        }
+        return buffer.array();
+    }
+
+    @Override
+    public void close() throws IOException {
+        dataServer.close();
+        controlServer.close();
+        for (Socket socket : sockets) {
+            socket.close();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.huard.heimdallclientandroid;
+
+import com.sun.management.ThreadMXBean;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+public class IqFramePoolTest {
+
+    @Test
+    public void recycledFrame_isReused() {
+        IqFramePool pool = new IqFramePool(2);
+        IqFrame first = pool.acquire(5, 64);
+        first.release();
+        IqFrame second = pool.acquire(5, 64);
+
+        assertSame(first, second);
+        assertEquals(1, pool.getMissCount());
+        assertEquals(1, pool.getHitCount());
+        assertEquals(1, pool.getLeasedCount());
+    }
+
+    @Test
+    public void leaseAndRelease_allocateNothing() {
+        IqFramePool pool = new IqFramePool(2);
+        ThreadMXBean threads = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        cycle(pool, 20_000);  // warm up
+
+        long before = threads.getThreadAllocatedBytes(thread);
+        cycle(pool, 20_000);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        assertTrue(allocated + " bytes allocated", allocated < 20_000);
+    }
+
+    @Test
+    public void exhaustedPool_returnsNull() {
+        IqFramePool pool = new IqFramePool(2);
+        assertNotNull(pool.acquire(5, 64));
+        IqFrame held = pool.acquire(5, 64);
+        assertNull(pool.acquire(5, 64));
+        assertEquals(1, pool.getExhaustedCount());
+
+        held.release();
+        assertNotNull(pool.acquire(5, 64));
+    }
+
+    @Test
+    public void shapeChange_allocatesNewFrame() {
+        IqFramePool pool = new IqFramePool(2);
+        IqFrame small = pool.acquire(5, 64);
+        small.release();
+        IqFrame large = pool.acquire(5, 128);
+
+        assertNotSame(small, large);
+        assertEquals(128, large.getCpiLength());
+        assertEquals(2, pool.getMissCount());
+    }
+
+    private static void cycle(IqFramePool pool, int leases) {
+        for (int i = 0; i < leases; i++) {
+            pool.acquire(5, 64).release();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void doubleRelease_throws() {
+        IqFrame frame = new IqFramePool().acquire(1, 4);
+        frame.release();
+        frame.release();
+    }
+
+    @Test
+    public void fill_copiesPayloadAndHeader() {
+        HeaderIQ header = new HeaderIQ();
+        header.decodeHeader(TestFrames.header(HeaderIQ.FRAME_TYPE_DATA, 2, 4, 7));
+        FloatBuffer payload = ByteBuffer.allocateDirect(2 * 4 * 8).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+        for (int i = 0; i < payload.capacity(); i++) {
+            payload.put(i, i);
+        }
+
+        IqFrame frame = new IqFramePool().acquire(2, 4);
+        frame.fill(payload, header);
+        header.decodeHeader(TestFrames.header(HeaderIQ.FRAME_TYPE_DATA, 2, 4, 8));
+
+        assertEquals(7, frame.getHeader().getIndexCPI());
+        assertEquals(0f, frame.getSamples()[0][0], 0f);
+        assertEquals(8f, frame.getSamples()[1][0], 0f);
+        assertEquals(15f, frame.getSamples()[1][7], 0f);
+    }
+}
@@ -0,0 +1,92 @@
+package com.huard.heimdallclientandroid;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class IqRecorderTest {
+    private static final int CHANNELS = 5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recording_roundTripsFramesAcrossRegions() throws Exception {
+        File directory = folder.getRoot();
+        int cpiLength = 1000;
+        IqRecorder recorder = new IqRecorder(directory, "rec", 4096 * 3);  // frames straddle regions
+        HeaderIQ header = new HeaderIQ();
+        for (int i = 0; i < 10; i++) {
+            byte[] frame = TestFrames.frame(HeaderIQ.FRAME_TYPE_DATA, CHANNELS, cpiLength, 100 + i);
+            header.decodeHeader(ByteBuffer.wrap(frame, 0, HeaderIQ.HEADER_SIZE));
+            recorder.record(payload(frame), header);
+        }
+        recorder.close();
+
+        long frameBytes = CHANNELS * cpiLength * 8L;
+        assertEquals(10 * frameBytes, new File(directory, "rec" + IqRecorder.DATA_EXTENSION).length());
+        assertEquals(10 * IqRecorder.INDEX_RECORD_SIZE, new File(directory, "rec" + IqRecorder.INDEX_EXTENSION).length());
+        String meta = new String(Files.readAllBytes(new File(directory, "rec" + IqRecorder.META_EXTENSION).toPath()),
+                StandardCharsets.UTF_8);
+        assertTrue(meta.contains("\"core:datatype\": \"cf32_le\""));
+
+        try (IqRecording recording = new IqRecording(directory, "rec")) {
+            assertEquals(10, recording.getFrameCount());
+            assertEquals(CHANNELS, recording.getChannelCount());
+            assertEquals(header.getSamplingFreq(), recording.getSampleRate());
+            assertEquals(header.getRfCenterFreq(), recording.getCenterFrequency());
+            for (int i = 0; i < 10; i++) {
+                assertEquals(100 + i, recording.getCpiIndex(i));
+                assertEquals(i * frameBytes, recording.getOffset(i));
+                assertEquals(cpiLength, recording.getCpiLength(i));
+            }
+            float[][] samples = recording.readFrameArrays(7);
+            for (int ch = 0; ch < CHANNELS; ch++) {
+                assertEquals(ch + 999 * 1e-3f, samples[ch][2 * 999], 0f);
+                assertEquals(-(ch + 999 * 1e-3f), samples[ch][2 * 999 + 1], 0f);
+            }
+        }
+    }
+
+    @Test
+    public void recorder_fillsSeveralDefaultRegions() throws Exception {
+        int cpiLength = 1 << 16;
+        byte[] frame = TestFrames.frame(HeaderIQ.FRAME_TYPE_DATA, CHANNELS, cpiLength, 0);
+        HeaderIQ header = new HeaderIQ();
+        header.decodeHeader(ByteBuffer.wrap(frame, 0, HeaderIQ.HEADER_SIZE));
+        FloatBuffer payload = payload(frame);
+        int frames = 100;  // ~260 MB, several mapped regions
+
+        IqRecorder recorder = new IqRecorder(folder.getRoot(), "regions");
+        for (int i = 0; i < frames; i++) {
+            recorder.record(payload, header);
+        }
+        recorder.close();
+
+        long frameBytes = payload.capacity() * 4L;
+        assertEquals(frames, recorder.getFrameCount());
+        assertTrue(frames * frameBytes > 3L * IqRecorder.REGION_SIZE);
+        assertEquals(frames * frameBytes, new File(folder.getRoot(), "regions" + IqRecorder.DATA_EXTENSION).length());
+        try (IqRecording recording = new IqRecording(folder.getRoot(), "regions")) {
+            assertEquals(frames, recording.getFrameCount());
+            float[][] samples = recording.readFrameArrays(frames - 1);
+            assertEquals(CHANNELS - 1 + (cpiLength - 1) * 1e-3f, samples[CHANNELS - 1][2 * (cpiLength - 1)], 0f);
+        }
+    }
+
+    private static FloatBuffer payload(byte[] frame) {
+        ByteBuffer bytes = ByteBuffer.allocateDirect(frame.length - HeaderIQ.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.put(frame, HeaderIQ.HEADER_SIZE, bytes.capacity());
+        bytes.flip();
+        return bytes.asFloatBuffer();
+    }
+}
@@ -0,0 +1,88 @@
+package com.huard.heimdallclientandroid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverEveryValueWithinAQuarter() {
+        long[] values = {0, 1, 3, 4, 5, 7, 8, 1000, 123_456_789L, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            assertTrue(bucket < LatencyHistogram.BUCKET_COUNT);
+            assertTrue(LatencyHistogram.lowerBound(bucket) <= value);
+            assertTrue(LatencyHistogram.upperBound(bucket) >= value);
+            assertTrue(LatencyHistogram.upperBound(bucket) - LatencyHistogram.lowerBound(bucket) <= value / 4);
+        }
+        for (int bucket = 1; bucket < LatencyHistogram.BUCKET_COUNT; bucket++) {
+            assertEquals(LatencyHistogram.upperBound(bucket - 1) + 1, LatencyHistogram.lowerBound(bucket));
+        }
+    }
+
+    @Test
+    public void percentilesBoundRecordedValues() {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500_500.0, histogram.getMean(), 1e-6);
+        assertEquals(1_000_000, histogram.getMax());
+        long p50 = histogram.getPercentile(50);
+        assertTrue(p50 >= 500_000 && p50 <= 500_000 * 5 / 4);
+        long p99 = histogram.getPercentile(99);
+        assertTrue(p99 >= 990_000 && p99 <= 1_000_000);
+        assertEquals(1_000_000, histogram.getPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void concurrentRecordsAreAllCounted() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram("test");
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            long offset = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 100_000; i++) {
+                    histogram.record(i + offset);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(400_000, histogram.getCount());
+        assertEquals(99_999 + 3, histogram.getMax());
+    }
+
+    @Test
+    public void registryReturnsTheSameMetricByName() {
+        MetricsRegistry registry = new MetricsRegistry();
+        LatencyHistogram histogram = registry.histogram("stage");
+        LongAdder counter = registry.counter("drops");
+        assertTrue(histogram == registry.histogram("stage"));
+        assertTrue(counter == registry.counter("drops"));
+
+        histogram.record(2500);
+        counter.add(3);
+        String dump = registry.dump();
+        assertTrue(dump, dump.contains("stage"));
+        assertTrue(dump, dump.contains("drops"));
+
+        registry.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, counter.sum());
+        assertTrue(!registry.dump().contains("drops"));
+    }
+}
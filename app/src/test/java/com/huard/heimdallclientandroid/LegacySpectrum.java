@@ -0,0 +1,69 @@
+package com.huard.heimdallclientandroid;
+
+import org.apache.commons.math3.transform.DftNormalization;
+import org.apache.commons.math3.transform.FastFourierTransformer;
+import org.apache.commons.math3.transform.TransformType;
+
+/**
+ * The original double-precision commons-math spectrum path, kept as the accuracy reference for
+ * SpectrumEngineTest and the baseline for SpectrumBenchmark.legacyFft in the JMH module.
+ */
+final class LegacySpectrum {
+    private LegacySpectrum() {}
+
+    static double[][] convertFloatArrayToDouble(float[][] floatArray) {
+        int rows = floatArray.length;
+        int cols = floatArray[0].length;
+        double[][] doubleArray = new double[rows][cols];
+
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                doubleArray[i][j] = floatArray[i][j];
+            }
+        }
+        return doubleArray;
+    }
+
+    static double[][] convertInterleavedToSeparate(double[] iqSamples) {
+        int sampleSize = iqSamples.length / 2;
+        double[][] dataRI = new double[2][sampleSize];
+
+        for (int i = 0; i < sampleSize; i++) {
+            dataRI[0][i] = iqSamples[2 * i];       // Real part
+            dataRI[1][i] = iqSamples[2 * i + 1];   // Imaginary part
+        }
+        return dataRI;
+    }
+
+    static double[][] computeFFT(double[] iqSamples) {
+        double[][] dataRI = convertInterleavedToSeparate(iqSamples);
+        FastFourierTransformer.transformInPlace(dataRI, DftNormalization.STANDARD, TransformType.FORWARD);
+        return dataRI;
+    }
+
+    static double[][] fftShift(double[][] data) {
+        int n = data.length;
+        int m = data[0].length;
+        int halfSize = m / 2;
+        double[][] shiftedData = new double[n][m];
+
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(data[i], halfSize, shiftedData[i], 0, m - halfSize);
+            System.arraycopy(data[i], 0, shiftedData[i], m - halfSize, halfSize);
+        }
+        return shiftedData;
+    }
+
+    /** Power in dBm per shifted bin, as MainActivity.computeFFT() produced it. */
+    static double[] powerDBm(double[] iqSamples) {
+        double[][] shifted = fftShift(computeFFT(iqSamples));
+        int n = shifted[0].length;
+        double[] power = new double[n];
+        for (int i = 0; i < n; i++) {
+            double re = shifted[0][i];
+            double im = shifted[1][i];
+            power[i] = 10 * Math.log10((re * re + im * im) / n / 50) - 30;
+        }
+        return power;
+    }
+}
@@ -0,0 +1,178 @@
+package com.huard.heimdallclientandroid;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ReplaySourceTest {
+    private static final int CHANNELS = 5;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void maxSpeed_deliversEveryFrameInOrder() throws Exception {
+        File directory = record("rec", 20, 1024);
+        List<Integer> cpiIndices = new ArrayList<>();
+        List<Float> firstSamples = new ArrayList<>();
+        DataClientListener listener = new DataClientListener() {
+            @Override
+            public void notifyDataClient(float[][] data, HeaderIQ header) {
+                fail("pooled frames expected");
+            }
+
+            @Override
+            public void notifyDataClient(IqFrame frame) {
+                cpiIndices.add(frame.getHeader().getIndexCPI());
+                firstSamples.add(frame.getSamples()[3][0]);
+                frame.release();
+            }
+        };
+
+        ReplaySource source = new ReplaySource(listener, directory, "rec", ReplaySource.Pacing.MAX_SPEED, new IqFramePool(1));
+        source.start();
+        source.join();
+
+        assertEquals(20, source.getFramesEmitted());
+        assertEquals(0, source.getFramesDropped());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i, (int) cpiIndices.get(i));
+            assertEquals(3f, firstSamples.get(i), 0f);
+        }
+    }
+
+    @Test
+    public void retunedRecording_replaysEachFrameAtItsOwnFrequency() throws Exception {
+        File directory = folder.getRoot();
+        IqRecorder recorder = new IqRecorder(directory, "retuned");
+        HeaderIQ header = new HeaderIQ();
+        float[][] samples = new float[CHANNELS][2 * 256];
+        for (int i = 0; i < 9; i++) {
+            long frequency = i < 3 ? 433_000_000L : i < 6 ? 868_000_000L : 433_000_000L;
+            header.setReplayFrame(CHANNELS, 256, i, 0, frequency, 2_400_000L);
+            recorder.record(samples, header);
+        }
+        recorder.close();
+        long[] frequencies = new long[9];
+        DataClientListener listener = (data, replayed) -> frequencies[replayed.getIndexCPI()] = replayed.getRfCenterFreq();
+
+        ReplaySource source = new ReplaySource(listener, directory, "retuned", ReplaySource.Pacing.MAX_SPEED, null);
+        source.start();
+        source.join();
+
+        assertArrayEquals(new long[]{433_000_000L, 433_000_000L, 433_000_000L, 868_000_000L, 868_000_000L,
+                868_000_000L, 433_000_000L, 433_000_000L, 433_000_000L}, frequencies);
+    }
+
+    @Test
+    public void unpooledReplay_headersAreSnapshotsTheListenerMayKeep() throws Exception {
+        File directory = record("kept", 5, 256);
+        List<HeaderIQ> headers = new ArrayList<>();
+        DataClientListener listener = (data, header) -> headers.add(header);
+
+        ReplaySource source = new ReplaySource(listener, directory, "kept", ReplaySource.Pacing.MAX_SPEED, null);
+        source.start();
+        source.join();
+
+        assertEquals(5, headers.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(i, headers.get(i).getIndexCPI());
+        }
+    }
+
+    @Test
+    public void finishedSource_replaysAgainWhenRestarted() throws Exception {
+        File directory = record("again", 5, 256);
+        List<Integer> cpiIndices = new ArrayList<>();
+        DataClientListener listener = (data, header) -> cpiIndices.add(header.getIndexCPI());
+
+        ReplaySource source = new ReplaySource(listener, directory, "again", ReplaySource.Pacing.MAX_SPEED, null);
+        source.start();
+        source.join();
+        source.start();
+        source.join();
+
+        assertEquals(10, source.getFramesEmitted());
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 0, 1, 2, 3, 4), cpiIndices);
+    }
+
+    @Test
+    public void realTime_pacesFramesByCpiDuration() throws Exception {
+        int cpiLength = 24_000;  // 10 ms at 2.4 MS/s; the test frames carry no timestamps
+        File directory = record("paced", 6, cpiLength);
+        DataClientListener listener = (data, header) -> assertEquals(CHANNELS, data.length);
+
+        ReplaySource source = new ReplaySource(listener, directory, "paced", ReplaySource.Pacing.REAL_TIME, null);
+        long start = System.nanoTime();
+        source.start();
+        source.join();
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(6, source.getFramesEmitted());
+        assertTrue("replay took " + elapsedMs + " ms", elapsedMs >= 50);
+    }
+
+    @Test
+    public void maxSpeed_feedsSpectrumChainWithoutDrops() throws Exception {
+        int frames = 40;
+        File directory = record("chain", frames, 1 << 16);
+        SpectrumProcessor processor = new SpectrumProcessor();
+        CountDownLatch processed = new CountDownLatch(1);
+        SpectrumPipeline[] pipeline = new SpectrumPipeline[1];
+        pipeline[0] = new SpectrumPipeline(processor, Runnable::run, spectrum -> {
+            pipeline[0].recycle(spectrum);
+            if (pipeline[0].getProcessedFrameCount() >= frames)
+                processed.countDown();
+        });
+        DataClientListener listener = new DataClientListener() {
+            @Override
+            public void notifyDataClient(float[][] data, HeaderIQ header) {
+                fail("pooled frames expected");
+            }
+
+            @Override
+            public void notifyDataClient(IqFrame frame) {
+                pipeline[0].submit(frame);
+            }
+        };
+
+        pipeline[0].start();
+        ReplaySource source = new ReplaySource(listener, directory, "chain", ReplaySource.Pacing.MAX_SPEED,
+                new IqFramePool(SpectrumPipeline.DEFAULT_INGEST_CAPACITY));
+        source.start();
+        source.join();
+        assertTrue(processed.await(30, TimeUnit.SECONDS));
+        pipeline[0].stop();
+        processor.shutdown();
+
+        assertEquals(frames, source.getFramesEmitted());
+        assertEquals(frames, pipeline[0].getProcessedFrameCount());
+        assertEquals(0, pipeline[0].getIngestQueue().getDroppedCount());
+    }
+
+    private File record(String name, int frames, int cpiLength) throws Exception {
+        File directory = folder.getRoot();
+        IqRecorder recorder = new IqRecorder(directory, name);
+        HeaderIQ header = new HeaderIQ();
+        for (int i = 0; i < frames; i++) {
+            byte[] frame = TestFrames.frame(HeaderIQ.FRAME_TYPE_DATA, CHANNELS, cpiLength, i);
+            header.decodeHeader(ByteBuffer.wrap(frame, 0, HeaderIQ.HEADER_SIZE));
+            ByteBuffer payload = ByteBuffer.wrap(frame, HeaderIQ.HEADER_SIZE, frame.length - HeaderIQ.HEADER_SIZE)
+                    .slice().order(ByteOrder.LITTLE_ENDIAN);
+            recorder.record(payload.asFloatBuffer(), header);
+        }
+        recorder.close();
+        return directory;
+    }
+}
@@ -0,0 +1,51 @@
+package com.huard.heimdallclientandroid;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs DataClient against a {@link HeimdallSimulator} that answers each IQDownload after a fixed
+ * link latency, checking that the client keeps exactly its request window in flight.  The frames/s
+ * this gains is measured by LoopbackBenchmark in the JMH module.
+ */
+public class RequestPipelineTest {
+    private static final int LATENCY_MS = 20;
+    private static final int FRAMES = 25;
+
+    @Test
+    public void requestWindow_isFilledButNeverExceeded() throws Exception {
+        assertEquals(1, maxRequestsOutstanding(1));
+        assertEquals(4, maxRequestsOutstanding(4));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void requestWindow_rejectsZero() {
+        new DataClient(null, "localhost", 0).setRequestWindow(0);
+    }
+
+    private static int maxRequestsOutstanding(int window) throws Exception {
+        try (HeimdallSimulator simulator = new HeimdallSimulator()) {
+            simulator.setPayload(5, 256).setLatencyMs(LATENCY_MS);
+
+            CountDownLatch received = new CountDownLatch(FRAMES);
+            DataClient client = new DataClient(new DataClientListener() {
+                @Override
+                public void notifyDataClient(float[][] data, HeaderIQ header) {
+                    received.countDown();
+                }
+            }, "localhost", simulator.getDataPort());
+            client.setRequestWindow(window);
+
+            client.connect();
+            assertTrue(received.await(10, TimeUnit.SECONDS));
+            assertTrue(client.getRequestsInFlight() <= window);
+
+            client.disconnect();
+            return simulator.getMaxRequestsOutstanding();
+        }
+    }
+}
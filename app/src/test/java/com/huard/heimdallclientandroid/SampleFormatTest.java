@@ -0,0 +1,85 @@
+package com.huard.heimdallclientandroid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.Channels;
+
+public class SampleFormatTest {
+    private static final int CHANNELS = 5;
+    private static final int CPI = 3000;  // not a multiple of the conversion block
+
+    /** Sample k of channel ch holds I = (ch * 31 + k) % 256 - 128 and Q = -I - 1, in raw integer units. */
+    private static int raw(int ch, int value) {
+        int i = (ch * 31 + value / 2) % 256 - 128;
+        return value % 2 == 0 ? i : -i - 1;
+    }
+
+    private static byte[] frame(int bitDepth) {
+        ByteBuffer buffer = ByteBuffer.allocate(HeaderIQ.HEADER_SIZE + CHANNELS * CPI * 2 * bitDepth / 8)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(TestFrames.header(HeaderIQ.FRAME_TYPE_DATA, CHANNELS, CPI, 0));
+        buffer.putInt(100, bitDepth);
+        for (int ch = 0; ch < CHANNELS; ch++) {
+            for (int v = 0; v < 2 * CPI; v++) {
+                if (bitDepth == 8)
+                    buffer.put((byte) raw(ch, v));
+                else
+                    buffer.putShort((short) (raw(ch, v) * 256));  // the same values, full int16 scale
+            }
+        }
+        return buffer.array();
+    }
+
+    private static void assertDecoded(float[] channel, int ch) {
+        for (int v = 0; v < channel.length; v++) {
+            assertEquals(raw(ch, v) / 128f, channel[v], 0);
+        }
+    }
+
+    @Test
+    public void narrowSamples_decodeScaledInBothReaders() throws Exception {
+        for (int bitDepth : new int[]{8, 16}) {
+            byte[] bytes = frame(bitDepth);
+
+            StreamFrameReader streamReader = new StreamFrameReader(new ByteArrayInputStream(bytes));
+            HeaderIQ header = new HeaderIQ();
+            streamReader.readHeader(header);
+            assertEquals(CHANNELS * CPI * 2 * bitDepth / 8, header.getPayloadSize());
+            float[][] samples = streamReader.readPayload(header);
+            assertNotNull(samples);
+            for (int ch = 0; ch < CHANNELS; ch++) {
+                assertDecoded(samples[ch], ch);
+            }
+
+            ChannelFrameReader channelReader = new ChannelFrameReader(Channels.newChannel(new ByteArrayInputStream(bytes)));
+            HeaderView view = new HeaderView();
+            channelReader.readHeader(view);
+            FloatBuffer payload = channelReader.readPayload(view);
+            assertNotNull(payload);
+            assertEquals(CHANNELS * CPI * 2, payload.limit());
+            float[] channel = new float[2 * CPI];
+            for (int ch = 0; ch < CHANNELS; ch++) {
+                payload.position(ch * channel.length);
+                payload.get(channel);
+                assertDecoded(channel, ch);
+            }
+        }
+    }
+
+    @Test
+    public void forBitDepth_coversDecodableDepthsOnly() {
+        assertEquals(SampleFormat.FLOAT32, SampleFormat.forBitDepth(32));
+        assertEquals(SampleFormat.INT16, SampleFormat.forBitDepth(16));
+        assertEquals(SampleFormat.INT8, SampleFormat.forBitDepth(8));
+        assertNull(SampleFormat.forBitDepth(12));
+        assertNull(SampleFormat.forBitDepth(0));
+    }
+}
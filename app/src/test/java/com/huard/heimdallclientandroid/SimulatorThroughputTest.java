@@ -0,0 +1,178 @@
+package com.huard.heimdallclientandroid;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * End-to-end tests of DataClient and ControlClient against {@link HeimdallSimulator}, streaming
+ * full-size frames through both reader paths.  Frames/s and MB/s through the client are measured
+ * by LoopbackBenchmark in the JMH module.
+ */
+public class SimulatorThroughputTest {
+    private static final int CHANNELS = 5;
+    private static final int CPI_LENGTH = 1 << 16;
+
+    @Test
+    public void channelReader_deliversEveryFrameInOrder() throws Exception {
+        streamFrames(DataClient.ReaderMode.CHANNEL);
+    }
+
+    @Test
+    public void streamReader_deliversEveryFrameInOrder() throws Exception {
+        streamFrames(DataClient.ReaderMode.STREAM);
+    }
+
+    @Test
+    public void frameRate_limitsDelivery() throws Exception {
+        try (HeimdallSimulator simulator = new HeimdallSimulator()) {
+            simulator.setPayload(CHANNELS, 1024).setFrameRate(50);
+            AtomicInteger received = new AtomicInteger();
+            DataClient client = new DataClient((data, header) -> received.incrementAndGet(),
+                    "localhost", simulator.getDataPort());
+            client.setRequestWindow(4);
+
+            long start = System.nanoTime();
+            client.connect();
+            TimeUnit.MILLISECONDS.sleep(1000);
+            client.disconnect();
+            double seconds = (System.nanoTime() - start) / 1e9;
+
+            int frames = received.get();
+            assertTrue("no frames received", frames > 0);
+            assertTrue("received " + frames + " frames in " + seconds + " s at 50 frames/s", frames <= 50 * seconds + 2);
+        }
+    }
+
+    @Test
+    public void midStreamDisconnect_clientReconnects() throws Exception {
+        try (HeimdallSimulator simulator = new HeimdallSimulator()) {
+            simulator.setPayload(CHANNELS, 1024).setDisconnectAfterFrames(10);
+            CountDownLatch received = new CountDownLatch(35);
+            DataClient client = new DataClient((data, header) -> received.countDown(),
+                    "localhost", simulator.getDataPort(), DataClient.ReaderMode.CHANNEL);
+            client.setRequestWindow(4);
+
+            client.connect();
+            assertTrue(received.await(10, TimeUnit.SECONDS));
+            client.disconnect();
+
+            assertTrue(simulator.getDataConnectionCount() >= 4);
+        }
+    }
+
+    @Test
+    public void stop_endsStreamingWithoutReconnecting() throws Exception {
+        try (HeimdallSimulator simulator = new HeimdallSimulator()) {
+            simulator.setPayload(CHANNELS, 1024);
+            AtomicInteger received = new AtomicInteger();
+            CountDownLatch started = new CountDownLatch(10);
+            FrameSource client = new DataClient((data, header) -> {
+                received.incrementAndGet();
+                started.countDown();
+            }, "localhost", simulator.getDataPort(), DataClient.ReaderMode.CHANNEL);
+
+            client.start();
+            assertTrue(started.await(5, TimeUnit.SECONDS));
+            client.stop();
+            TimeUnit.MILLISECONDS.sleep(100);  // a frame already being delivered may complete
+            int afterStop = received.get();
+            TimeUnit.MILLISECONDS.sleep(500);  // several reconnect delays
+
+            assertEquals(afterStop, received.get());
+            assertFalse(client.isRunning());
+            assertEquals(1, simulator.getDataConnectionCount());
+        }
+    }
+
+    @Test
+    public void controlMessages_retuneDataStream() throws Exception {
+        try (HeimdallSimulator simulator = new HeimdallSimulator()) {
+            simulator.setPayload(CHANNELS, 1024);
+            CountDownLatch replies = new CountDownLatch(5);
+            ControlClient control = new ControlClient(message -> {
+                if (message.startsWith("Received response: FNSD"))
+                    replies.countDown();
+            }, "localhost", simulator.getControlPort());
+
+            control.connect();
+            control.sendGain(new int[]{496, 496, 300, 0, 0});
+            control.sendFrequency(433.5f);
+            control.sendSquelchThreshold(0.5f);
+            control.sendInit();
+            control.sendExit();
+            control.disconnect();
+            assertTrue(replies.await(5, TimeUnit.SECONDS));
+
+            assertEquals(Arrays.asList("GAIN", "FREQ", "STHU", "INIT", "EXIT"), simulator.getControlCommands());
+            assertArrayEquals(new int[]{496, 496, 297, 0, 0}, simulator.getGains());
+
+            HeaderIQ[] first = new HeaderIQ[1];
+            CountDownLatch received = new CountDownLatch(1);
+            DataClient client = new DataClient((data, header) -> {
+                if (first[0] == null) {
+                    first[0] = new HeaderIQ();
+                    first[0].copyFrom(header);
+                    received.countDown();
+                }
+            }, "localhost", simulator.getDataPort());
+            client.connect();
+            assertTrue(received.await(5, TimeUnit.SECONDS));
+            client.disconnect();
+
+            assertEquals(433_500_000L, first[0].getRfCenterFreq());
+            assertEquals(297, first[0].getIfGains()[2]);
+        }
+    }
+
+    private static void streamFrames(DataClient.ReaderMode mode) throws Exception {
+        int frames = 100;
+        try (HeimdallSimulator simulator = new HeimdallSimulator()) {
+            simulator.setPayload(CHANNELS, CPI_LENGTH);
+            CountDownLatch received = new CountDownLatch(frames);
+            AtomicInteger lastCpiIndex = new AtomicInteger(-1);
+            AtomicLong outOfOrder = new AtomicLong();
+            long[] timestamp = new long[1];
+            long[] frequency = new long[1];
+            DataClientListener listener = new DataClientListener() {
+                @Override
+                public void notifyDataClient(float[][] data, HeaderIQ header) {
+                    check(header);
+                }
+
+                @Override
+                public void notifyDataClient(FloatBuffer data, HeaderIQ header) {
+                    check(header);
+                }
+
+                private void check(HeaderIQ header) {
+                    if (header.getIndexCPI() <= lastCpiIndex.getAndSet(header.getIndexCPI()))
+                        outOfOrder.incrementAndGet();
+                    timestamp[0] = header.getTimeStamp();
+                    frequency[0] = header.getRfCenterFreq();
+                    received.countDown();
+                }
+            };
+            DataClient client = new DataClient(listener, "localhost", simulator.getDataPort(), mode);
+            client.setRequestWindow(4);
+
+            client.connect();
+            assertTrue(received.await(60, TimeUnit.SECONDS));
+            client.disconnect();
+
+            assertEquals(0, outOfOrder.get());
+            assertEquals(0, client.getSequencer().getMissingCount());
+            assertEquals(0, client.getSequencer().getDuplicateCount());
+            assertTrue(client.getSequencer().getFrameCount() >= frames);
+            assertEquals(2_409_000_000L, frequency[0]);
+            assertTrue("timestamp " + timestamp[0], Math.abs(System.currentTimeMillis() - timestamp[0]) < 60_000);
+        }
+    }
+}
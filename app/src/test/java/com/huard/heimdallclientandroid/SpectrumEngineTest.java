@@ -0,0 +1,87 @@
+package com.huard.heimdallclientandroid;
+
+import org.jtransforms.fft.FloatFFT_1D;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the float32 JTransforms engine against the legacy commons-math path.  Per-frame times of
+ * both are measured by SpectrumBenchmark in the JMH module.
+ */
+public class SpectrumEngineTest {
+
+    @Test
+    public void spectrum_matchesLegacyPath() {
+        float[][] iq = tone(1, 4096, 0.1);
+        double[] expected = LegacySpectrum.powerDBm(LegacySpectrum.convertFloatArrayToDouble(iq)[0]);
+
+        SpectrumFrame spectrum = new SpectrumFrame();
+        new SpectrumProcessor().computeSpectra(iq, 2.4f, spectrum);
+
+        assertEquals(expected.length, spectrum.getBinCount());
+        int peak = 0;
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] > expected[peak])
+                peak = i;
+            if (expected[i] > -60)  // float32 rounding dominates far below the tone
+                assertEquals(expected[i], spectrum.getPowerDBm(0)[i], 0.05);
+        }
+        assertEquals(expected[peak], spectrum.getMaxPowerDBm(0), 0.05);
+    }
+
+    @Test
+    public void fusedKernel_centersZeroFrequency() {
+        int n = 256;
+        float[] dc = new float[2 * n];
+        for (int i = 0; i < n; i++) {
+            dc[2 * i] = 1f;
+        }
+        float[] powerDBm = new float[n];
+
+        float max = new SpectrumEngine().powerSpectrumDBm(dc, n, powerDBm);
+
+        assertEquals(max, powerDBm[n / 2], 0f);
+        assertTrue(powerDBm[0] < max - 100);
+    }
+
+    @Test
+    public void engine_reusesPlansAndLeavesInputIntact() {
+        SpectrumEngine engine = new SpectrumEngine();
+        float[][] iq = tone(1, 1024, 0.25);
+        float[] before = iq[0].clone();
+
+        engine.forward(iq[0], 1024);
+        engine.forward(iq[0], 1024);
+
+        assertEquals(1, engine.getCachedPlanCount());
+        assertArrayEquals(before, iq[0], 0f);
+    }
+
+    @Test
+    public void plans_surviveSwitchingBetweenLengths() {
+        SpectrumEngine engine = new SpectrumEngine();
+        FloatFFT_1D large = engine.getPlan(1024);
+        FloatFFT_1D small = engine.getPlan(256);
+
+        assertSame(large, engine.getPlan(1024));
+        assertSame(large, engine.getPlan(1024));
+        assertSame(small, engine.getPlan(256));
+        assertEquals(2, engine.getCachedPlanCount());
+    }
+
+    static float[][] tone(int channels, int n, double normalizedFrequency) {
+        Random random = new Random(1);
+        float[][] iq = new float[channels][2 * n];
+        for (int ch = 0; ch < channels; ch++) {
+            for (int i = 0; i < n; i++) {
+                double phase = 2 * Math.PI * normalizedFrequency * i;
+                iq[ch][2 * i] = (float) (Math.cos(phase) + 0.01 * (random.nextFloat() - 0.5));
+                iq[ch][2 * i + 1] = (float) (Math.sin(phase) + 0.01 * (random.nextFloat() - 0.5));
+            }
+        }
+        return iq;
+    }
+}
@@ -0,0 +1,73 @@
+package com.huard.heimdallclientandroid;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SpectrumProcessorTest {
+
+    @Test
+    public void parallel_matchesSequential() {
+        float[][] iq = SpectrumEngineTest.tone(5, 4096, 0.1);
+        SpectrumFrame sequential = new SpectrumFrame();
+        SpectrumFrame parallel = new SpectrumFrame();
+        SpectrumProcessor parallelProcessor = new SpectrumProcessor(4);
+
+        new SpectrumProcessor(1).computeSpectra(iq, 2.4f, sequential);
+        parallelProcessor.computeSpectra(iq, 2.4f, parallel);
+        parallelProcessor.shutdown();
+
+        for (int ch = 0; ch < 5; ch++) {
+            assertArrayEquals(sequential.getPowerDBm(ch), parallel.getPowerDBm(ch), 0f);
+            assertEquals(sequential.getMaxPowerDBm(ch), parallel.getMaxPowerDBm(ch), 0);
+        }
+    }
+
+    @Test
+    public void selectedMode_computesOnlySelectedChannel() {
+        float[][] iq = SpectrumEngineTest.tone(5, 1024, 0.1);
+        SpectrumProcessor processor = new SpectrumProcessor(1);
+        processor.setChannelMode(SpectrumProcessor.ChannelMode.SELECTED);
+        processor.setSelectedChannel(2);
+        SpectrumFrame spectrum = new SpectrumFrame();
+
+        processor.computeSpectra(iq, 2.4f, spectrum);
+
+        assertTrue(spectrum.isChannelComputed(2));
+        assertEquals(1024, spectrum.getPowerDBm(2).length);
+        assertFalse(spectrum.isChannelComputed(0));
+    }
+
+    @Test
+    public void frequencyAxis_isCachedUntilHeaderChanges() {
+        float[][] iq = SpectrumEngineTest.tone(2, 512, 0.1);
+        SpectrumProcessor processor = new SpectrumProcessor(1);
+        SpectrumFrame first = new SpectrumFrame();
+        SpectrumFrame second = new SpectrumFrame();
+
+        processor.computeSpectra(iq, 2.4f, first);
+        processor.computeSpectra(iq, 2.4f, second);
+        assertSame(first.getFrequencyMHz(), second.getFrequencyMHz());
+        assertEquals(-1.2f, first.getFrequencyMHz()[0], 1e-6f);
+
+        processor.computeSpectra(iq, 1.2f, second);
+        assertNotSame(first.getFrequencyMHz(), second.getFrequencyMHz());
+        assertEquals(-1.2f, first.getFrequencyMHz()[0], 1e-6f);
+        assertEquals(-0.6f, second.getFrequencyMHz()[0], 1e-6f);
+    }
+
+    @Test
+    public void welchMode_usesConfiguredFftSize() {
+        float[][] iq = SpectrumEngineTest.tone(5, 8192, 0.1);
+        SpectrumProcessor processor = new SpectrumProcessor(1);
+        processor.setWelchConfig(new WelchConfig(512));
+        SpectrumFrame spectrum = new SpectrumFrame();
+
+        processor.computeSpectra(iq, 2.4f, spectrum);
+
+        assertEquals(512, spectrum.getBinCount());
+        assertEquals(512, spectrum.getFrequencyMHz().length);
+        assertEquals(512, spectrum.getPowerDBm(4).length);
+        assertTrue(spectrum.isChannelComputed(4));
+    }
+}
@@ -0,0 +1,88 @@
+package com.huard.heimdallclientandroid;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SpectrumPyramidTest {
+    private static final int BINS = 1 << 15;
+
+    @Test
+    public void decimate_preservesNarrowPeak() {
+        float[] power = flat(BINS, -90f);
+        power[12345] = -10f;
+        SpectrumPyramid pyramid = new SpectrumPyramid();
+        pyramid.build(power, axis(BINS), BINS);
+
+        float[] x = new float[1000];
+        float[] min = new float[1000];
+        float[] max = new float[1000];
+        int spans = pyramid.decimate(-1.2f, 1.2f, 1000, x, min, max);
+
+        assertEquals(1000, spans);
+        float peak = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < spans; i++) {
+            peak = Math.max(peak, max[i]);
+            assertEquals(-90f, min[i], 0f);
+        }
+        assertEquals(-10f, peak, 0f);
+    }
+
+    @Test
+    public void decimate_zoomedInEmitsRawBins() {
+        float[] power = new float[BINS];
+        for (int i = 0; i < BINS; i++) {
+            power[i] = i;
+        }
+        float[] frequency = axis(BINS);
+        SpectrumPyramid pyramid = new SpectrumPyramid();
+        pyramid.build(power, frequency, BINS);
+
+        float[] x = new float[1000];
+        float[] min = new float[1000];
+        float[] max = new float[1000];
+        int spans = pyramid.decimate(frequency[100], frequency[150], 1000, x, min, max);
+
+        assertTrue(spans <= 53);
+        for (int i = 0; i < spans; i++) {
+            assertEquals(min[i], max[i], 0f);
+        }
+        assertTrue(min[0] <= 100f && max[spans - 1] >= 150f);
+    }
+
+    @Test
+    public void decimate_coversWholeRangeInOrder() {
+        float[] power = new float[BINS];
+        for (int i = 0; i < BINS; i++) {
+            power[i] = i;
+        }
+        SpectrumPyramid pyramid = new SpectrumPyramid();
+        pyramid.build(power, axis(BINS), BINS);
+
+        float[] x = new float[700];
+        float[] min = new float[700];
+        float[] max = new float[700];
+        int spans = pyramid.decimate(-1.2f, 1.2f, 700, x, min, max);
+
+        assertEquals(0f, min[0], 0f);
+        assertEquals(BINS - 1, max[spans - 1], 0f);
+        for (int i = 1; i < spans; i++) {
+            assertTrue(x[i] > x[i - 1]);
+            assertTrue(min[i] >= min[i - 1]);
+        }
+    }
+
+    private static float[] flat(int n, float value) {
+        float[] values = new float[n];
+        java.util.Arrays.fill(values, value);
+        return values;
+    }
+
+    private static float[] axis(int n) {
+        float[] axis = new float[n];
+        for (int i = 0; i < n; i++) {
+            axis[i] = -1.2f + 2.4f * i / n;
+        }
+        return axis;
+    }
+}
@@ -0,0 +1,80 @@
+package com.huard.heimdallclientandroid;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SpscQueueTest {
+
+    @Test
+    public void dropOldest_evictsHeadWhenFull() {
+        List<Integer> dropped = new ArrayList<>();
+        SpscQueue<Integer> queue = new SpscQueue<>(2, SpscQueue.OverflowPolicy.DROP_OLDEST, dropped::add);
+        queue.offer(1);
+        queue.offer(2);
+        queue.offer(3);
+
+        assertEquals(2, queue.getDepth());
+        assertEquals(Integer.valueOf(2), queue.poll());
+        assertEquals(Integer.valueOf(3), queue.poll());
+        assertNull(queue.poll());
+        assertEquals(1, dropped.size());
+        assertEquals(Integer.valueOf(1), dropped.get(0));
+        assertEquals(2, queue.getHighWaterMark());
+        assertEquals(3, queue.getOfferedCount());
+    }
+
+    @Test
+    public void latestWins_skipsToNewest() {
+        List<Integer> dropped = new ArrayList<>();
+        SpscQueue<Integer> queue = new SpscQueue<>(4, SpscQueue.OverflowPolicy.LATEST_WINS, dropped::add);
+        queue.offer(1);
+        queue.offer(2);
+        queue.offer(3);
+
+        assertEquals(Integer.valueOf(3), queue.poll());
+        assertTrue(queue.isEmpty());
+        assertEquals(2, queue.getDroppedCount());
+    }
+
+    @Test
+    public void capacity_roundsUpToPowerOfTwo() {
+        assertEquals(4, new SpscQueue<Integer>(3, SpscQueue.OverflowPolicy.DROP_OLDEST, null).getCapacity());
+    }
+
+    @Test
+    public void concurrentProducer_neverLosesOrReordersItems() throws InterruptedException {
+        final int items = 200_000;
+        List<Integer> dropped = new ArrayList<>();
+        SpscQueue<Integer> queue = new SpscQueue<>(8, SpscQueue.OverflowPolicy.DROP_OLDEST, item -> {
+            synchronized (dropped) {
+                dropped.add(item);
+            }
+        });
+
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < items; i++) {
+                queue.offer(i);
+            }
+        });
+        producer.start();
+
+        int received = 0;
+        int last = -1;
+        while (producer.isAlive() || !queue.isEmpty()) {
+            Integer item = queue.poll();
+            if (item != null) {
+                assertTrue("items must arrive in order", item > last);
+                last = item;
+                received++;
+            }
+        }
+        producer.join();
+
+        assertEquals(items, received + dropped.size());
+        assertEquals(items - 1, last);
+    }
+}
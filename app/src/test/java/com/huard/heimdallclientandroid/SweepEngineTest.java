@@ -0,0 +1,68 @@
+package com.huard.heimdallclientandroid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sweeps {@link HeimdallSimulator}, whose channel 0 carries a tone at fs / 64 above whatever center
+ * frequency it was last tuned to, so each slice puts one tone into the panorama.
+ */
+public class SweepEngineTest {
+    private static final float START_MHZ = 2400f;
+    private static final float STOP_MHZ = 2407.2f;
+    private static final float SAMPLE_RATE_MHZ = 2.4f;
+    private static final int PANORAMA_BINS = 1024;
+
+    @Test
+    public void sweep_stitchesOneToneFromEverySlice() throws Exception {
+        try (HeimdallSimulator simulator = new HeimdallSimulator()) {
+            simulator.setPayload(5, 1024);
+            ControlClient control = new ControlClient(null, "localhost", simulator.getControlPort());
+            CountDownLatch passes = new CountDownLatch(2);
+            AtomicReference<float[]> panorama = new AtomicReference<>();
+            SweepEngine sweep = new SweepEngine(control, frame -> {
+                panorama.set(frame.getPowerDBm(0).clone());
+                passes.countDown();
+            }, 0, START_MHZ, STOP_MHZ, SAMPLE_RATE_MHZ, SweepEngine.DEFAULT_USABLE_FRACTION, PANORAMA_BINS);
+            assertEquals(4, sweep.getStepCount());
+
+            IqFramePool pool = new IqFramePool();
+            DataClient data = new DataClient(new DataClientListener() {
+                @Override
+                public void notifyDataClient(float[][] samples, HeaderIQ header) {}
+
+                @Override
+                public void notifyDataClient(IqFrame frame) {
+                    sweep.submit(frame);
+                }
+            }, "localhost", simulator.getDataPort(), DataClient.ReaderMode.CHANNEL, pool);
+            data.setRequestWindow(4);
+
+            sweep.start();
+            data.connect();
+            assertTrue(passes.await(10, TimeUnit.SECONDS));
+            data.disconnect();
+            sweep.stop();
+            control.disconnect();
+
+            float[] power = panorama.get();
+            float[] sorted = power.clone();
+            Arrays.sort(sorted);
+            float median = sorted[sorted.length / 2];
+            float binMHz = (STOP_MHZ - START_MHZ) / PANORAMA_BINS;
+            for (int step = 0; step < sweep.getStepCount(); step++) {
+                float toneMHz = sweep.getStepCenterMHz(step) + SAMPLE_RATE_MHZ / 64;
+                int bin = (int) ((toneMHz - START_MHZ) / binMHz);
+                float peak = Math.max(power[bin - 1], Math.max(power[bin], power[bin + 1]));
+                assertTrue("tone of step " + step + " at " + peak + " dBm, median " + median, peak > median + 30);
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.huard.heimdallclientandroid;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Builds raw Heimdall IQ frames (header + float32 payload) for local unit tests.
+ */
+final class TestFrames {
+    private TestFrames() {}
+
+    static byte[] header(int frameType, int channels, int cpiLength, int cpiIndex) {
+        ByteBuffer buffer = ByteBuffer.allocate(HeaderIQ.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(0, HeaderIQ.SYNC_WORD);
+        buffer.putInt(4, frameType);
+        buffer.putInt(28, channels);
+        buffer.putLong(40, 2_409_000_000L);   // rfCenterFreq
+        buffer.putLong(56, 2_400_000L);       // samplingFreq
+        buffer.putInt(64, cpiLength);
+        buffer.putInt(84, cpiIndex);
+        buffer.putInt(96, 3);                 // dataType
+        buffer.putInt(100, 32);               // sampleBitDepth
+        buffer.putInt(240, 1);                // iqSyncFlag
+        buffer.putInt(244, 1);                // syncState
+        return buffer.array();
+    }
+
+    /** A frame whose sample k of channel ch holds I = ch + k * 1e-3, Q = -I. */
+    static byte[] frame(int frameType, int channels, int cpiLength, int cpiIndex) {
+        ByteBuffer buffer = ByteBuffer.allocate(HeaderIQ.HEADER_SIZE + channels * cpiLength * 8).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(header(frameType, channels, cpiLength, cpiIndex));
+        for (int ch = 0; ch < channels; ch++) {
+            for (int k = 0; k < cpiLength; k++) {
+                float value = ch + k * 1e-3f;
+                buffer.putFloat(value);
+                buffer.putFloat(-value);
+            }
+        }
+        return buffer.array();
+    }
+
+    static byte[] frames(int count, int channels, int cpiLength) {
+        int frameSize = HeaderIQ.HEADER_SIZE + channels * cpiLength * 8;
+        byte[] stream = new byte[count * frameSize];
+        for (int i = 0; i < count; i++) {
+            System.arraycopy(frame(HeaderIQ.FRAME_TYPE_DATA, channels, cpiLength, i), 0, stream, i * frameSize, frameSize);
+        }
+        return stream;
+    }
+}
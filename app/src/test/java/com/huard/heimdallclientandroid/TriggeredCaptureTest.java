@@ -0,0 +1,110 @@
+package com.huard.heimdallclientandroid;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class TriggeredCaptureTest {
+    private static final int CHANNELS = 2;
+    private static final int CPI_LENGTH = 256;
+    private static final int FRAME_BYTES = CHANNELS * CPI_LENGTH * 8;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void ring_evictsFramesByAgeAndCapacity() {
+        TriggeredCapture byAge = new TriggeredCapture(folder.getRoot(), 8 * FRAME_BYTES, 64, 1000, 0);
+        TriggeredCapture byCapacity = new TriggeredCapture(folder.getRoot(), 4 * FRAME_BYTES, 64, 1000, 0);
+        for (int i = 0; i < 10; i++) {
+            byAge.append(null, samples(1f), header(i), i * 200L);
+            byCapacity.append(null, samples(1f), header(i), i * 50L);
+        }
+        assertEquals(6, byAge.getBufferedFrameCount());  // frames within 1 s of the newest
+        assertEquals(4, byCapacity.getBufferedFrameCount());
+        assertEquals(0, byAge.getOverrunCount());
+        byAge.shutdown();
+        byCapacity.shutdown();
+    }
+
+    @Test
+    public void trigger_savesHistoryAndPostTriggerWindow() throws Exception {
+        TriggeredCapture capture = new TriggeredCapture(folder.getRoot(), 16 * FRAME_BYTES, 64, 1000, 500);
+        CountDownLatch saved = new CountDownLatch(1);
+        AtomicReference<File> savedFile = new AtomicReference<>();
+        AtomicLong savedFrames = new AtomicLong();
+        capture.setListener((dataFile, frames, reason) -> {
+            savedFile.set(dataFile);
+            savedFrames.set(frames);
+            saved.countDown();
+        });
+        long start = System.currentTimeMillis() - 2000;
+        for (int i = 0; i < 10; i++) {
+            capture.append(null, samples(i), header(i), start + i * 200L);
+        }
+        assertEquals(6, capture.getBufferedFrameCount());
+
+        assertTrue(capture.trigger("test"));
+        assertFalse(capture.trigger("again"));
+        long now = System.currentTimeMillis();
+        capture.append(null, samples(10), header(10), now);  // pinned history is not evicted by age
+        capture.append(null, samples(11), header(11), now + 100);
+        capture.append(null, samples(12), header(12), now + 1000);  // last frame of the window
+        capture.append(null, samples(13), header(13), now + 1100);
+
+        assertTrue(saved.await(10, TimeUnit.SECONDS));
+        assertEquals(9, savedFrames.get());
+        assertFalse(capture.isCapturing());
+        String name = savedFile.get().getName().replace(IqRecorder.DATA_EXTENSION, "");
+        try (IqRecording recording = new IqRecording(folder.getRoot(), name)) {
+            assertEquals(9, recording.getFrameCount());
+            assertEquals(CHANNELS, recording.getChannelCount());
+            for (int i = 0; i < 9; i++) {
+                assertEquals(4 + i, recording.getCpiIndex(i));
+            }
+            assertEquals(12f, recording.readFrameArrays(8)[1][0], 0f);
+        }
+        capture.shutdown();
+    }
+
+    @Test
+    public void power_triggersOnRisingEdge() {
+        TriggeredCapture capture = new TriggeredCapture(folder.getRoot(), 16 * FRAME_BYTES, 64, 1000, 60000);
+        capture.setThresholdDbfs(-10f);
+        long now = System.currentTimeMillis();
+        capture.append(null, samples(0.1f), header(0), now);  // -20 dBFS
+        assertEquals(0, capture.getCaptureCount());
+        capture.append(null, samples(0.5f), header(1), now);  // -6 dBFS
+        capture.append(null, samples(0.5f), header(2), now);
+        assertEquals(1, capture.getCaptureCount());
+        assertTrue(capture.isCapturing());
+        capture.shutdown();
+    }
+
+    private static HeaderIQ header(int cpiIndex) {
+        byte[] frame = TestFrames.frame(HeaderIQ.FRAME_TYPE_DATA, CHANNELS, CPI_LENGTH, cpiIndex);
+        HeaderIQ header = new HeaderIQ();
+        header.decodeHeader(ByteBuffer.wrap(frame, 0, HeaderIQ.HEADER_SIZE));
+        return header;
+    }
+
+    // Every sample of every channel has I = amplitude, Q = 0
+    private static float[][] samples(float amplitude) {
+        float[][] iq = new float[CHANNELS][2 * CPI_LENGTH];
+        for (int ch = 0; ch < CHANNELS; ch++) {
+            for (int k = 0; k < CPI_LENGTH; k++) {
+                iq[ch][2 * k] = amplitude;
+            }
+        }
+        return iq;
+    }
+}
@@ -0,0 +1,105 @@
+package com.huard.heimdallclientandroid;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class WelchEstimatorTest {
+
+    @Test
+    public void rectangularSingleSegment_matchesPeriodogram() {
+        float[][] iq = SpectrumEngineTest.tone(1, 1024, 0.1);
+        float[] expected = new float[1024];
+        float expectedMax = new SpectrumEngine().powerSpectrumDBm(iq[0], 1024, expected);
+
+        WelchConfig config = new WelchConfig(1024, 0f, WindowFunction.RECTANGULAR, WelchConfig.Averaging.NONE, 1f, 1);
+        float[] actual = new float[1024];
+        float actualMax = new WelchEstimator(config).estimate(iq[0], 1024, actual);
+
+        assertEquals(expectedMax, actualMax, 1e-3f);
+        for (int i = 0; i < 1024; i++) {
+            if (expected[i] > -100)
+                assertEquals(expected[i], actual[i], 1e-2f);
+        }
+    }
+
+    @Test
+    public void windowTables_areCachedAndShaped() {
+        float[] hann = WindowFunction.HANN.coefficients(64);
+        assertSame(hann, WindowFunction.HANN.coefficients(64));
+        assertEquals(0f, hann[0], 1e-6f);
+        assertEquals(1f, hann[32], 1e-6f);
+        assertEquals(1f, WindowFunction.FLAT_TOP.coefficients(64)[32], 1e-3f);
+    }
+
+    @Test
+    public void welch_lowersNoiseFloorVariance() {
+        float[] noise = noise(1 << 14, 2);
+        float[] periodogram = new float[1 << 14];
+        new SpectrumEngine().powerSpectrumDBm(noise, 1 << 14, periodogram);
+
+        float[] welch = new float[1024];
+        new WelchEstimator(new WelchConfig(1024)).estimate(noise, 1 << 14, welch);
+
+        assertTrue(standardDeviation(welch) < standardDeviation(periodogram) / 3);
+    }
+
+    @Test
+    public void blockAveraging_isMeanOfLastFrames() {
+        WelchConfig config = new WelchConfig(16, 0f, WindowFunction.RECTANGULAR, WelchConfig.Averaging.BLOCK, 1f, 2);
+        WelchEstimator estimator = new WelchEstimator(config);
+        float[] powerDBm = new float[16];
+
+        float quiet = estimator.estimate(constant(16, 1f), 16, powerDBm);
+        float loud = estimator.estimate(constant(16, 3f), 16, powerDBm);
+        float louder = estimator.estimate(constant(16, 3f), 16, powerDBm);
+
+        // DC power scales with amplitude squared: mean of 1 and 9 is 5
+        assertEquals(quiet + 10 * Math.log10(5), loud, 1e-3);
+        assertEquals(quiet + 10 * Math.log10(9), louder, 1e-3);
+    }
+
+    @Test
+    public void exponentialAveraging_convergesToSteadyState() {
+        WelchConfig config = new WelchConfig(16, 0f, WindowFunction.RECTANGULAR, WelchConfig.Averaging.EXPONENTIAL, 0.5f, 1);
+        WelchEstimator estimator = new WelchEstimator(config);
+        float[] powerDBm = new float[16];
+
+        float first = estimator.estimate(constant(16, 1f), 16, powerDBm);
+        float last = first;
+        for (int i = 0; i < 30; i++) {
+            last = estimator.estimate(constant(16, 3f), 16, powerDBm);
+        }
+        assertEquals(first + 10 * Math.log10(9), last, 1e-3);
+    }
+
+    private static float[] constant(int n, float amplitude) {
+        float[] iq = new float[2 * n];
+        for (int i = 0; i < n; i++) {
+            iq[2 * i] = amplitude;
+        }
+        return iq;
+    }
+
+    private static float[] noise(int n, long seed) {
+        Random random = new Random(seed);
+        float[] iq = new float[2 * n];
+        for (int i = 0; i < iq.length; i++) {
+            iq[i] = (float) random.nextGaussian();
+        }
+        return iq;
+    }
+
+    private static double standardDeviation(float[] values) {
+        double sum = 0;
+        double sumOfSquares = 0;
+        for (float value : values) {
+            sum += value;
+            sumOfSquares += value * value;
+        }
+        double mean = sum / values.length;
+        return Math.sqrt(sumOfSquares / values.length - mean * mean);
+    }
+}
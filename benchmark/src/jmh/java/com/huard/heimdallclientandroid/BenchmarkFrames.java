@@ -0,0 +1,82 @@
+package com.huard.heimdallclientandroid;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Synthetic Heimdall frames and inputs for the benchmarks.
+ */
+final class BenchmarkFrames {
+    private BenchmarkFrames() {}
+
+    /** One encoded data frame: header plus a channel-major cf32 tone payload. */
+    static byte[] frame(int channels, int cpiLength) {
+        return frame(channels, cpiLength, 32);
+    }
+
+    /** As {@link #frame(int, int)}, with samples of the given bit depth (see {@link SampleFormat}). */
+    static byte[] frame(int channels, int cpiLength, int sampleBitDepth) {
+        HeaderIQ header = new HeaderIQ();
+        header.setReplayFrame(channels, cpiLength, 0, System.currentTimeMillis(), 2_409_000_000L, 2_400_000L);
+        header.setSampleBitDepth(sampleBitDepth);
+        ByteBuffer buffer = ByteBuffer.allocate(HeaderIQ.HEADER_SIZE + header.getPayloadSize()).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(header.encodeHeader());
+        for (float[] channel : tone(channels, cpiLength)) {
+            for (float value : channel) {
+                if (sampleBitDepth == 8)
+                    buffer.put((byte) Math.round(value * 127));
+                else if (sampleBitDepth == 16)
+                    buffer.putShort((short) Math.round(value * 32767));
+                else
+                    buffer.putFloat(value);
+            }
+        }
+        return buffer.array();
+    }
+
+    /** Interleaved I/Q tones with a little noise, [channel][2 * sample + (0 = I, 1 = Q)]. */
+    static float[][] tone(int channels, int cpiLength) {
+        java.util.Random random = new java.util.Random(1);
+        float[][] iq = new float[channels][cpiLength * 2];
+        for (int ch = 0; ch < channels; ch++) {
+            double step = 2 * Math.PI * (ch + 1) / 64.0;
+            for (int k = 0; k < cpiLength; k++) {
+                iq[ch][2 * k] = (float) (0.5 * Math.cos(step * k) + 0.01 * random.nextGaussian());
+                iq[ch][2 * k + 1] = (float) (0.5 * Math.sin(step * k) + 0.01 * random.nextGaussian());
+            }
+        }
+        return iq;
+    }
+
+    /** A channel that replays the same bytes forever, so a reader sees an endless frame stream. */
+    static final class LoopingChannel implements ReadableByteChannel {
+        private final ByteBuffer source;
+
+        LoopingChannel(byte[] bytes) {
+            this.source = ByteBuffer.wrap(bytes);
+        }
+
+        @Override
+        public int read(ByteBuffer destination) {
+            if (!source.hasRemaining())
+                source.rewind();
+            int count = Math.min(source.remaining(), destination.remaining());
+            ByteBuffer slice = source.duplicate();
+            slice.limit(slice.position() + count);
+            destination.put(slice);
+            source.position(source.position() + count);
+            return count;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.huard.heimdallclientandroid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Direction finding: the per-frame covariance update paid on the receive thread, and the
+ * eigendecomposition plus Bartlett and MUSIC scan the worker runs per update.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DoaBenchmark {
+    private static final int CHANNELS = 5;
+    private static final long FREQUENCY_HZ = 433_000_000L;
+
+    @Param({"16384", "1048576"})
+    public int cpiLength;
+
+    @Param({"4096", "65536"})
+    public int maxSnapshots;
+
+    private float[][] iq;
+    private DoaEngine engine;
+    private DoaEngine scanner;  // never fed, so its worker stays idle and the scan runs here
+    private final double[] covarianceRe = new double[CHANNELS * CHANNELS];
+    private final double[] covarianceIm = new double[CHANNELS * CHANNELS];
+    private final DoaEngine.Result result = new DoaEngine.Result(new float[360]);
+
+    @Setup(Level.Trial)
+    public void setup() {
+        iq = BenchmarkFrames.tone(CHANNELS, cpiLength);
+        engine = new DoaEngine(ArrayGeometry.uniformCircular(CHANNELS, 0.2), 1f, r -> {});
+        engine.setMaxSnapshots(maxSnapshots);
+        scanner = new DoaEngine(ArrayGeometry.uniformCircular(CHANNELS, 0.2), 1f, r -> {});
+        // One source plus white noise: R = a.a^H + I
+        float[] a = scanner.getSteering(FREQUENCY_HZ)[40];
+        for (int i = 0; i < CHANNELS; i++) {
+            for (int j = 0; j < CHANNELS; j++) {
+                covarianceRe[i * CHANNELS + j] = a[2 * i] * a[2 * j] + a[2 * i + 1] * a[2 * j + 1] + (i == j ? 1 : 0);
+                covarianceIm[i * CHANNELS + j] = a[2 * i + 1] * a[2 * j] - a[2 * i] * a[2 * j + 1];
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        engine.shutdown();
+        scanner.shutdown();
+    }
+
+    @Benchmark
+    public void covariance() {
+        engine.observe(iq, cpiLength, FREQUENCY_HZ);
+    }
+
+    @Benchmark
+    public DoaEngine.Result spectra() {
+        scanner.computeSpectra(covarianceRe, covarianceIm, FREQUENCY_HZ, result);
+        return result;
+    }
+}
@@ -0,0 +1,76 @@
+package com.huard.heimdallclientandroid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of decoding the 1024-byte IQ header that precedes every frame: the eager {@link HeaderIQ}
+ * decoder against the {@link HeaderView} flyweight, for the fields the receive path needs per frame
+ * and for keeping a copy beyond the next read.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class HeaderDecodeBenchmark {
+    private ByteBuffer encoded;
+    private final HeaderIQ header = new HeaderIQ();
+    private final HeaderIQ snapshot = new HeaderIQ();
+    private final HeaderView view = new HeaderView();
+    private final HeaderView pooledCopy = new HeaderView();
+
+    @Setup
+    public void setup() {
+        byte[] frame = BenchmarkFrames.frame(5, 1024);
+        encoded = ByteBuffer.allocateDirect(HeaderIQ.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        encoded.put(frame, 0, HeaderIQ.HEADER_SIZE);
+        pooledCopy.wrap(ByteBuffer.allocate(HeaderIQ.HEADER_SIZE));  // owned target buffer, reused by copyTo
+    }
+
+    @Benchmark
+    public HeaderIQ decodeHeader() {
+        header.decodeHeader(encoded);
+        return header;
+    }
+
+    @Benchmark
+    public HeaderIQ decodeAndSnapshot() {
+        header.decodeHeader(encoded);
+        snapshot.copyFrom(header);
+        return snapshot;
+    }
+
+    /** Frame type, payload size and CPI index, the per-frame checks before the payload is read. */
+    @Benchmark
+    public long eagerTriage() {
+        header.decodeHeader(encoded);
+        return header.getFrameType() + header.getPayloadSize() + header.getIndexCPI();
+    }
+
+    @Benchmark
+    public long viewTriage() {
+        view.wrap(encoded);
+        return view.getFrameType() + view.getPayloadSize() + view.getIndexCPI();
+    }
+
+    @Benchmark
+    public HeaderView viewCopyToPooled() {
+        view.wrap(encoded);
+        view.copyTo(pooledCopy);
+        return pooledCopy;
+    }
+
+    @Benchmark
+    public HeaderView viewSnapshot() {
+        view.wrap(encoded);
+        return view.snapshot();
+    }
+}
@@ -0,0 +1,104 @@
+package com.huard.heimdallclientandroid;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Frames through {@link DataClient} from a {@link HeimdallSimulator} on the loopback interface,
+ * answering each request after an injected link latency.  The score is frames/s delivered to the
+ * listener; the {@code bytes} counter is the matching link rate in bytes/s.  Comparing request
+ * windows at 20 ms shows how much of the round trip pipelining hides.  Each frame is handed to the
+ * benchmark thread before the client reads the next, so frames are not banked between iterations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class LoopbackBenchmark {
+    private static final int CHANNELS = 5;
+
+    @Param({"STREAM", "CHANNEL"})
+    public DataClient.ReaderMode readerMode;
+
+    @Param({"16384", "65536"})
+    public int cpiLength;
+
+    @Param({"1", "4"})
+    public int requestWindow;
+
+    @Param({"0", "20"})
+    public int latencyMs;
+
+    private final SynchronousQueue<HeaderIQ> delivered = new SynchronousQueue<>();
+    private volatile boolean stopping;
+    private HeimdallSimulator simulator;
+    private DataClient client;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Link {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        simulator = new HeimdallSimulator();
+        simulator.setPayload(CHANNELS, cpiLength).setLatencyMs(latencyMs);
+        client = new DataClient(new DataClientListener() {
+            @Override
+            public void notifyDataClient(float[][] data, HeaderIQ header) {
+                handOver(header);
+            }
+
+            @Override
+            public void notifyDataClient(FloatBuffer data, HeaderIQ header) {
+                handOver(header);
+            }
+        }, "localhost", simulator.getDataPort(), readerMode);
+        client.setRequestWindow(requestWindow);
+        client.connect();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        stopping = true;
+        client.disconnect();
+        simulator.close();
+    }
+
+    @Benchmark
+    public HeaderIQ receiveFrame(Link link) throws InterruptedException {
+        HeaderIQ header = delivered.take();
+        link.bytes += HeaderIQ.HEADER_SIZE + header.getPayloadSize();
+        return header;
+    }
+
+    private void handOver(HeaderIQ header) {
+        try {
+            while (!stopping) {
+                if (delivered.offer(header, 100, TimeUnit.MILLISECONDS))
+                    return;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
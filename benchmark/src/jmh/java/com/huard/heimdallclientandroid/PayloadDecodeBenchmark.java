@@ -0,0 +1,88 @@
+package com.huard.heimdallclientandroid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.FloatBuffer;
+import java.util.Enumeration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a full frame (header plus little-endian cf32, int16 or int8 payload) with the stream
+ * reader, which converts into new per-channel float arrays, and with the channel reader, which fills
+ * reusable buffers.  Frames/s times frame size gives the sustainable link rate per core.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PayloadDecodeBenchmark {
+    @Param({"1024", "16384", "65536", "262144"})
+    public int cpiLength;
+
+    @Param({"1", "5"})
+    public int channels;
+
+    @Param({"32", "16", "8"})
+    public int sampleBitDepth;
+
+    private final HeaderIQ header = new HeaderIQ();
+    private StreamFrameReader streamReader;
+    private ChannelFrameReader channelReader;
+
+    @Setup
+    public void setup() {
+        byte[] frame = BenchmarkFrames.frame(channels, cpiLength, sampleBitDepth);
+        streamReader = new StreamFrameReader(new LoopingInputStream(frame));
+        channelReader = new ChannelFrameReader(new BenchmarkFrames.LoopingChannel(frame));
+    }
+
+    @Benchmark
+    public float[][] streamReader() throws IOException {
+        streamReader.readHeader(header);
+        return streamReader.readPayload(header);
+    }
+
+    @Benchmark
+    public FloatBuffer channelReader() throws IOException {
+        channelReader.readHeader(header);
+        return channelReader.readPayload(header);
+    }
+
+    /** Sums a channel read through the FloatBuffer view, the consumer-side cost of the channel path. */
+    @Benchmark
+    public float channelReaderAndScan() throws IOException {
+        channelReader.readHeader(header);
+        FloatBuffer payload = channelReader.readPayload(header);
+        float sum = 0;
+        for (int i = 0; i < cpiLength * 2; i++) {
+            sum += payload.get(i);
+        }
+        return sum;
+    }
+
+    private static final class LoopingInputStream extends SequenceInputStream {
+        LoopingInputStream(byte[] frame) {
+            super(new Enumeration<InputStream>() {
+                @Override
+                public boolean hasMoreElements() {
+                    return true;
+                }
+
+                @Override
+                public InputStream nextElement() {
+                    return new ByteArrayInputStream(frame);
+                }
+            });
+        }
+    }
+}
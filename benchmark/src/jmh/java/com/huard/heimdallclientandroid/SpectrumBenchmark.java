@@ -0,0 +1,108 @@
+package com.huard.heimdallclientandroid;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-frame DSP stages: the FFT itself, the fused shift/dBm/peak pass that replaced
+ * fftShift, convertFloatArrayToDouble and computeMaxPower, the complete per-channel spectrum, a
+ * Welch estimate, and a whole frame through {@link SpectrumProcessor} on all cores.  legacyFft is
+ * the original commons-math path for the same spectra, the baseline for powerSpectrumDBm.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SpectrumBenchmark {
+    @Param({"4096", "16384", "65536", "262144", "1048576"})
+    public int cpiLength;
+
+    @Param({"1", "5"})
+    public int channels;
+
+    private float[][] iq;
+    private float[] power;
+    private float[] powerDBm;
+    private final SpectrumEngine engine = new SpectrumEngine();
+    private WelchEstimator welch;
+    private SpectrumProcessor processor;
+    private final SpectrumFrame spectrum = new SpectrumFrame();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        iq = BenchmarkFrames.tone(channels, cpiLength);
+        power = new float[cpiLength];
+        powerDBm = new float[cpiLength];
+        for (int i = 0; i < cpiLength; i++) {
+            power[i] = 1e-6f * (1 + i % 97);
+        }
+        welch = new WelchEstimator(new WelchConfig(Math.min(cpiLength, 4096)));
+        processor = new SpectrumProcessor();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        processor.shutdown();
+    }
+
+    @Benchmark
+    public void fft(Blackhole blackhole) {
+        for (float[] channel : iq) {
+            blackhole.consume(engine.forward(channel, cpiLength));
+        }
+    }
+
+    @Benchmark
+    public float shiftToDBm() {
+        float max = Float.NEGATIVE_INFINITY;
+        for (int ch = 0; ch < channels; ch++) {
+            max = Math.max(max, SpectrumEngine.shiftToDBm(power, cpiLength, powerDBm));
+        }
+        return max;
+    }
+
+    @Benchmark
+    public float powerSpectrumDBm() {
+        float max = Float.NEGATIVE_INFINITY;
+        for (float[] channel : iq) {
+            max = Math.max(max, engine.powerSpectrumDBm(channel, cpiLength, powerDBm));
+        }
+        return max;
+    }
+
+    @Benchmark
+    public double legacyFft() {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double[] channel : LegacySpectrum.convertFloatArrayToDouble(iq)) {
+            for (double value : LegacySpectrum.powerDBm(channel)) {
+                max = Math.max(max, value);
+            }
+        }
+        return max;
+    }
+
+    @Benchmark
+    public float welchEstimate() {
+        float max = Float.NEGATIVE_INFINITY;
+        for (float[] channel : iq) {
+            max = Math.max(max, welch.estimate(channel, cpiLength, powerDBm));
+        }
+        return max;
+    }
+
+    @Benchmark
+    public SpectrumFrame processorComputeSpectra() {
+        processor.computeSpectra(iq, 2.4f, spectrum);
+        return spectrum;
+    }
+}
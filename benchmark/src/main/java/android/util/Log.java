@@ -0,0 +1,26 @@
+package android.util;
+
+/**
+ * No-op stand-in for the Android logger so app classes can be benchmarked on a plain JVM.
+ */
+public final class Log {
+    public static final int DEBUG = 3;
+
+    private Log() {}
+
+    public static boolean isLoggable(String tag, int level) { return false; }
+
+    public static int v(String tag, String msg) { return 0; }
+
+    public static int d(String tag, String msg) { return 0; }
+
+    public static int i(String tag, String msg) { return 0; }
+
+    public static int w(String tag, String msg) { return 0; }
+
+    public static int w(String tag, String msg, Throwable tr) { return 0; }
+
+    public static int e(String tag, String msg) { return 0; }
+
+    public static int e(String tag, String msg, Throwable tr) { return 0; }
+}